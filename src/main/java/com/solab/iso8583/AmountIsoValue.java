@@ -0,0 +1,131 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+
+import com.solab.iso8583.util.TextCodec;
+
+/** An AMOUNT value stored as a primitive long of minor units (cents), so that amounts can
+ * be parsed, compared and written without creating any BigDecimal. The BigDecimal returned
+ * by {@link #getValue()} is only created the first time it's requested.
+ */
+public class AmountIsoValue extends IsoValue<BigDecimal> {
+
+	/** The largest amount that fits in the 12 digits of the field. */
+	public static final long MAX_MINOR_UNITS = 999999999999L;
+
+	private final long minorUnits;
+	private BigDecimal decimal;
+
+	/** Creates a new AMOUNT value.
+	 * @param minorUnits The amount in minor units, for example 123456 for 1234.56.
+	 * @throws IllegalArgumentException if the amount doesn't fit in 12 digits (11 if negative). */
+	public AmountIsoValue(long minorUnits) {
+		super(IsoType.AMOUNT, null, null);
+		if (minorUnits > MAX_MINOR_UNITS || minorUnits < -(MAX_MINOR_UNITS / 10)) {
+			throw new IllegalArgumentException("Amount is larger than 12 digits: " + minorUnits);
+		}
+		this.minorUnits = minorUnits;
+	}
+
+	/** Returns the amount in minor units. */
+	public long getMinorUnits() {
+		return minorUnits;
+	}
+
+	/** Returns the amount as a BigDecimal with two decimals, creating it the first time
+	 * it's requested. */
+	@Override
+	public BigDecimal getValue() {
+		if (decimal == null) {
+			decimal = BigDecimal.valueOf(minorUnits, 2);
+		}
+		return decimal;
+	}
+
+	/** Returns the amount as 12 digits without a decimal point. */
+	@Override
+	public String toString() {
+		final char[] digits = new char[12];
+		long v = Math.abs(minorUnits);
+		for (int i = digits.length - 1; i >= 0; i--) {
+			digits[i] = (char)((v % 10) + '0');
+			v /= 10;
+		}
+		if (minorUnits < 0) {
+			digits[0] = '-';
+		}
+		return new String(digits);
+	}
+
+	/** Returns the hash of {@link #toString()}, like any other IsoValue, so that values that
+	 * are equal to a plain AMOUNT IsoValue hash the same; the String is not created. */
+	@Override
+	public int hashCode() {
+		final long v = Math.abs(minorUnits);
+		int h = minorUnits < 0 ? '-' : (int)(v / LongIsoValue.POW10[11]) + '0';
+		for (int i = 10; i >= 0; i--) {
+			h = 31 * h + (int)((v / LongIsoValue.POW10[i]) % 10) + '0';
+		}
+		return h;
+	}
+
+	@Override
+	public AmountIsoValue clone() {
+		return (AmountIsoValue)super.clone();
+	}
+
+	/** Writes the digits directly: 6 bytes of BCD in binary mode, or 12 bytes in text mode
+	 * when the character encoding has a single byte for each digit, such as ASCII or EBCDIC. */
+	@Override
+	public void write(final OutputStream outs, final boolean binary, final boolean forceStringEncoding)
+			throws IOException {
+		if (binary) {
+			if (minorUnits < 0) {
+				throw new IllegalArgumentException("Cannot encode negative amount in BCD: " + minorUnits);
+			}
+			for (int i = 11; i > 0; i -= 2) {
+				final int hi = (int)((minorUnits / LongIsoValue.POW10[i]) % 10);
+				final int lo = (int)((minorUnits / LongIsoValue.POW10[i - 1]) % 10);
+				outs.write((hi << 4) | lo);
+			}
+		} else if (minorUnits >= 0 && getTextCodec().hasAsciiTable()) {
+			final TextCodec tc = getTextCodec();
+			for (int i = 11; i >= 0; i--) {
+				outs.write(tc.fromAscii((int)((minorUnits / LongIsoValue.POW10[i]) % 10) + '0'));
+			}
+		} else {
+			getTextCodec().write(toString(), outs);
+		}
+	}
+
+	@Override
+	public int encodedLength(final boolean binary, final boolean forceStringEncoding)
+			throws UnsupportedEncodingException {
+		if (binary) {
+			return 6;
+		}
+		return getTextCodec().hasAsciiTable() ? 12 : getTextCodec().encodedLength(toString());
+	}
+
+}
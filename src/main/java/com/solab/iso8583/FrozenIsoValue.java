@@ -0,0 +1,124 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Date;
+import java.util.TimeZone;
+
+/** An immutable copy of a template field, which the messages created by a {@link MessageFactory}
+ * share by reference instead of cloning it. The value is encoded once, when the template is
+ * frozen, and those bytes are copied to the output whenever the value is written with the same
+ * flags. Cloning it returns a regular, mutable copy of the original value.
+ */
+final class FrozenIsoValue<T> extends IsoValue<T> {
+
+	private final IsoValue<T> source;
+	private final boolean binary;
+	private final boolean forceStringEncoding;
+	private final byte[] encoded;
+
+	private FrozenIsoValue(IsoValue<T> source, boolean binary, boolean forceStringEncoding)
+			throws IOException {
+		super(source.getType(), source.getValue(), source.getLength(), source.getEncoder());
+		super.setCharacterEncoding(source.getCharacterEncoding());
+		super.setTimeZone(source.getTimeZone());
+		this.source = source.clone();
+		this.binary = binary;
+		this.forceStringEncoding = forceStringEncoding;
+		final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		source.write(bout, binary, forceStringEncoding);
+		encoded = bout.toByteArray();
+	}
+
+	/** Returns a frozen copy of the value, encoded with the specified flags, or null if the value
+	 * can't be frozen: values with a custom encoder, or whose type may be mutable. */
+	static <T> FrozenIsoValue<T> freeze(IsoValue<T> v, boolean binary, boolean forceStringEncoding) {
+		if (v instanceof FrozenIsoValue) {
+			final FrozenIsoValue<T> f = (FrozenIsoValue<T>)v;
+			if (f.binary == binary && f.forceStringEncoding == forceStringEncoding) {
+				return f;
+			}
+			return freeze(f.source, binary, forceStringEncoding);
+		}
+		final Object value = v.getValue();
+		if (v.getEncoder() != null || !(value instanceof String || value instanceof Number
+				|| value instanceof Date || value instanceof byte[])) {
+			return null;
+		}
+		try {
+			return new FrozenIsoValue<>(v, binary, forceStringEncoding);
+		} catch (IOException | RuntimeException ex) {
+			//The value will be encoded with every message, and fail there
+			return null;
+		}
+	}
+
+	@Override
+	public void write(final OutputStream outs, final boolean binary, final boolean forceStringEncoding)
+			throws IOException {
+		if (binary == this.binary && forceStringEncoding == this.forceStringEncoding) {
+			outs.write(encoded);
+		} else {
+			source.write(outs, binary, forceStringEncoding);
+		}
+	}
+
+	@Override
+	public int encodedLength(final boolean binary, final boolean forceStringEncoding)
+			throws UnsupportedEncodingException {
+		if (binary == this.binary && forceStringEncoding == this.forceStringEncoding) {
+			return encoded.length;
+		}
+		return source.encodedLength(binary, forceStringEncoding);
+	}
+
+	@Override
+	public String toString() {
+		return source.toString();
+	}
+
+	/** Does nothing if the encoding is the same one the value was frozen with.
+	 * @throws UnsupportedOperationException if it's a different encoding. */
+	@Override
+	public void setCharacterEncoding(String value) {
+		if (value == null ? getCharacterEncoding() != null : !value.equals(getCharacterEncoding())) {
+			throw new UnsupportedOperationException("Cannot change the encoding of a frozen template value");
+		}
+	}
+
+	/** Does nothing if it's the same timezone the value was frozen with.
+	 * @throws UnsupportedOperationException if it's a different timezone. */
+	@Override
+	public void setTimeZone(TimeZone value) {
+		if (value != getTimeZone()) {
+			throw new UnsupportedOperationException("Cannot change the timezone of a frozen template value");
+		}
+	}
+
+	/** Returns a mutable copy of the original value. */
+	@Override
+	public IsoValue<T> clone() {
+		return source.clone();
+	}
+
+}
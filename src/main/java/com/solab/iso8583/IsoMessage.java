@@ -18,16 +18,25 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 */
 package com.solab.iso8583;
 
+import com.solab.iso8583.parse.FieldParseInfo;
+import com.solab.iso8583.parse.FieldParseResult;
+import com.solab.iso8583.parse.ParsePlan;
+import com.solab.iso8583.util.Bitmap;
+import com.solab.iso8583.util.ByteBufferOutputStream;
 import com.solab.iso8583.util.HexCodec;
+import com.solab.iso8583.util.TextCodec;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.BitSet;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.function.ObjIntConsumer;
 
 /** Represents an ISO8583 message. This is the core class of the framework.
  * Contains the bitmap which is modified as fields are added/removed.
@@ -49,6 +58,23 @@ public class IsoMessage {
     /** This is where the values are stored. */
     @SuppressWarnings("rawtypes")
 	private IsoValue[] fields = new IsoValue[129];
+    /** The fields that have a value, kept in sync with the fields array. */
+    private final Bitmap bitmap = new Bitmap();
+    /** Fields that were parsed lazily and haven't been decoded yet. */
+    private final Bitmap pending = new Bitmap();
+    /** Fields whose original bytes can still be copied from the raw buffer, because they
+     * haven't been set again or marked as dirty. */
+    private final Bitmap clean = new Bitmap();
+    /** The buffer the message was parsed from, and the position and length of
+     * each field in it. */
+    private byte[] rawData;
+    private int[] rawFields;
+    private ParsePlan rawPlan;
+    private boolean rawBinary;
+    private boolean rawForceString;
+    private String rawEncoding;
+    /** Whether the fields keep their original bytes after they're decoded. */
+    private boolean rawPassthrough;
     /** Stores the optional ISO header. */
     private String isoHeader;
     private byte[] binIsoHeader;
@@ -58,6 +84,7 @@ public class IsoMessage {
     private boolean binBitmap;
     private boolean forceStringEncoding;
     private String encoding = System.getProperty("file.encoding");
+    private TextCodec codec;
 
     /** Creates a new empty message with no values set. */
     public IsoMessage() {
@@ -100,6 +127,7 @@ public class IsoMessage {
             throw new IllegalArgumentException("Cannot set null encoding.");
         }
     	encoding = value;
+    	codec = null;
     }
     /** Returns the character encoding for Strings inside the message. Default
      * is taken from the file.encoding system property. */
@@ -107,6 +135,14 @@ public class IsoMessage {
     	return encoding;
     }
 
+    /** Returns the codec for the character encoding, resolving it only once. */
+    protected TextCodec getTextCodec() throws UnsupportedEncodingException {
+    	if (codec == null) {
+    		codec = TextCodec.forName(encoding);
+    	}
+    	return codec;
+    }
+
     /** Specified whether the variable-length fields should encode their length
      * headers using string conversion with the proper character encoding. Default
      * is false, which is the old behavior (encoding as ASCII). This is only useful
@@ -163,21 +199,161 @@ public class IsoMessage {
     	etx = value;
     }
 
+    /** Removes all the fields, the ISO header, the message type and the buffer the message was
+     * parsed from, so that the same instance can be used for another message. The array of
+     * values and the bitmaps are cleared in place instead of being allocated again; the format
+     * settings (binary, bitmap format, encoding, ETX) are kept. The values that were in the
+     * message are not modified, so any that were taken from it before can still be used. */
+    public void reset() {
+    	for (int i = bitmap.nextField(1); i > 0; i = bitmap.nextField(i + 1)) {
+    		fields[i] = null;
+    	}
+    	bitmap.clear();
+    	pending.clear();
+    	clean.clear();
+    	type = 0;
+    	isoHeader = null;
+    	binIsoHeader = null;
+    	rawData = null;
+    	rawPlan = null;
+    	rawEncoding = null;
+    	rawPassthrough = false;
+    }
+
     /** Returns the stored value in the field, without converting or formatting it.
      * @param field The field number. 1 is the secondary bitmap and is not returned as such;
      * real fields go from 2 to 128. */
     public <T> T getObjectValue(int field) {
-    	@SuppressWarnings("unchecked")
-    	IsoValue<T> v = fields[field];
+    	IsoValue<T> v = getField(field);
     	return v == null ? null : v.getValue();
     }
 
-    /** Returns the IsoValue for the specified field. First real field is 2. */
+    /** Returns the value of a NUMERIC field as a long. Fields parsed or set as
+     * {@link LongIsoValue} are returned without boxing; other numbers are converted and
+     * any other value is parsed from its formatted String.
+     * @param field The field number, from 2 to 128.
+     * @throws IllegalArgumentException if the field is not set. */
+    public long getLong(int field) {
+    	final IsoValue<?> v = getField(field);
+    	if (v instanceof LongIsoValue) {
+    		return ((LongIsoValue)v).longValue();
+    	} else if (v == null) {
+    		throw new IllegalArgumentException(String.format("Field %d is not set", field));
+    	} else if (v.getValue() instanceof Number) {
+    		return ((Number)v.getValue()).longValue();
+    	}
+    	return Long.parseLong(v.toString());
+    }
+
+    /** Returns the value of an AMOUNT field in minor units (for example 123456 for 1234.56).
+     * Fields parsed or set as {@link AmountIsoValue} are returned without creating a BigDecimal.
+     * @param field The field number, from 2 to 128.
+     * @throws IllegalArgumentException if the field is not set. */
+    public long getAmount(int field) {
+    	final IsoValue<?> v = getField(field);
+    	if (v instanceof AmountIsoValue) {
+    		return ((AmountIsoValue)v).getMinorUnits();
+    	} else if (v == null) {
+    		throw new IllegalArgumentException(String.format("Field %d is not set", field));
+    	} else if (v.getValue() instanceof BigDecimal) {
+    		return ((BigDecimal)v.getValue()).movePointRight(2).longValue();
+    	}
+    	return new BigDecimal(v.getValue().toString()).movePointRight(2).longValue();
+    }
+
+    /** Returns the IsoValue for the specified field. First real field is 2.
+     * If the message was parsed lazily, the field is decoded the first time it's requested.
+     * @throws IllegalStateException if the field was parsed lazily and its value can't be decoded. */
 	@SuppressWarnings("unchecked")
     public <T> IsoValue<T> getField(int field) {
+    	if (fields[field] == null && field > 1 && pending.get(field)) {
+    		decodePending(field);
+    	}
     	return fields[field];
     }
 
+    /** Returns true if the field was lazily parsed and has not been decoded yet. */
+    public boolean isFieldPending(int field) {
+    	return field > 1 && field <= 128 && pending.get(field);
+    }
+
+    /** Returns true if the field has been set, or marked as dirty, since the message was parsed;
+     * false if it's written by copying its original bytes. Fields of messages that were not
+     * parsed are always dirty. */
+    public boolean isFieldDirty(int field) {
+    	return !clean.get(field);
+    }
+
+    /** Marks a field as changed, so that it's encoded again when the message is written
+     * instead of copying its original bytes. Setting a field does this already; this is only
+     * needed when the value object of a parsed field is modified in place. */
+    public void markFieldDirty(int field) {
+    	clean.clear(field);
+    }
+
+    /** Sets up the message to hold fields that are decoded only when they're requested,
+     * or that are written by copying their original bytes.
+     * The buffer is not copied, so it must not be modified while the message is in use.
+     * @param passthrough Whether decoded fields keep their original bytes until they're set. */
+    void setRawSource(byte[] buf, ParsePlan plan, boolean binary, boolean forceString, String enc,
+    		boolean passthrough) {
+    	rawData = buf;
+    	rawPassthrough = passthrough;
+    	rawPlan = plan;
+    	rawBinary = binary;
+    	rawForceString = forceString;
+    	rawEncoding = enc;
+    	if (rawFields == null) {
+    		rawFields = new int[258];
+    	}
+    }
+
+    /** Records the position and length (including any length header) of a field in the
+     * raw buffer, to be decoded later. */
+    void setRawField(int index, int pos, int length) {
+    	fields[index] = null;
+    	rawFields[index * 2] = pos;
+    	rawFields[index * 2 + 1] = length;
+    	bitmap.set(index);
+    	pending.set(index);
+    	clean.set(index);
+    }
+
+    /** Records the position and length (including any length header) of a field that has
+     * already been decoded, so that it's written by copying those bytes until it's set again. */
+    void setRawBytes(int index, int pos, int length) {
+    	rawFields[index * 2] = pos;
+    	rawFields[index * 2 + 1] = length;
+    	clean.set(index);
+    }
+
+    private void decodePending(int index) {
+    	final FieldParseInfo fpi = rawPlan.getParser(index);
+    	final int pos = rawFields[index * 2];
+    	final int limit = pos + rawFields[index * 2 + 1];
+    	final FieldParseResult result = new FieldParseResult();
+    	try {
+    		if (rawBinary) {
+    			fpi.parseBinary(index, rawData, pos, limit, rawPlan.getDecoder(index), result);
+    		} else {
+    			fpi.parse(index, rawData, pos, limit, rawPlan.getDecoder(index), result);
+    		}
+    	} catch (UnsupportedEncodingException ex) {
+    		throw new IllegalStateException(String.format("Cannot decode field %d", index), ex);
+    	}
+    	if (result.isError()) {
+    		throw new IllegalStateException(String.format("Cannot decode field %d", index),
+    				result.toParseException());
+    	}
+    	final IsoValue<?> v = result.getValue();
+    	v.setCharacterEncoding(encoding);
+    	fields[index] = v;
+    	pending.clear(index);
+    	if (!rawPassthrough) {
+    		clean.clear(index);
+    	}
+    }
+
     /** Stored the field in the specified index. The first field is the secondary bitmap and has index 1,
      * so the first valid value for index must be 2.
      * @return The receiver (useful for setting several fields in sequence). */
@@ -189,6 +365,9 @@ public class IsoMessage {
         	field.setCharacterEncoding(encoding);
     	}
     	fields[index] = field;
+    	bitmap.set(index, field != null);
+    	pending.clear(index);
+    	clean.clear(index);
     	return this;
     }
 
@@ -225,6 +404,9 @@ public class IsoMessage {
     	}
     	if (value == null) {
     		fields[index] = null;
+    		bitmap.clear(index);
+    		pending.clear(index);
+    		clean.clear(index);
     	} else {
     		IsoValue<T> v = null;
     		if (t.needsLength()) {
@@ -234,10 +416,32 @@ public class IsoMessage {
     		}
     		v.setCharacterEncoding(encoding);
     		fields[index] = v;
+    		bitmap.set(index);
+    		pending.clear(index);
+    		clean.clear(index);
     	}
     	return this;
     }
 
+    /** Stores a NUMERIC value in the specified field as a {@link LongIsoValue}, which is
+     * written straight from the long without creating any Strings.
+     * @param index The field number (2 to 128)
+     * @param value The number to store.
+     * @param length The length of the field, up to 18 digits.
+     * @return The receiver (useful for setting several values in sequence). */
+    public IsoMessage setLong(int index, long value, int length) {
+    	return setField(index, new LongIsoValue(value, length));
+    }
+
+    /** Stores an AMOUNT in the specified field as an {@link AmountIsoValue}, which is
+     * written straight from the long without creating a BigDecimal.
+     * @param index The field number (2 to 128)
+     * @param minorUnits The amount in minor units (for example 123456 for 1234.56).
+     * @return The receiver (useful for setting several values in sequence). */
+    public IsoMessage setAmount(int index, long minorUnits) {
+    	return setField(index, new AmountIsoValue(minorUnits));
+    }
+
     /** A convenience method to set new values in fields that already contain values.
      * The field's type, length and custom encoder are taken from the current value.
      * This method can only be used with fields that have been previously set,
@@ -260,7 +464,30 @@ public class IsoMessage {
     /** Returns true is the message has a value in the specified field.
      * @param idx The field number. */
     public boolean hasField(int idx) {
-    	return fields[idx] != null;
+    	return idx > 1 && idx <= 128 && bitmap.get(idx);
+    }
+
+    /** Returns the number of the first field that is set, starting at the specified one
+     * (inclusive), or -1 if there are no more fields. Together with {@link #hasField(int)}
+     * this walks the fields of the message without checking the empty ones:
+     * <pre>for (int i = m.nextField(2); i > 0; i = m.nextField(i + 1))</pre> */
+    public int nextField(int from) {
+    	return bitmap.nextField(from < 2 ? 2 : from);
+    }
+
+    /** Returns the number of fields that are set. */
+    public int getFieldCount() {
+    	return bitmap.cardinality();
+    }
+
+    /** Passes each field that is set to the action, in ascending order, along with its number.
+     * Fields that were parsed lazily are decoded as they're reached. Only the fields that are
+     * set are visited, and the field numbers are not boxed. The action must not add or
+     * remove fields of this message. */
+    public void forEachField(ObjIntConsumer<? super IsoValue<?>> action) {
+    	for (int i = bitmap.nextField(2); i > 0; i = bitmap.nextField(i + 1)) {
+    		action.accept(getField(i), i);
+    	}
     }
 
     /** Writes a message to a stream, after writing the specified number of bytes indicating
@@ -309,147 +536,261 @@ public class IsoMessage {
     }
 
     /** Creates and returns a ByteBuffer with the data of the message, including the length header.
-     * The returned buffer is already flipped, so it is ready to be written to a Channel. */
+     * The returned buffer is already flipped, so it is ready to be written to a Channel.
+     * The buffer is allocated with the exact size of the message and the message is encoded
+     * directly into it. */
     public ByteBuffer writeToBuffer(int lengthBytes) {
     	if (lengthBytes > 4) {
     		throw new IllegalArgumentException("The length header can have at most 4 bytes");
     	}
+    	final byte[] data = customWriteData();
+    	final int len = data == null ? encodedLength() : data.length;
+    	ByteBuffer buf = ByteBuffer.allocate(lengthBytes + len + (etx > -1 ? 1 : 0));
+    	writeTo(buf, lengthBytes, len, data);
+    	buf.flip();
+    	return buf;
+    }
 
-    	byte[] data = writeData();
-    	ByteBuffer buf = ByteBuffer.allocate(lengthBytes + data.length + (etx > -1 ? 1 : 0));
-    	if (lengthBytes > 0) {
-    		int l = data.length;
+    /** Writes the message to a heap or direct buffer supplied by the caller, starting at the
+     * buffer's current position: first the length header, then the ISO header, type, bitmap
+     * and fields, and the ETX if there is one. The message is encoded straight into the buffer
+     * without any intermediate arrays, unless {@link #isWrittenInPlace()} is false, as it is for
+     * subclasses by default, in which case the data returned by {@link #writeData()} is written.
+     * The buffer is not flipped.
+     * @param dst The buffer to write the message to.
+     * @param lengthBytes The size of the message length header. Valid ranges are 0 to 4.
+     * @return The number of bytes written to the buffer.
+     * @throws IllegalArgumentException if the specified length header is more than 4 bytes.
+     * @throws BufferOverflowException if the message doesn't fit in the remaining space of the
+     * buffer, in which case nothing is written. If a field can't be encoded, the exception is
+     * thrown with the position of the buffer back where it was. */
+    public int writeTo(ByteBuffer dst, int lengthBytes) {
+    	if (lengthBytes > 4) {
+    		throw new IllegalArgumentException("The length header can have at most 4 bytes");
+    	}
+    	final byte[] data = customWriteData();
+    	return writeTo(dst, lengthBytes, data == null ? encodedLength() : data.length, data);
+    }
+
+    /** Returns the result of {@link #writeData()}, or null if the message can be encoded
+     * in place. */
+    private byte[] customWriteData() {
+    	return isWrittenInPlace() ? null : writeData();
+    }
+
+    /** Returns true if {@link #writeToBuffer(int)} and {@link #writeTo(ByteBuffer, int)} can
+     * encode the message straight into the buffer, with the size computed by
+     * {@link #encodedLength()}. Otherwise they write the data returned by {@link #writeData()},
+     * which is what subclasses do by default, since they may change how the data is written.
+     * Subclasses that don't change any of the write methods can override this to return true. */
+    protected boolean isWrittenInPlace() {
+    	return getClass() == IsoMessage.class;
+    }
+
+    /** Writes the length header, the data and the ETX; the data is encoded straight into
+     * the buffer when it's null. */
+    private int writeTo(ByteBuffer dst, int lengthBytes, int len, byte[] data) {
+    	final int total = lengthBytes + len + (etx > -1 ? 1 : 0);
+    	if (dst.remaining() < total) {
+    		throw new BufferOverflowException();
+    	}
+    	final int start = dst.position();
+    	try {
+    		if (lengthBytes > 0) {
+    			int l = len;
+    			if (etx > -1) {
+    				l++;
+    			}
+    			if (lengthBytes == 4) {
+    				dst.put((byte)((l & 0xff000000) >> 24));
+    			}
+    			if (lengthBytes > 2) {
+    				dst.put((byte)((l & 0xff0000) >> 16));
+    			}
+    			if (lengthBytes > 1) {
+    				dst.put((byte)((l & 0xff00) >> 8));
+    			}
+    			dst.put((byte)(l & 0xff));
+    		}
+    		if (data != null) {
+    			dst.put(data);
+    		} else {
+    			writeData(new ByteBufferOutputStream(dst));
+    		}
+    		//ETX
     		if (etx > -1) {
-    			l++;
+    			dst.put((byte)etx);
     		}
-    		if (lengthBytes == 4) {
-                buf.put((byte)((l & 0xff000000) >> 24));
+    	} catch (IOException ex) {
+    		dst.position(start);
+    		throw new IllegalStateException("Cannot encode message", ex);
+    	} catch (RuntimeException ex) {
+    		//Don't leave part of the message in the buffer
+    		dst.position(start);
+    		throw ex;
+    	}
+    	return total;
+    }
+
+    /** Returns the exact number of bytes of the message data, as returned by {@link #writeData()}:
+     * the ISO header, type, bitmap and fields, without the length header or the ETX. The size
+     * is computed from the types and lengths of the fields; the values are only formatted when
+     * their size depends on the character encoding.
+     * @throws IllegalStateException if the character encoding is not supported. */
+    public int encodedLength() {
+    	try {
+    		final TextCodec tc = getTextCodec();
+    		int len = 0;
+    		if (isoHeader != null) {
+    			len += tc.encodedLength(isoHeader);
+    		} else if (binIsoHeader != null) {
+    			len += binIsoHeader.length;
     		}
-    		if (lengthBytes > 2) {
-                buf.put((byte)((l & 0xff0000) >> 16));
+    		//Message Type
+    		if (binary) {
+    			len += 2;
+    		} else {
+    			len += tc.hasAsciiTable() ? 4 : tc.encodedLength(String.format("%04x", type));
     		}
-    		if (lengthBytes > 1) {
-                buf.put((byte)((l & 0xff00) >> 8));
+    		//Bitmap
+    		final int bmp = hasSecondaryBitmap() ? 16 : 8;
+    		if (binary || binBitmap) {
+    			len += bmp;
+    		} else if (forceStringEncoding && !tc.hasAsciiTable()) {
+    			len += tc.encodedLength(bitmap.toHexString(hasSecondaryBitmap()));
+    		} else {
+    			len += bmp * 2;
     		}
-            buf.put((byte)(l & 0xff));
-    	}
-    	buf.put(data);
-    	//ETX
-    	if (etx > -1) {
-    		buf.put((byte)etx);
+    		//Fields
+    		final boolean copyRaw = copyRaw();
+    		for (int i = bitmap.nextField(2); i > 0; i = bitmap.nextField(i + 1)) {
+    			if (copyRaw && clean.get(i)) {
+    				len += rawFields[i * 2 + 1];
+    			} else {
+    				len += getField(i).encodedLength(binary, forceStringEncoding);
+    			}
+    		}
+    		return len;
+    	} catch (UnsupportedEncodingException ex) {
+    		throw new IllegalStateException("Unsupported encoding " + encoding, ex);
     	}
-    	buf.flip();
-    	return buf;
     }
 
-    /** Creates a BitSet for the bitmap. */
+    /** Creates a BitSet for the bitmap, where bit 0 indicates the secondary bitmap and bit n
+     * is field n + 1. IsoMessage itself writes the bitmap that tracks the fields that are set
+     * without creating a BitSet, but subclasses write the one returned by this method, so they
+     * can override it to customize the bitmap. */
     protected BitSet createBitmapBitSet() {
-        BitSet bs = new BitSet(forceb2 ? 128 : 64);
-        for (int i = 2 ; i < 129; i++) {
-            if (fields[i] != null) {
-                bs.set(i - 1);
-            }
-        }
-        if (forceb2) {
-            bs.set(0);
-        } else if (bs.length() > 64) {
-            //Extend to 128 if needed
-            BitSet b2 = new BitSet(128);
-            b2.or(bs);
-            bs = b2;
-            bs.set(0);
+        if (forceb2 || bitmap.needsSecondary()) {
+            return BitSet.valueOf(new long[]{ bitmap.getPrimary() | 1, bitmap.getSecondary() });
         }
+        BitSet bs = new BitSet(64);
+        bs.or(BitSet.valueOf(new long[]{ bitmap.getPrimary() }));
         return bs;
     }
 
-    /** Writes the message to a memory stream and returns a byte array with the result. */
+    /** Writes the bits of a BitSet created by {@link #createBitmapBitSet()} to the array, as
+     * ASCII hex digits or as bytes, in whole words of 64 bits, up to 128.
+     * @return The number of bytes written. */
+    private static int writeBitSet(BitSet bs, byte[] buf, boolean hex) {
+    	final int bits = Math.min(bs.size(), 128);
+    	final int step = hex ? 4 : 8;
+    	int len = 0;
+    	for (int i = 0; i < bits; i += step) {
+    		int v = 0;
+    		for (int j = 0; j < step; j++) {
+    			v = (v << 1) | (bs.get(i + j) ? 1 : 0);
+    		}
+    		buf[len++] = hex ? HEX[v] : (byte)v;
+    	}
+    	return len;
+    }
+
+    /** Returns the bitmap of the fields that are set. It's the one the message uses, so it
+     * must not be modified. */
+    Bitmap getFieldBitmap() {
+        return bitmap;
+    }
+
+    /** Returns true if the secondary bitmap needs to be encoded. */
+    private boolean hasSecondaryBitmap() {
+        return forceb2 || bitmap.needsSecondary();
+    }
+
+    /** Writes the message to a memory stream and returns a byte array with the result.
+     * Subclasses can override this method to change the data of the message, for example to
+     * append a MAC; {@link #write(OutputStream, int)}, {@link #writeToBuffer(int)} and
+     * {@link #writeTo(ByteBuffer, int)} then all write the data returned by it, as long as
+     * {@link #isWrittenInPlace()} is false. */
     public byte[] writeData() {
     	ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    	try {
+    		writeData(bout);
+    	} catch (IOException ex) {
+    		//should never happen, writing to a ByteArrayOutputStream
+    	}
+    	return bout.toByteArray();
+    }
+
+    /** Writes the ISO header, type, bitmap and fields of the message to a stream. */
+    protected void writeData(OutputStream outs) throws IOException {
     	if (isoHeader != null) {
-    		try {
-    			bout.write(isoHeader.getBytes(encoding));
-    		} catch (IOException ex) {
-    			//should never happen, writing to a ByteArrayOutputStream
-    		}
+    		outs.write(getTextCodec().encode(isoHeader));
     	} else if (binIsoHeader != null) {
-            try {
-                bout.write(binIsoHeader);
-            } catch (IOException ex) {
-                //should never happen, writing to a ByteArrayOutputStream
-            }
+            outs.write(binIsoHeader);
         }
     	//Message Type
     	if (binary) {
-        	bout.write((type & 0xff00) >> 8);
-        	bout.write(type & 0xff);
+        	outs.write((type & 0xff00) >> 8);
+        	outs.write(type & 0xff);
     	} else {
-    		try {
-    			bout.write(String.format("%04x", type).getBytes(encoding));
-    		} catch (IOException ex) {
-    			//should never happen, writing to a ByteArrayOutputStream
+    		final TextCodec tc = getTextCodec();
+    		if (tc.hasAsciiTable()) {
+    			for (int shift = 12; shift >= 0; shift -= 4) {
+    				outs.write(tc.fromAscii(Character.forDigit((type >> shift) & 0xf, 16)));
+    			}
+    		} else {
+    			outs.write(tc.encode(String.format("%04x", type)));
     		}
     	}
 
-    	//Bitmap
-        BitSet bs = createBitmapBitSet();
-    	//Write bitmap to stream
+    	//Bitmap; subclasses may customize it through createBitmapBitSet
+    	final byte[] bmp = new byte[32];
+    	final BitSet custom = getClass() == IsoMessage.class ? null : createBitmapBitSet();
     	if (binary || binBitmap) {
-    		int pos = 128;
-    		int b = 0;
-    		for (int i = 0; i < bs.size(); i++) {
-    			if (bs.get(i)) {
-    				b |= pos;
-    			}
-    			pos >>= 1;
-    			if (pos == 0) {
-    				bout.write(b);
-    				pos = 128;
-    				b = 0;
-    			}
-    		}
+    		outs.write(bmp, 0, custom == null ? bitmap.writeBinary(bmp, 0, hasSecondaryBitmap())
+    				: writeBitSet(custom, bmp, false));
     	} else {
-            ByteArrayOutputStream bout2 = null;
-            if (forceStringEncoding) {
-                bout2 = bout;
-                bout = new ByteArrayOutputStream();
-            }
-            int pos = 0;
-            int lim = bs.size() / 4;
-            for (int i = 0; i < lim; i++) {
-                int nibble = 0;
-                if (bs.get(pos++))
-                    nibble |= 8;
-                if (bs.get(pos++))
-                    nibble |= 4;
-                if (bs.get(pos++))
-                    nibble |= 2;
-                if (bs.get(pos++))
-                    nibble |= 1;
-                bout.write(HEX[nibble]);
-            }
+    		final int len = custom == null ? bitmap.writeHex(bmp, 0, hasSecondaryBitmap())
+    				: writeBitSet(custom, bmp, true);
             if (forceStringEncoding) {
-                final String _hb = new String(bout.toByteArray());
-                bout = bout2;
-                try {
-                    bout.write(_hb.getBytes(encoding));
-                } catch (IOException ignore) {
-                    //never happen
+                final TextCodec tc = getTextCodec();
+                if (tc.hasAsciiTable()) {
+                    tc.writeAscii(bmp, 0, len, outs);
+                } else {
+                    outs.write(tc.encode(new String(bmp, 0, len)));
                 }
+            } else {
+                outs.write(bmp, 0, len);
             }
     	}
 
-    	//Fields
-    	for (int i = 2; i < 129; i++) {
-    		IsoValue<?> v = fields[i];
-    		if (v != null) {
-        		try {
-        			v.write(bout, binary, forceStringEncoding);
-        		} catch (IOException ex) {
-        			//should never happen, writing to a ByteArrayOutputStream
-        		}
+    	//Fields; the ones that haven't been decoded or set are copied from the original buffer
+    	//as long as they would be encoded the same way
+    	final boolean copyRaw = copyRaw();
+    	for (int i = bitmap.nextField(2); i > 0; i = bitmap.nextField(i + 1)) {
+    		if (copyRaw && clean.get(i)) {
+    			outs.write(rawData, rawFields[i * 2], rawFields[i * 2 + 1]);
+    		} else {
+    			getField(i).write(outs, binary, forceStringEncoding);
     		}
     	}
-    	return bout.toByteArray();
+    }
+
+    /** Returns true if the clean fields can be copied as they were read. */
+    private boolean copyRaw() {
+    	return !clean.isEmpty() && rawBinary == binary
+    			&& rawForceString == forceStringEncoding && rawEncoding.equals(encoding);
     }
 
     /** Returns a string representation of the message, as if it were encoded
@@ -464,36 +805,20 @@ public class IsoMessage {
         sb.append(String.format("%04x", type));
 
         //Bitmap
-        BitSet bs = createBitmapBitSet();
-        int pos = 0;
-        int lim = bs.size() / 4;
-        for (int i = 0; i < lim; i++) {
-            int nibble = 0;
-            if (bs.get(pos++))
-               nibble |= 8;
-            if (bs.get(pos++))
-               nibble |= 4;
-            if (bs.get(pos++))
-               nibble |= 2;
-            if (bs.get(pos++))
-               nibble |= 1;
-            sb.append(new String(HEX, nibble, 1));
-        }
+        sb.append(bitmap.toHexString(hasSecondaryBitmap()));
 
         //Fields
-        for (int i = 2; i < 129; i++) {
-            IsoValue<?> v = fields[i];
-            if (v != null) {
-                String desc = v.toString();
-                if (v.getType() == IsoType.LLBIN || v.getType() == IsoType.LLVAR) {
-                    sb.append(String.format("%02d", desc.length()));
-                } else if (v.getType() == IsoType.LLLBIN || v.getType() == IsoType.LLLVAR) {
-                    sb.append(String.format("%03d", desc.length()));
-                } else if (v.getType() == IsoType.LLLLBIN || v.getType() == IsoType.LLLLVAR) {
-                    sb.append(String.format("%04d", desc.length()));
-                }
-                sb.append(desc);
+        for (int i = bitmap.nextField(2); i > 0; i = bitmap.nextField(i + 1)) {
+            IsoValue<?> v = getField(i);
+            String desc = v.toString();
+            if (v.getType() == IsoType.LLBIN || v.getType() == IsoType.LLVAR) {
+                sb.append(String.format("%02d", desc.length()));
+            } else if (v.getType() == IsoType.LLLBIN || v.getType() == IsoType.LLLVAR) {
+                sb.append(String.format("%03d", desc.length()));
+            } else if (v.getType() == IsoType.LLLLBIN || v.getType() == IsoType.LLLLVAR) {
+                sb.append(String.format("%04d", desc.length()));
             }
+            sb.append(desc);
         }
         return sb.toString();
     }
@@ -522,8 +847,8 @@ public class IsoMessage {
      * not present in the source message it is simply ignored. */
     public void copyFieldsFrom(IsoMessage src, int...idx) {
     	for (int i : idx) {
-    		IsoValue<Object> v = src.getField(i);
-    		if (v != null) {
+    		if (src.hasField(i)) {
+    			IsoValue<Object> v = src.getField(i);
         		setValue(i, v.getValue(), v.getEncoder(), v.getType(), v.getLength());
     		}
     	}
@@ -562,12 +887,11 @@ public class IsoMessage {
      * @return array of fields currently defined
      */
     public Integer[] getAllFields() {
-    	  Set<Integer> a = new HashSet<>(50); 
-    	  for (int i = 0; i < fields.length; i++) {
-    		    if (hasField(i)) {
-    			      a.add(i);
-    		    }
-		    }
-		    return a.toArray(new Integer[a.size()]);
+    	  final Integer[] a = new Integer[bitmap.cardinality()];
+    	  int n = 0;
+    	  for (int i = bitmap.nextField(2); i > 0; i = bitmap.nextField(i + 1)) {
+    		    a[n++] = i;
+    	  }
+    	  return a;
     }
 }
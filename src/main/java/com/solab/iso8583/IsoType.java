@@ -19,10 +19,11 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.solab.iso8583;
 
 import java.math.BigDecimal;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.TimeZone;
 
+import com.solab.iso8583.util.DateFormatter;
+
 /** Defines the possible values types that can be used in the fields.
  * Some types required the length of the value to be specified (NUMERIC
  * and ALPHA). Other types have a fixed length, like dates and times.
@@ -83,26 +84,9 @@ public enum IsoType {
 	}
 
 	/** Formats a Date if the receiver is DATE10, DATE4, DATE_EXP, DATE12 or TIME; throws an exception
-	 * otherwise. */
+	 * otherwise. The digits are cached for each second and timezone by {@link DateFormatter}. */
 	public String format(final Date value, final TimeZone tz) {
-        final SimpleDateFormat sdf;
-		if (this == DATE10) {
-            sdf = new SimpleDateFormat("MMddHHmmss");
-		} else if (this == DATE4) {
-            sdf = new SimpleDateFormat("MMdd");
-		} else if (this == DATE_EXP) {
-            sdf = new SimpleDateFormat("yyMM");
-		} else if (this == TIME) {
-            sdf = new SimpleDateFormat("HHmmss");
-        } else if (this == DATE12) {
-            sdf = new SimpleDateFormat("yyMMddHHmmss");
-		} else {
-            throw new IllegalArgumentException("Cannot format date as " + this);
-        }
-        if (tz != null) {
-            sdf.setTimeZone(tz);
-        }
-        return sdf.format(value);
+        return DateFormatter.format(this, value, tz);
 	}
 
 	/** Formats the string to the given length (length is only useful if type is ALPHA, NUMERIC or BINARY). */
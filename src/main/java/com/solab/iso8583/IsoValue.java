@@ -20,13 +20,16 @@ package com.solab.iso8583;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Date;
 import java.util.TimeZone;
 
 import com.solab.iso8583.util.Bcd;
+import com.solab.iso8583.util.DateFormatter;
 import com.solab.iso8583.util.HexCodec;
+import com.solab.iso8583.util.TextCodec;
 
 /** Represents a value that is stored in a field inside an ISO8583 message.
  * It can format the value when the message is generated.
@@ -45,6 +48,7 @@ public class IsoValue<T> implements Cloneable {
 	private CustomField<T> encoder;
 	private int length;
 	private String encoding;
+	private TextCodec codec;
     private TimeZone tz;
 
 	public IsoValue(IsoType t, T value) {
@@ -213,11 +217,20 @@ public class IsoValue<T> implements Cloneable {
 
 	public void setCharacterEncoding(String value) {
 		encoding = value;
+		codec = null;
 	}
 	public String getCharacterEncoding() {
 		return encoding;
 	}
 
+	/** Returns the codec for the character encoding, resolving it only once. */
+	protected TextCodec getTextCodec() throws UnsupportedEncodingException {
+		if (codec == null) {
+			codec = TextCodec.forName(encoding);
+		}
+		return codec;
+	}
+
     /** Sets the timezone, useful for date fields. */
     public void setTimeZone(TimeZone value) {
         tz = value;
@@ -322,16 +335,8 @@ public class IsoValue<T> implements Cloneable {
             //BCD encode the rest of the length
             outs.write((((l % 100) / 10) << 4) | (l % 10));
         } else if (forceStringEncoding) {
-            String lhead = Integer.toString(l);
-            final int ldiff = digits - lhead.length();
-            if (ldiff == 1) {
-                lhead = '0' + lhead;
-            } else if (ldiff == 2) {
-                lhead = "00" + lhead;
-            } else if (ldiff == 3) {
-                lhead = "000" + lhead;
-            }
-            outs.write(encoding == null ? lhead.getBytes():lhead.getBytes(encoding));
+            //Translate each digit to the encoding, e.g. EBCDIC
+            getTextCodec().writeDigits(l, digits, outs);
         } else {
             //write the length in ASCII
             if (digits == 4) {
@@ -361,6 +366,15 @@ public class IsoValue<T> implements Cloneable {
             writeLengthHeader(length, outs, type, binary, forceStringEncoding);
 		} else if (type == IsoType.LLBIN || type == IsoType.LLLBIN || type == IsoType.LLLLBIN) {
             writeLengthHeader(binary ? length : length*2, outs, type, binary, forceStringEncoding);
+		} else if (isDate()) {
+			//dates are written straight from the cached digits
+			if (binary) {
+				DateFormatter.writeBcd(type, (Date)value, tz, outs);
+				return;
+			} else if (getTextCodec().hasAsciiTable()) {
+				DateFormatter.write(type, (Date)value, tz, getTextCodec(), outs);
+				return;
+			}
 		} else if (binary) {
 			//numeric types in binary are coded like this
 			byte[] buf = null;
@@ -399,8 +413,126 @@ public class IsoValue<T> implements Cloneable {
 				}
 			}
 		} else {
-			outs.write(encoding == null ? toString().getBytes() : toString().getBytes(encoding));
+			writeText(getTextCodec(), outs);
+		}
+	}
+
+	/** Writes the value in text format straight to the stream, padding ALPHA with spaces,
+	 * NUMERIC with zeroes and BINARY with zero digits, as {@link IsoType#format(String, int)}
+	 * would, without formatting the value into a String first. Encodings that can't be written
+	 * in pieces, such as UTF-16, get the formatted value encoded at once. */
+	private void writeText(final TextCodec tc, final OutputStream outs) throws IOException {
+		if (!tc.canWritePieces()) {
+			tc.write(toString(), outs);
+		} else if (type == IsoType.ALPHA && value != null) {
+			String s = encoder == null ? value.toString() : encoder.encodeField(value);
+			if (s == null) {
+				s = "";
+			}
+			final int len = Math.min(s.length(), length);
+			tc.write(s, 0, len, outs);
+			tc.writeRepeated(' ', length - len, outs);
+		} else if (type == IsoType.NUMERIC && encoder == null && value instanceof String) {
+			final String s = (String)value;
+			if (s.length() > length) {
+				throw new IllegalArgumentException("Numeric value is larger than intended length: " + s + " LEN " + length);
+			}
+			tc.writeRepeated('0', length - s.length(), outs);
+			tc.write(s, 0, s.length(), outs);
+		} else if (type == IsoType.AMOUNT && value instanceof BigDecimal) {
+			final long minor = ((BigDecimal)value).movePointRight(2).longValue();
+			if (minor >= 0 && minor <= AmountIsoValue.MAX_MINOR_UNITS) {
+				tc.writeDigits(minor, 12, outs);
+			} else {
+				tc.write(toString(), outs);
+			}
+		} else if (encoder == null && value instanceof byte[]
+				&& (type == IsoType.BINARY || type == IsoType.LLBIN || type == IsoType.LLLBIN || type == IsoType.LLLLBIN)) {
+			final byte[] _v = (byte[])value;
+			if (type == IsoType.BINARY) {
+				//truncated or padded to the length
+				final int len = Math.min(_v.length, length);
+				tc.writeHex(_v, 0, len, outs);
+				tc.writeRepeated('0', (length - len) * 2, outs);
+			} else {
+				tc.writeHex(_v, 0, _v.length, outs);
+			}
+		} else {
+			tc.write(toString(), outs);
 		}
 	}
 
+	/** Returns the number of bytes that {@link #write(OutputStream, boolean, boolean)} writes
+	 * with the same flags, including the length header of variable length types. The size of
+	 * the fixed length types is computed from the field length, without formatting the value,
+	 * when every char is written in a single byte.
+	 * @param binary Whether the value would be written in binary or text format.
+	 * @param forceStringEncoding Whether the length headers would be encoded with the
+	 * character encoding. */
+	public int encodedLength(final boolean binary, final boolean forceStringEncoding)
+			throws UnsupportedEncodingException {
+		final TextCodec tc = getTextCodec();
+		if (type == IsoType.LLLVAR || type == IsoType.LLVAR || type == IsoType.LLLLVAR) {
+			return lengthHeaderLength(binary, forceStringEncoding) + tc.encodedLength(toString());
+		} else if (type == IsoType.LLBIN || type == IsoType.LLLBIN || type == IsoType.LLLLBIN) {
+			return lengthHeaderLength(binary, forceStringEncoding)
+					+ (binary ? binaryLength() : tc.encodedLength(toString()));
+		} else if (binary) {
+			if (type == IsoType.NUMERIC) {
+				return (length / 2) + (length % 2);
+			} else if (type == IsoType.AMOUNT) {
+				return 6;
+			} else if (type == IsoType.DATE10 || type == IsoType.DATE4 ||
+					type == IsoType.DATE_EXP || type == IsoType.TIME || type == IsoType.DATE12) {
+				return isDate() ? type.getLength() / 2 : length / 2;
+			} else if (type == IsoType.BINARY) {
+				return Math.max(length, binaryLength());
+			}
+		} else if (isDate() && tc.hasAsciiTable()) {
+			return type.getLength();
+		} else if (tc.isSingleByte()) {
+			if (type == IsoType.NUMERIC || type == IsoType.ALPHA) {
+				return length;
+			} else if (type == IsoType.BINARY) {
+				return length * 2;
+			}
+		}
+		return tc.encodedLength(toString());
+	}
+
+	/** Returns the size of the length header of a variable length type. */
+	private int lengthHeaderLength(final boolean binary, final boolean forceStringEncoding)
+			throws UnsupportedEncodingException {
+		final int digits;
+		if (type == IsoType.LLLLBIN || type == IsoType.LLLLVAR) {
+			digits = 4;
+		} else if (type == IsoType.LLLBIN || type == IsoType.LLLVAR) {
+			digits = 3;
+		} else {
+			digits = 2;
+		}
+		if (binary) {
+			return digits == 2 ? 1 : 2;
+		} else if (forceStringEncoding && !getTextCodec().hasAsciiTable()) {
+			return getTextCodec().encodedLength("0000".substring(4 - digits));
+		}
+		return digits;
+	}
+
+	/** Returns the number of bytes of a binary value, as written in binary format. */
+	private int binaryLength() {
+		if (value instanceof byte[]) {
+			return ((byte[])value).length;
+		} else if (encoder instanceof CustomBinaryField) {
+			return ((CustomBinaryField<T>)encoder).encodeBinaryField(value).length;
+		}
+		return HexCodec.hexDecode(value.toString()).length;
+	}
+
+	/** Returns true if the value is a Date stored in one of the date types. */
+	private boolean isDate() {
+		return value instanceof Date && (type == IsoType.DATE10 || type == IsoType.DATE4
+				|| type == IsoType.DATE_EXP || type == IsoType.TIME || type == IsoType.DATE12);
+	}
+
 }
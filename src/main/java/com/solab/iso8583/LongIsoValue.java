@@ -0,0 +1,136 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import com.solab.iso8583.util.TextCodec;
+
+/** A NUMERIC value of up to 18 digits stored as a primitive long. It is parsed straight from
+ * the ASCII or BCD digits in the buffer and written straight from the long, so neither
+ * a String nor a Long is created unless {@link #getValue()} or {@link #toString()} are called.
+ */
+public class LongIsoValue extends IsoValue<Long> {
+
+	/** The longest NUMERIC value that fits in a long. */
+	public static final int MAX_DIGITS = 18;
+	static final long[] POW10 = new long[MAX_DIGITS + 1];
+
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private final long number;
+
+	/** Creates a new NUMERIC value.
+	 * @param value The number to store; it must be positive.
+	 * @param length The number of digits of the field, up to 18.
+	 * @throws IllegalArgumentException if the value doesn't fit in the specified length. */
+	public LongIsoValue(long value, int length) {
+		super(IsoType.NUMERIC, null, length, null);
+		if (length > MAX_DIGITS) {
+			throw new IllegalArgumentException(String.format(
+					"NUMERIC of length %d cannot be stored as a long", length));
+		}
+		if (value < 0 || value >= POW10[length]) {
+			throw new IllegalArgumentException("Numeric value is larger than intended length: "
+					+ value + " LEN " + length);
+		}
+		number = value;
+	}
+
+	/** Returns the stored number without boxing it. */
+	public long longValue() {
+		return number;
+	}
+
+	/** Returns the stored number as a Long. */
+	@Override
+	public Long getValue() {
+		return number;
+	}
+
+	/** Returns the number padded with zeroes to the field length. */
+	@Override
+	public String toString() {
+		final char[] digits = new char[getLength()];
+		long v = number;
+		for (int i = digits.length - 1; i >= 0; i--) {
+			digits[i] = (char)((v % 10) + '0');
+			v /= 10;
+		}
+		return new String(digits);
+	}
+
+	/** Returns the hash of {@link #toString()}, like any other IsoValue, so that values that
+	 * are equal to a plain NUMERIC IsoValue hash the same; the String is not created. */
+	@Override
+	public int hashCode() {
+		int h = 0;
+		for (int i = getLength() - 1; i >= 0; i--) {
+			h = 31 * h + (int)((number / POW10[i]) % 10) + '0';
+		}
+		return h;
+	}
+
+	@Override
+	public LongIsoValue clone() {
+		return (LongIsoValue)super.clone();
+	}
+
+	/** Writes the digits directly: BCD in binary mode, or one byte per digit in text mode
+	 * when the character encoding has a single byte for each digit, such as ASCII or EBCDIC. */
+	@Override
+	public void write(final OutputStream outs, final boolean binary, final boolean forceStringEncoding)
+			throws IOException {
+		final int length = getLength();
+		if (binary) {
+			//An odd length has a zero nibble in front
+			final int digits = length + (length % 2);
+			for (int i = digits - 1; i > 0; i -= 2) {
+				final int hi = (int)((number / POW10[i]) % 10);
+				final int lo = (int)((number / POW10[i - 1]) % 10);
+				outs.write((hi << 4) | lo);
+			}
+		} else if (getTextCodec().hasAsciiTable()) {
+			final TextCodec tc = getTextCodec();
+			for (int i = length - 1; i >= 0; i--) {
+				outs.write(tc.fromAscii((int)((number / POW10[i]) % 10) + '0'));
+			}
+		} else {
+			getTextCodec().write(toString(), outs);
+		}
+	}
+
+	@Override
+	public int encodedLength(final boolean binary, final boolean forceStringEncoding)
+			throws UnsupportedEncodingException {
+		final int length = getLength();
+		if (binary) {
+			return (length / 2) + (length % 2);
+		}
+		return getTextCodec().hasAsciiTable() ? length : getTextCodec().encodedLength(toString());
+	}
+
+}
@@ -20,6 +20,7 @@ package com.solab.iso8583;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.*;
 
@@ -29,6 +30,12 @@ import org.slf4j.LoggerFactory;
 
 import com.solab.iso8583.parse.ConfigParser;
 import com.solab.iso8583.parse.FieldParseInfo;
+import com.solab.iso8583.parse.FieldParseResult;
+import com.solab.iso8583.parse.NumericParseInfo;
+import com.solab.iso8583.parse.ParseError;
+import com.solab.iso8583.parse.ParsePlan;
+import com.solab.iso8583.util.Bitmap;
+import com.solab.iso8583.util.TextCodec;
 
 /** This class is used to create messages, either from scratch or from an existing String or byte
  * buffer. It can be configured to put default values on newly created messages, and also to know
@@ -48,17 +55,26 @@ public class MessageFactory<T extends IsoMessage> {
 
 	protected final Logger log = LoggerFactory.getLogger(getClass());
 
+	/** The largest message that is copied from a direct buffer into the reusable array. */
+	private static final int MAX_SCRATCH = 65536;
+
 	/** This map stores the message template for each message type. */
 	private Map<Integer, T> typeTemplates = new HashMap<>();
 	/** Stores the information needed to parse messages sorted by type. */
 	protected Map<Integer, Map<Integer, FieldParseInfo>> parseMap = new HashMap<>();
 	/** Stores the field numbers to be parsed, in order of appearance. */
     protected Map<Integer, List<Integer>> parseOrder = new HashMap<>();
+    /** The compiled parse guides, indexed by the high and low bytes of the message type. */
+    private ParsePlan[][] parsePlans = new ParsePlan[256][];
 
 	private TraceNumberGenerator traceGen;
+	/** The generator for field 37. */
+	private ReferenceNumberGenerator refGen;
 	/** The ISO header to be included in each message type. */
 	private Map<Integer, String> isoHeaders = new HashMap<>();
     private Map<Integer, byte[]> binIsoHeaders = new HashMap<>();
+    /** The fields to put in the responses, by response type. */
+    private Map<Integer, ResponseProfile> responseProfiles = new HashMap<>();
 	/** A map for the custom field encoder/decoders, keyed by field number. */
 	@SuppressWarnings("rawtypes")
 	private Map<Integer, CustomField> customFields = new HashMap<>();
@@ -73,25 +89,124 @@ public class MessageFactory<T extends IsoMessage> {
 	private boolean forceb2;
     private boolean binBitmap;
     private boolean forceStringEncoding;
+    private boolean lazyParsing;
+    private boolean rawPassthrough;
+    private boolean longNumerics;
+    private boolean preEncodeTemplates;
 	private String encoding = System.getProperty("file.encoding");
+	/** The templates, headers and response profiles by message type, once the factory
+	 * is compiled; null until then. */
+	private CompiledType[][] compiledTypes;
+	/** The codec for the encoding, resolved the first time a message is parsed. */
+	private TextCodec codec;
+	/** The array each thread copies messages from direct buffers into, when the parsed
+	 * message doesn't keep the bytes. */
+	private final ThreadLocal<byte[]> scratch = new ThreadLocal<>();
 
     /** This flag gets passed on to newly created messages and also sets this value for all
-     * field parsers in parsing guides. */
+     * field parsers in parsing guides. When the character encoding writes every letter and
+     * digit in a single byte, as EBCDIC does, the message type, bitmap, length headers,
+     * numbers and dates are translated with a table instead of going through Strings. */
     public void setForceStringEncoding(boolean flag) {
+        checkMutable();
         forceStringEncoding = flag;
         for (Map<Integer,FieldParseInfo> pm : parseMap.values()) {
             for (FieldParseInfo parser : pm.values()) {
                 parser.setForceStringDecoding(flag);
             }
         }
+        freezeTemplates();
     }
     public boolean isForceStringEncoding() {
         return forceStringEncoding;
     }
 
+    /** Tells the factory to parse text NUMERIC fields of up to 18 digits as
+     * {@link LongIsoValue} instead of String, so that they can be read with
+     * {@link IsoMessage#getLong(int)} without any conversion. Binary NUMERIC fields are always
+     * parsed this way. Default is false. */
+    public void setUseLongNumerics(boolean flag) {
+        checkMutable();
+        longNumerics = flag;
+        for (Map<Integer,FieldParseInfo> pm : parseMap.values()) {
+            setParseAsLong(pm);
+        }
+    }
+    /** Returns true if text NUMERIC fields are parsed as {@link LongIsoValue}. */
+    public boolean isUseLongNumerics() {
+        return longNumerics;
+    }
+
+    private void setParseAsLong(Map<Integer,FieldParseInfo> guide) {
+        for (FieldParseInfo parser : guide.values()) {
+            if (parser instanceof NumericParseInfo) {
+                ((NumericParseInfo)parser).setParseAsLong(longNumerics);
+            }
+        }
+    }
+
+    /** Tells the factory to freeze the fields of its message templates into immutable values
+     * that are encoded only once, with the current encoding and flags, and are shared by
+     * all the messages created with {@link #newMessage(int)} and {@link #createResponse(IsoMessage)}
+     * instead of being cloned; setting a field in a message replaces the shared value
+     * without affecting the template. Only fields without a custom encoder that hold a String,
+     * Number, Date or byte array are frozen; those values must not be modified afterwards.
+     * Templates added later are frozen as they're added. Default is false. */
+    public void setPreEncodeTemplates(boolean flag) {
+        checkMutable();
+        preEncodeTemplates = flag;
+        if (flag) {
+            freezeTemplates();
+        } else {
+            for (T tmpl : typeTemplates.values()) {
+                for (int i = tmpl.nextField(2); i > 0; i = tmpl.nextField(i + 1)) {
+                    if (tmpl.getField(i) instanceof FrozenIsoValue) {
+                        tmpl.setField(i, tmpl.getField(i).clone());
+                    }
+                }
+            }
+        }
+    }
+    /** Returns true if the fields of the message templates are frozen and shared by the
+     * new messages. */
+    public boolean isPreEncodeTemplates() {
+        return preEncodeTemplates;
+    }
+
+    /** Encodes the fields of all the templates again, if they're frozen. */
+    private void freezeTemplates() {
+        if (preEncodeTemplates) {
+            for (T tmpl : typeTemplates.values()) {
+                freezeTemplate(tmpl);
+            }
+        }
+    }
+
+    private void freezeTemplate(IsoMessage tmpl) {
+        for (int i = tmpl.nextField(2); i > 0; i = tmpl.nextField(i + 1)) {
+            final IsoValue<?> v = tmpl.getField(i);
+            if (v != null) {
+                final IsoValue<?> frozen = FrozenIsoValue.freeze(v, useBinary, forceStringEncoding);
+                if (frozen != null) {
+                    tmpl.setField(i, frozen);
+                }
+            }
+        }
+    }
+
+    /** Returns the template value to put in a new message: the same value if it's frozen
+     * and has the message's encoding, or a copy. */
+    private IsoValue<?> templateValue(IsoValue<?> v, String enc) {
+        if (v instanceof FrozenIsoValue && enc != null && enc.equals(v.getCharacterEncoding())) {
+            return v;
+        }
+        return v.clone();
+    }
+
     /** Tells the factory to create messages that encode their bitmaps in binary format
      * even when they're encoded as text. Has no effect on binary messages. */
     public void setUseBinaryBitmap(boolean flag) {
+        checkMutable();
         binBitmap = flag;
     }
     /** Returns true if the factory is set to create and parse bitmaps in binary format
@@ -102,10 +217,12 @@ public class MessageFactory<T extends IsoMessage> {
 
 	/** Sets the character encoding used for parsing ALPHA, LLVAR and LLLVAR fields. */
 	public void setCharacterEncoding(String value) {
-        if (encoding == null) {
+        checkMutable();
+        if (value == null) {
             throw new IllegalArgumentException("Cannot set null encoding.");
         }
 		encoding = value;
+		codec = null;
 		if (!parseMap.isEmpty()) {
 			for (Map<Integer, FieldParseInfo> pt : parseMap.values()) {
 				for (FieldParseInfo fpi : pt.values()) {
@@ -116,13 +233,17 @@ public class MessageFactory<T extends IsoMessage> {
         if (!typeTemplates.isEmpty()) {
             for (T tmpl : typeTemplates.values()) {
                 tmpl.setCharacterEncoding(encoding);
-                for (int i = 2 ; i<129; i++) {
+                for (int i = tmpl.nextField(2); i > 0; i = tmpl.nextField(i + 1)) {
                     IsoValue<?> v = tmpl.getField(i);
-                    if (v != null) {
+                    if (v instanceof FrozenIsoValue) {
+                        //setField gives the copy the new encoding
+                        tmpl.setField(i, v.clone());
+                    } else if (v != null) {
                         v.setCharacterEncoding(encoding);
                     }
                 }
             }
+            freezeTemplates();
         }
 	}
 
@@ -132,9 +253,18 @@ public class MessageFactory<T extends IsoMessage> {
 		return encoding;
 	}
 
+	/** Returns the codec for the character encoding, resolving it only once. */
+	protected TextCodec getTextCodec() throws UnsupportedEncodingException {
+		if (codec == null) {
+			codec = TextCodec.forName(encoding);
+		}
+		return codec;
+	}
+
 	/** Sets or clears the flag to pass to new messages, to include a secondary bitmap
 	 * even if it's not needed. */
 	public void setForceSecondaryBitmap(boolean flag) {
+		checkMutable();
 		forceb2 = flag;
 	}
 	public boolean isForceSecondaryBitmap() {
@@ -146,6 +276,7 @@ public class MessageFactory<T extends IsoMessage> {
 	 * specified in the bitmap but not actually included in the messages. Default is false, which has
 	 * been the behavior in previous versions when this option didn't exist. */
 	public void setIgnoreLastMissingField(boolean flag) {
+		checkMutable();
 		ignoreLast = flag;
 	}
 	/** This flag indicates if the MessageFactory throws an exception if the last field of a message
@@ -158,12 +289,16 @@ public class MessageFactory<T extends IsoMessage> {
 	/** Specifies a map for custom field encoder/decoders. The keys are the field numbers. */
 	@SuppressWarnings("rawtypes")
 	public void setCustomFields(Map<Integer, CustomField> value) {
+		checkMutable();
 		customFields = value;
+		compileParsePlans();
 	}
 
 	/** Sets the CustomField encoder for the specified field number. */
 	public void setCustomField(int index, CustomField<?> value) {
+		checkMutable();
 		customFields.put(index, value);
+		compileParsePlans();
 	}
 	/** Returns a custom field encoder/decoder for the specified field number, if one is available. */
 	@SuppressWarnings("unchecked")
@@ -180,16 +315,51 @@ public class MessageFactory<T extends IsoMessage> {
 	 * ConfigParser.configureFromClasspathConfig() with itself and the specified path at arguments,
 	 * but is really convenient in case the MessageFactory is being configured from within, say, Spring. */
 	public void setConfigPath(String path) throws IOException {
+		checkMutable();
 		ConfigParser.configureFromClasspathConfig(this, path);
         //Now re-set some properties that need to be propagated down to the recently assigned objects
         setCharacterEncoding(encoding);
         setForceStringEncoding(forceStringEncoding);
+        setUseLongNumerics(longNumerics);
+	}
+
+	/** Tells the receiver to parse messages lazily: parseMessage only walks the length headers
+	 * of the fields to find where each one is, and the values are decoded the first time they
+	 * are requested from the message. Fields that are never requested are written back
+	 * from their original bytes. The buffer passed to parseMessage is kept by the message
+	 * without being copied, so it must not be modified while the message is in use.
+	 * Default is false. */
+	public void setLazyParsing(boolean flag) {
+		checkMutable();
+		lazyParsing = flag;
+	}
+	/** Returns true if messages are parsed lazily. */
+	public boolean isLazyParsing() {
+		return lazyParsing;
+	}
+
+	/** Tells the receiver to have parsed messages keep the original bytes of every field, so
+	 * that the fields that are not set again are written back byte for byte, even after they
+	 * have been decoded, and only the changed fields are encoded. The buffer passed to
+	 * parseMessage is kept by the message without being copied, so it must not be modified
+	 * while the message is in use. A value object that is modified in place must be flagged
+	 * with {@link IsoMessage#markFieldDirty(int)}. Default is false.
+	 * @see IsoMessage#isFieldDirty(int) */
+	public void setRawPassthrough(boolean flag) {
+		checkMutable();
+		rawPassthrough = flag;
+	}
+	/** Returns true if parsed messages write their unchanged fields from the original bytes. */
+	public boolean isRawPassthrough() {
+		return rawPassthrough;
 	}
 
 	/** Tells the receiver to create and parse binary messages if the flag is true.
 	 * Default is false, that is, create and parse ASCII messages. */
 	public void setUseBinaryMessages(boolean flag) {
+		checkMutable();
 		useBinary = flag;
+		freezeTemplates();
 	}
 	/** Returns true is the factory is set to create and parse binary messages,
 	 * false if it uses ASCII messages. Default is false. */
@@ -201,6 +371,7 @@ public class MessageFactory<T extends IsoMessage> {
 	 * default is -1, which means nothing should be sent as terminator.
 	 * @param value The ASCII value of the ETX character or -1 to indicate no terminator should be used. */
 	public void setEtx(int value) {
+		checkMutable();
 		etx = value;
 	}
 	public int getEtx() {
@@ -213,11 +384,35 @@ public class MessageFactory<T extends IsoMessage> {
 	 * @param type The message type, for example 0x200, 0x400, etc. */
 	public T newMessage(int type) {
 		T m;
-        if (binIsoHeaders.get(type) != null) {
-            m = createIsoMessageWithBinaryHeader(binIsoHeaders.get(type));
+        final byte[] binHeader = binIsoHeaderFor(type);
+        if (binHeader != null) {
+            m = createIsoMessageWithBinaryHeader(binHeader);
+        } else {
+            m = createIsoMessage(isoHeaderFor(type));
+        }
+		return setupMessage(m, type);
+	}
+
+	/** Resets an existing message and sets it up the same way {@link #newMessage(int)} sets up
+	 * a new one, so that message instances can be recycled instead of created for every
+	 * request (see {@link MessagePool}).
+	 * @param message The message to reuse; all of its fields are removed first.
+	 * @param type The message type, for example 0x200, 0x400, etc.
+	 * @return The same message. */
+	public T initMessage(T message, int type) {
+		message.reset();
+        final byte[] binHeader = binIsoHeaderFor(type);
+        if (binHeader != null) {
+            message.setBinaryIsoHeader(binHeader);
         } else {
-            m = createIsoMessage(isoHeaders.get(type));
+            message.setIsoHeader(isoHeaderFor(type));
         }
+		return setupMessage(message, type);
+	}
+
+	/** Sets the type, format, template values, trace number and date of a message that
+	 * was just created or reset. */
+	private T setupMessage(T m, int type) {
 		m.setType(type);
 		m.setEtx(etx);
 		m.setBinary(useBinary);
@@ -227,31 +422,49 @@ public class MessageFactory<T extends IsoMessage> {
         m.setForceStringEncoding(forceStringEncoding);
 
 		//Copy the values from the template
-		IsoMessage templ = typeTemplates.get(type);
+		IsoMessage templ = templateFor(type);
 		if (templ != null) {
-			for (int i = 2; i <= 128; i++) {
-				if (templ.hasField(i)) {
-					//We could detect here if there's a custom object with a CustomField,
-					//but we can't copy the value so there's no point.
-					m.setField(i, templ.getField(i).clone());
-				}
+			for (int i = templ.nextField(2); i > 0; i = templ.nextField(i + 1)) {
+				//We could detect here if there's a custom object with a CustomField,
+				//but we can't copy the value so there's no point.
+				m.setField(i, templateValue(templ.getField(i), encoding));
 			}
 		}
 		if (traceGen != null) {
 			m.setValue(11, traceGen.nextTrace(), IsoType.NUMERIC, 6);
 		}
+		if (refGen != null) {
+			assignReference(m);
+		}
 		if (setDate) {
 			m.setValue(7, new Date(), IsoType.DATE10, 10);
 		}
 		return m;
 	}
 
+	/** Sets field 37 of a new message with the next number from the reference generator.
+	 * If the generator ran out of references, a warning is logged and the message is left
+	 * without field 37.
+	 * @return false if the generator ran out of references. */
+	protected boolean assignReference(IsoMessage m) {
+		try {
+			m.setValue(37, refGen.nextReference(), IsoType.NUMERIC, 12);
+			return true;
+		} catch (IllegalStateException ex) {
+			log.warn("New message of type {} has no retrieval reference number: {}",
+					String.format("%04x", m.getType()), ex.getMessage());
+			return false;
+		}
+	}
+
 	/** Creates a message to respond to a request. Increments the message type by 16,
 	 * sets all fields from the template if there is one, and copies all values from the request,
-	 * overwriting fields from the template if they overlap.
+	 * overwriting fields from the template if they overlap. If there is a {@link ResponseProfile}
+	 * for the response type, only the fields it specifies are copied from the request and
+	 * the template.
 	 * @param request An ISO8583 message with a request type (ending in 00). */
 	public T createResponse(T request) {
-		T resp = createIsoMessage(isoHeaders.get(request.getType() + 16));
+		T resp = createIsoMessage(isoHeaderFor(request.getType() + 16));
 		resp.setCharacterEncoding(request.getCharacterEncoding());
 		resp.setBinary(request.isBinary());
         resp.setBinaryBitmap(request.isBinaryBitmap());
@@ -259,19 +472,29 @@ public class MessageFactory<T extends IsoMessage> {
 		resp.setEtx(etx);
 		resp.setForceSecondaryBitmap(forceb2);
 		//Copy the values from the template or the request (request has preference)
-		IsoMessage templ = typeTemplates.get(resp.getType());
-		if (templ == null) {
-			for (int i = 2; i < 128; i++) {
-				if (request.hasField(i)) {
-					resp.setField(i, request.getField(i).clone());
+		IsoMessage templ = templateFor(resp.getType());
+		final ResponseProfile profile = responseProfileFor(resp.getType());
+		if (profile != null) {
+			final Bitmap echoed = profile.echoedFields(request.getFieldBitmap());
+			for (int i = echoed.nextField(2); i > 0; i = echoed.nextField(i + 1)) {
+				resp.setField(i, templateValue(request.getField(i), resp.getCharacterEncoding()));
+			}
+			if (templ != null) {
+				final Bitmap fromTemplate = profile.templateFields(templ.getFieldBitmap(), echoed);
+				for (int i = fromTemplate.nextField(2); i > 0; i = fromTemplate.nextField(i + 1)) {
+					resp.setField(i, templateValue(templ.getField(i), resp.getCharacterEncoding()));
 				}
 			}
 		} else {
-			for (int i = 2; i < 128; i++) {
-				if (request.hasField(i)) {
-					resp.setField(i, request.getField(i).clone());
-				} else if (templ.hasField(i)) {
-					resp.setField(i, templ.getField(i).clone());
+			//Field 128 is not copied
+			for (int i = request.nextField(2); i > 0 && i < 128; i = request.nextField(i + 1)) {
+				resp.setField(i, request.getField(i).clone());
+			}
+			if (templ != null) {
+				for (int i = templ.nextField(2); i > 0 && i < 128; i = templ.nextField(i + 1)) {
+					if (!request.hasField(i)) {
+						resp.setField(i, templateValue(templ.getField(i), resp.getCharacterEncoding()));
+					}
 				}
 			}
 		}
@@ -280,6 +503,7 @@ public class MessageFactory<T extends IsoMessage> {
 
     /** Sets the timezone for the specified FieldParseInfo, if it's needed for parsing dates. */
     public void setTimezoneForParseGuide(int messageType, int field, TimeZone tz) {
+        checkMutable();
         Map<Integer, FieldParseInfo> guide = parseMap.get(messageType);
         if (guide != null) {
             FieldParseInfo fpi = guide.get(field);
@@ -306,215 +530,548 @@ public class MessageFactory<T extends IsoMessage> {
 	 * and the rest of the message must come. */
 	public T parseMessage(byte[] buf, int isoHeaderLength, boolean binaryIsoHeader)
         	throws ParseException, UnsupportedEncodingException {
-		final int minlength = isoHeaderLength+(useBinary?2:4)+(binBitmap||useBinary ? 8:16);
-		if (buf.length < minlength) {
-			throw new ParseException("Insufficient buffer length, needs to be at least " + minlength, 0);
+		return parseMessage(buf, 0, buf.length, isoHeaderLength, binaryIsoHeader);
+	}
+
+    /** Convenience for parseMessage(buf, isoHeaderLength, false) */
+    public T parseMessage(ByteBuffer buf, int isoHeaderLength)
+            throws ParseException, UnsupportedEncodingException {
+        return parseMessage(buf, isoHeaderLength, false);
+    }
+
+	/** Creates a new message instance from the data between the position and the limit of the
+	 * buffer, which must contain a valid ISO8583 message. The position and limit of the buffer are
+	 * not modified. Buffers backed by an array are parsed in place. Direct buffers are copied
+	 * first, because the field parsers work on byte arrays; the copy goes into an array that
+	 * is kept by each thread and reused for every message, unless the factory is set for
+	 * lazy parsing or raw passthrough, in which case the message keeps its own copy.
+	 * @param buf The buffer containing the message. Must not include the length header.
+	 * @param isoHeaderLength The expected length of the ISO header, after which the message type
+	 * and the rest of the message must come. */
+	public T parseMessage(ByteBuffer buf, int isoHeaderLength, boolean binaryIsoHeader)
+			throws ParseException, UnsupportedEncodingException {
+		if (buf.hasArray()) {
+			return parseMessage(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(),
+					isoHeaderLength, binaryIsoHeader);
 		}
-		final T m;
-        if (binaryIsoHeader && isoHeaderLength > 0) {
-            byte[] _bih = new byte[isoHeaderLength];
-            System.arraycopy(buf, 0, _bih, 0, isoHeaderLength);
-            m = createIsoMessageWithBinaryHeader(_bih);
-        } else {
-            m = createIsoMessage(isoHeaderLength > 0 ?
-    				new String(buf, 0, isoHeaderLength, encoding) : null);
-        }
-		m.setCharacterEncoding(encoding);
-		final int type;
-		if (useBinary) {
-			type = ((buf[isoHeaderLength] & 0xff) << 8) | (buf[isoHeaderLength + 1] & 0xff);
-        } else if (forceStringEncoding) {
-            type = Integer.parseInt(new String(buf, isoHeaderLength, 4, encoding), 16);
+		final int len = buf.remaining();
+		byte[] copy;
+		if (lazyParsing || rawPassthrough || len > MAX_SCRATCH) {
+			copy = new byte[len];
 		} else {
-			type = ((buf[isoHeaderLength] - 48) << 12)
-			| ((buf[isoHeaderLength + 1] - 48) << 8)
-			| ((buf[isoHeaderLength + 2] - 48) << 4)
-			| (buf[isoHeaderLength + 3] - 48);
+			copy = scratch.get();
+			if (copy == null || copy.length < len) {
+				copy = new byte[Math.max(len, 1024)];
+				scratch.set(copy);
+			}
+		}
+		buf.duplicate().get(copy, 0, len);
+		return parseMessage(copy, 0, len, isoHeaderLength, binaryIsoHeader);
+	}
+
+	/** Creates a new message instance from a section of the buffer, which must contain a valid
+	 * ISO8583 message. The data is parsed in place, so the message can be read directly from
+	 * a larger buffer (for example the receive buffer of a connection) without copying it first.
+	 * @param buf The buffer containing the message.
+	 * @param offset The position in the buffer where the message starts (the ISO header, if any,
+	 * or the message type). Must not include the length header.
+	 * @param length The number of bytes the message takes in the buffer.
+	 * @param isoHeaderLength The expected length of the ISO header, after which the message type
+	 * and the rest of the message must come. */
+	public T parseMessage(byte[] buf, int offset, int length, int isoHeaderLength,
+						  boolean binaryIsoHeader)
+			throws ParseException, UnsupportedEncodingException {
+		return parseMessage(buf, offset, length, isoHeaderLength, binaryIsoHeader, null);
+	}
+
+	/** Creates a new message instance from the buffer, decoding only the specified fields.
+	 * See {@link #parseMessage(byte[], int, int, int, boolean, Bitmap)}. */
+	public T parseMessage(byte[] buf, int isoHeaderLength, Bitmap fieldMask)
+			throws ParseException, UnsupportedEncodingException {
+		return parseMessage(buf, 0, buf.length, isoHeaderLength, false, fieldMask);
+	}
+
+	/** Creates a new message instance from a section of the buffer, decoding only the fields
+	 * in the specified mask. The rest of the fields in the message are stepped over by reading
+	 * only their length headers or fixed widths, and are not included in the resulting message.
+	 * The message is still checked against the parse guide for its type, so fields that are not
+	 * in the guide cause a ParseException even if they're outside the mask.
+	 * @param buf The buffer containing the message.
+	 * @param offset The position in the buffer where the message starts (the ISO header, if any,
+	 * or the message type). Must not include the length header.
+	 * @param length The number of bytes the message takes in the buffer.
+	 * @param isoHeaderLength The expected length of the ISO header, after which the message type
+	 * and the rest of the message must come.
+	 * @param fieldMask The fields to decode, or null to decode all of them. */
+	public T parseMessage(byte[] buf, int offset, int length, int isoHeaderLength,
+						  boolean binaryIsoHeader, Bitmap fieldMask)
+			throws ParseException, UnsupportedEncodingException {
+		final ParseResult<T> result = new ParseResult<>();
+		if (parseMessage(buf, offset, length, isoHeaderLength, binaryIsoHeader, fieldMask, result)) {
+			return result.getMessage();
+		}
+		throw failure(result, buf, offset, length);
+	}
+
+	/** Logs the error of a failed parse when needed and returns the exception to throw for it. */
+	private ParseException failure(ParseResult<T> result, byte[] buf, int offset, int length) {
+		if (result.getError() == ParseError.NO_PARSE_GUIDE) {
+			final String msg = String.format(
+					"ISO8583 MessageFactory has no parsing guide for message type %04x [%s]",
+					result.getDetail(), new String(buf, offset, length));
+			log.error(msg);
+			return new ParseException(msg, 0);
+		} else if (result.getError() == ParseError.UNKNOWN_FIELD) {
+			final Bitmap unknown = result.getUnknownFields();
+			for (int i = unknown.nextField(2); i > 0; i = unknown.nextField(i + 1)) {
+				log.warn("ISO8583 MessageFactory cannot parse field {}: unspecified in parsing guide", i);
+			}
+			return new ParseException("ISO8583 MessageFactory cannot parse fields", 0);
+		}
+		return result.toParseException();
+	}
+
+	/** Parses a message from the buffer into the result, without throwing exceptions.
+	 * See {@link #parseMessage(byte[], int, int, int, boolean, Bitmap, ParseResult)}. */
+	public boolean parseMessage(byte[] buf, int isoHeaderLength, ParseResult<T> result)
+			throws UnsupportedEncodingException {
+		return parseMessage(buf, 0, buf.length, isoHeaderLength, false, null, result);
+	}
+
+	/** Parses a message from a section of the buffer, storing it in the result. Invalid data
+	 * doesn't cause any exception to be thrown, or any error message to be formatted or logged;
+	 * the result gets an error code along with the field and position in the buffer where
+	 * parsing stopped, so this is suited for callers that need to reject garbage quickly.
+	 * The field parsers are the same used by the other parseMessage methods.
+	 * @param buf The buffer containing the message.
+	 * @param offset The position in the buffer where the message starts (the ISO header, if any,
+	 * or the message type). Must not include the length header.
+	 * @param length The number of bytes the message takes in the buffer.
+	 * @param isoHeaderLength The expected length of the ISO header, after which the message type
+	 * and the rest of the message must come.
+	 * @param fieldMask The fields to decode, or null to decode all of them.
+	 * @param result Where the message or the error is stored. It is cleared first.
+	 * @return true if the message was parsed, false if there was an error. */
+	public boolean parseMessage(byte[] buf, int offset, int length, int isoHeaderLength,
+								boolean binaryIsoHeader, Bitmap fieldMask, ParseResult<T> result)
+			throws UnsupportedEncodingException {
+		return parse(null, buf, offset, length, isoHeaderLength, binaryIsoHeader, fieldMask, result);
+	}
+
+	/** Parses a message from the buffer into an existing message instance, which is reset
+	 * first, instead of creating a new one. See {@link #parseInto(IsoMessage, byte[], int, int, int, boolean, Bitmap, ParseResult)}.
+	 * @return The same message, with the parsed contents. */
+	public T parseInto(T message, byte[] buf, int isoHeaderLength)
+			throws ParseException, UnsupportedEncodingException {
+		final ParseResult<T> result = new ParseResult<>();
+		if (parseInto(message, buf, 0, buf.length, isoHeaderLength, false, null, result)) {
+			return message;
+		}
+		throw failure(result, buf, 0, buf.length);
+	}
+
+	/** Parses a message from a section of the buffer into an existing message instance,
+	 * the same way as {@link #parseMessage(byte[], int, int, int, boolean, Bitmap, ParseResult)}.
+	 * The message is reset first, so its array of values and its bitmaps are reused and only
+	 * the values of the fields are created; the message must have been created by this factory
+	 * (or be of the same class). If parsing fails, the contents of the message are undefined
+	 * until it's reset or parsed into again.
+	 * @param message The message to fill; the result holds it if parsing succeeds.
+	 * @return true if the message was parsed, false if there was an error. */
+	public boolean parseInto(T message, byte[] buf, int offset, int length, int isoHeaderLength,
+							 boolean binaryIsoHeader, Bitmap fieldMask, ParseResult<T> result)
+			throws UnsupportedEncodingException {
+		if (message == null) {
+			throw new IllegalArgumentException("Cannot parse into a null message");
+		}
+		return parse(message, buf, offset, length, isoHeaderLength, binaryIsoHeader, fieldMask, result);
+	}
+
+	/** Parses a message into the target, or into a new message if the target is null. */
+	private boolean parse(T target, byte[] buf, int offset, int length, int isoHeaderLength,
+						  boolean binaryIsoHeader, Bitmap fieldMask, ParseResult<T> result)
+			throws UnsupportedEncodingException {
+		checkWindow(buf, offset, length);
+		result.reset();
+		final int minlength = isoHeaderLength+(useBinary?2:4)+(binBitmap||useBinary ? 8:16);
+		if (length < minlength) {
+			return result.fail(ParseError.MESSAGE_TOO_SHORT, 0, 0, minlength);
+		}
+		final int limit = offset + length;
+		final int mtiStart = offset + isoHeaderLength;
+		final int type = readType(buf, mtiStart);
+		if (type < 0) {
+			return result.fail(ParseError.INVALID_TYPE, 0, mtiStart, 0);
 		}
-		m.setType(type);
 		//Parse the bitmap (primary first)
-		final BitSet bs = new BitSet(64);
-		int pos = 0;
+		final Bitmap bitmap = new Bitmap();
+		int pos;
 		if (useBinary || binBitmap) {
-            final int bitmapStart = isoHeaderLength + (useBinary ? 2 : 4);
-			for (int i = bitmapStart; i < 8+bitmapStart; i++) {
-				int bit = 128;
-				for (int b = 0; b < 8; b++) {
-					bs.set(pos++, (buf[i] & bit) != 0);
-					bit >>= 1;
-				}
-			}
+            final int bitmapStart = mtiStart + (useBinary ? 2 : 4);
+			final long primary = Bitmap.readBinaryWord(buf, bitmapStart);
 			//Check for secondary bitmap and parse if necessary
-			if (bs.get(0)) {
-				if (buf.length < minlength + 8) {
-					throw new ParseException("Insufficient length for secondary bitmap", minlength);
-				}
-				for (int i = 8+bitmapStart; i < 16+bitmapStart; i++) {
-					int bit = 128;
-					for (int b = 0; b < 8; b++) {
-						bs.set(pos++, (buf[i] & bit) != 0);
-						bit >>= 1;
-					}
+			if ((primary & 1) != 0) {
+				if (length < minlength + 8) {
+					return result.fail(ParseError.MESSAGE_TOO_SHORT, 0, minlength, minlength + 8);
 				}
-				pos = minlength + 8;
+				bitmap.setWords(primary, Bitmap.readBinaryWord(buf, bitmapStart + 8));
+				pos = offset + minlength + 8;
 			} else {
-				pos = minlength;
+				bitmap.setWords(primary, 0);
+				pos = offset + minlength;
 			}
 		} else {
 			//ASCII parsing
-			try {
-                final byte[] bitmapBuffer;
+            final byte[] bitmapBuffer;
+            final int bitmapStart;
+            if (forceStringEncoding) {
+                bitmapBuffer = new byte[32];
+                toAsciiHex(buf, mtiStart+4, bitmapBuffer, 0);
+                bitmapStart = 0;
+            } else {
+                bitmapBuffer = buf;
+                bitmapStart = mtiStart + 4;
+            }
+            if (Bitmap.findInvalidHex(bitmapBuffer, bitmapStart) >= 0) {
+                return result.fail(ParseError.INVALID_BITMAP, 0, mtiStart + 4, 0);
+            }
+            final long primary = Bitmap.decodeHexWord(bitmapBuffer, bitmapStart);
+			//Check for secondary bitmap and parse it if necessary
+			if ((primary & 1) != 0) {
+				if (length < minlength + 16) {
+					return result.fail(ParseError.MESSAGE_TOO_SHORT, 0, minlength, minlength + 16);
+				}
                 if (forceStringEncoding) {
-                    byte[] _bb = new String(buf, isoHeaderLength+4, 16, encoding).getBytes();
-                    bitmapBuffer = new byte[36+isoHeaderLength];
-                    System.arraycopy(_bb, 0, bitmapBuffer, 4+isoHeaderLength, 16);
-                } else {
-                    bitmapBuffer = buf;
+                    toAsciiHex(buf, mtiStart+20, bitmapBuffer, 16);
                 }
-                for (int i = isoHeaderLength + 4; i < isoHeaderLength + 20; i++) {
-                    if (bitmapBuffer[i] >= '0' && bitmapBuffer[i] <= '9') {
-                        bs.set(pos++, ((bitmapBuffer[i] - 48) & 8) > 0);
-                        bs.set(pos++, ((bitmapBuffer[i] - 48) & 4) > 0);
-                        bs.set(pos++, ((bitmapBuffer[i] - 48) & 2) > 0);
-                        bs.set(pos++, ((bitmapBuffer[i] - 48) & 1) > 0);
-                    } else if (bitmapBuffer[i] >= 'A' && bitmapBuffer[i] <= 'F') {
-                        bs.set(pos++, ((bitmapBuffer[i] - 55) & 8) > 0);
-                        bs.set(pos++, ((bitmapBuffer[i] - 55) & 4) > 0);
-                        bs.set(pos++, ((bitmapBuffer[i] - 55) & 2) > 0);
-                        bs.set(pos++, ((bitmapBuffer[i] - 55) & 1) > 0);
-                    } else if (bitmapBuffer[i] >= 'a' && bitmapBuffer[i] <= 'f') {
-                        bs.set(pos++, ((bitmapBuffer[i] - 87) & 8) > 0);
-                        bs.set(pos++, ((bitmapBuffer[i] - 87) & 4) > 0);
-                        bs.set(pos++, ((bitmapBuffer[i] - 87) & 2) > 0);
-                        bs.set(pos++, ((bitmapBuffer[i] - 87) & 1) > 0);
-                    }
+                if (Bitmap.findInvalidHex(bitmapBuffer, bitmapStart + 16) >= 0) {
+                    return result.fail(ParseError.INVALID_BITMAP, 0, mtiStart + 20, 0);
                 }
-				//Check for secondary bitmap and parse it if necessary
-				if (bs.get(0)) {
-					if (buf.length < minlength + 16) {
-						throw new ParseException("Insufficient length for secondary bitmap", minlength);
+				bitmap.setWords(primary, Bitmap.decodeHexWord(bitmapBuffer, bitmapStart + 16));
+				pos = offset + minlength + 16;
+			} else {
+				bitmap.setWords(primary, 0);
+				pos = offset + minlength;
+			}
+		}
+		final ParsePlan plan = getParsePlan(type);
+		if (plan == null) {
+			return result.fail(ParseError.NO_PARSE_GUIDE, 0, 0, type);
+		}
+		//First we check if the message contains fields not specified in the parsing template
+		final long unknown1 = plan.unknownPrimary(bitmap.getPrimary());
+		final long unknown2 = plan.unknownSecondary(bitmap.getSecondary());
+		if ((unknown1 | unknown2) != 0) {
+			return result.failUnknown(unknown1, unknown2);
+		}
+		final T m;
+        if (binaryIsoHeader && isoHeaderLength > 0) {
+            byte[] _bih = new byte[isoHeaderLength];
+            System.arraycopy(buf, offset, _bih, 0, isoHeaderLength);
+            if (target == null) {
+                m = createIsoMessageWithBinaryHeader(_bih);
+            } else {
+                m = target;
+                m.reset();
+                m.setBinaryIsoHeader(_bih);
+            }
+        } else {
+            final String header = isoHeaderLength > 0 ?
+    				getTextCodec().decode(buf, offset, isoHeaderLength) : null;
+            if (target == null) {
+                m = createIsoMessage(header);
+            } else {
+                m = target;
+                m.reset();
+                m.setIsoHeader(header);
+            }
+        }
+		if (target != null) {
+			//Leave the target in the same state as a newly created message
+			m.setEtx(-1);
+			m.setForceSecondaryBitmap(false);
+			m.setForceStringEncoding(false);
+		}
+		m.setCharacterEncoding(encoding);
+		m.setType(type);
+		//Now we parse each field; every parser reports how many bytes it consumed
+		final FieldParseResult fieldResult = result.getFieldResult();
+		final int lastField = plan.getLastField();
+		if (lazyParsing || rawPassthrough) {
+			m.setRawSource(buf, plan, useBinary, forceStringEncoding, encoding, rawPassthrough);
+		}
+		for (int i = bitmap.nextField(2); i > 0; i = bitmap.nextField(i + 1)) {
+			if (ignoreLast && pos >= limit && i == lastField) {
+				log.warn("Field {} is not really in the message even though it's in the bitmap", i);
+			} else {
+				final FieldParseInfo fpi = plan.getParser(i);
+				if (lazyParsing || (fieldMask != null && !fieldMask.get(i))) {
+					final int size = useBinary ? fpi.skipBinary(i, buf, pos, limit, fieldResult)
+							: fpi.skip(i, buf, pos, limit, fieldResult);
+					if (size < 0) {
+						return result.fail(fieldResult);
 					}
-                    if (forceStringEncoding) {
-                        byte[] _bb = new String(buf, isoHeaderLength+20, 16, encoding).getBytes();
-                        System.arraycopy(_bb, 0, bitmapBuffer, 20+isoHeaderLength, 16);
-                    }
-					for (int i = isoHeaderLength + 20; i < isoHeaderLength + 36; i++) {
-						if (bitmapBuffer[i] >= '0' && bitmapBuffer[i] <= '9') {
-							bs.set(pos++, ((bitmapBuffer[i] - 48) & 8) > 0);
-							bs.set(pos++, ((bitmapBuffer[i] - 48) & 4) > 0);
-							bs.set(pos++, ((bitmapBuffer[i] - 48) & 2) > 0);
-							bs.set(pos++, ((bitmapBuffer[i] - 48) & 1) > 0);
-						} else if (bitmapBuffer[i] >= 'A' && bitmapBuffer[i] <= 'F') {
-							bs.set(pos++, ((bitmapBuffer[i] - 55) & 8) > 0);
-							bs.set(pos++, ((bitmapBuffer[i] - 55) & 4) > 0);
-							bs.set(pos++, ((bitmapBuffer[i] - 55) & 2) > 0);
-							bs.set(pos++, ((bitmapBuffer[i] - 55) & 1) > 0);
-						} else if (bitmapBuffer[i] >= 'a' && bitmapBuffer[i] <= 'f') {
-							bs.set(pos++, ((bitmapBuffer[i] - 87) & 8) > 0);
-							bs.set(pos++, ((bitmapBuffer[i] - 87) & 4) > 0);
-							bs.set(pos++, ((bitmapBuffer[i] - 87) & 2) > 0);
-							bs.set(pos++, ((bitmapBuffer[i] - 87) & 1) > 0);
-						}
+					if (lazyParsing && (fieldMask == null || fieldMask.get(i))) {
+						m.setRawField(i, pos, size);
 					}
-					pos = 16 + minlength;
+					pos += size;
+					continue;
+				}
+				if (useBinary) {
+					fpi.parseBinary(i, buf, pos, limit, plan.getDecoder(i), fieldResult);
 				} else {
-					pos = minlength;
+					fpi.parse(i, buf, pos, limit, plan.getDecoder(i), fieldResult);
 				}
-			} catch (NumberFormatException ex) {
-				ParseException _e = new ParseException("Invalid ISO8583 bitmap", pos);
-				_e.initCause(ex);
-				throw _e;
+				if (fieldResult.isError()) {
+					return result.fail(fieldResult);
+				}
+				m.setField(i, fieldResult.getValue());
+				if (rawPassthrough) {
+					m.setRawBytes(i, pos, fieldResult.getLength());
+				}
+				pos += fieldResult.getLength();
 			}
 		}
-		//Parse each field
-		Map<Integer, FieldParseInfo> parseGuide = parseMap.get(type);
-		List<Integer> index = parseOrder.get(type);
-		if (index == null) {
-			log.error(String.format("ISO8583 MessageFactory has no parsing guide for message type %04x [%s]",
-				type, new String(buf)));
-			throw new ParseException(String.format(
-					"ISO8583 MessageFactory has no parsing guide for message type %04x [%s]",
-					type,
-					new String(buf)), 0);
+		m.setBinary(useBinary);
+        m.setBinaryBitmap(binBitmap);
+		result.setMessage(m);
+		return true;
+	}
+
+	/** Decodes the message type at the specified position, or returns -1 if it's not valid. */
+	private int readType(byte[] buf, int mtiStart) throws UnsupportedEncodingException {
+		if (useBinary) {
+			return ((buf[mtiStart] & 0xff) << 8) | (buf[mtiStart + 1] & 0xff);
+        } else if (forceStringEncoding && getTextCodec().hasAsciiTable()) {
+            final TextCodec tc = getTextCodec();
+            int t = 0;
+            for (int i = mtiStart; i < mtiStart + 4; i++) {
+                final int d = tc.hexDigit(buf[i]);
+                if (d < 0) {
+                    return -1;
+                }
+                t = (t << 4) | d;
+            }
+            return t;
+        } else if (forceStringEncoding) {
+            final String mti = getTextCodec().decode(buf, mtiStart, 4);
+            int t = 0;
+            for (int i = 0; i < mti.length(); i++) {
+                final int d = Character.digit(mti.charAt(i), 16);
+                if (d < 0) {
+                    return -1;
+                }
+                t = (t << 4) | d;
+            }
+            return t;
 		}
-		//First we check if the message contains fields not specified in the parsing template
-		boolean abandon = false;
-		for (int i = 1; i < bs.length(); i++) {
-			if (bs.get(i) && !index.contains(i+1)) {
-				log.warn("ISO8583 MessageFactory cannot parse field {}: unspecified in parsing guide", i+1);
-				abandon = true;
+		final int t = ((buf[mtiStart] - 48) << 12)
+			| ((buf[mtiStart + 1] - 48) << 8)
+			| ((buf[mtiStart + 2] - 48) << 4)
+			| (buf[mtiStart + 3] - 48);
+		return t < 0 ? -1 : t;
+	}
+
+	/** Returns the type of the message in the buffer, reading only the message type; no message
+	 * is created. Useful to dispatch a message before it's parsed.
+	 * @param buf The buffer containing the message, starting with the ISO header if any.
+	 * @param isoHeaderLength The length of the ISO header.
+	 * @return The message type, or -1 if the buffer is too short or the type is invalid. */
+	public int peekType(byte[] buf, int isoHeaderLength) throws UnsupportedEncodingException {
+		return peekType(buf, 0, buf.length, isoHeaderLength);
+	}
+
+	/** Returns the type of the message in a section of the buffer, as
+	 * {@link #peekType(byte[], int)} does.
+	 * @param buf The buffer containing the message.
+	 * @param offset The position in the buffer where the message starts (the ISO header, if any,
+	 * or the message type). Must not include the length header.
+	 * @param length The number of bytes the message takes in the buffer.
+	 * @param isoHeaderLength The length of the ISO header.
+	 * @return The message type, or -1 if the message is too short or the type is invalid. */
+	public int peekType(byte[] buf, int offset, int length, int isoHeaderLength)
+			throws UnsupportedEncodingException {
+		checkWindow(buf, offset, length);
+		if (length < isoHeaderLength + (useBinary ? 2 : 4)) {
+			return -1;
+		}
+		return readType(buf, offset + isoHeaderLength);
+	}
+
+	/** Finds a field in the buffer without parsing the message: the bitmap is read, and the
+	 * fields that come before the requested one are stepped over by reading only their length
+	 * headers or fixed widths, according to the parse guide for the message type. Neither an
+	 * IsoMessage nor any IsoValue is created. Use {@link #rangeStart(long)} and
+	 * {@link #rangeLength(long)} to get the position and length of the value.
+	 * @param buf The buffer containing the message, starting with the ISO header if any.
+	 * @param isoHeaderLength The length of the ISO header.
+	 * @param field The field number, from 2 to 128.
+	 * @return The position of the value in the buffer in the upper 32 bits and its length in
+	 * bytes in the lower 32 bits, without the length header; or -1 if the field is not in the
+	 * message, there's no parse guide for the message type or the data is invalid. */
+	public long peekField(byte[] buf, int isoHeaderLength, int field)
+			throws UnsupportedEncodingException {
+		return peekField(buf, 0, buf.length, isoHeaderLength, field);
+	}
+
+	/** Finds a field in a section of the buffer without parsing the message, as
+	 * {@link #peekField(byte[], int, int)} does. Nothing outside the section is read.
+	 * @param buf The buffer containing the message.
+	 * @param offset The position in the buffer where the message starts (the ISO header, if any,
+	 * or the message type). Must not include the length header.
+	 * @param length The number of bytes the message takes in the buffer.
+	 * @param isoHeaderLength The length of the ISO header.
+	 * @param field The field number, from 2 to 128.
+	 * @return The position of the value in the buffer (not in the section) in the upper 32 bits
+	 * and its length in bytes in the lower 32 bits, or -1 as {@link #peekField(byte[], int, int)}. */
+	public long peekField(byte[] buf, int offset, int length, int isoHeaderLength, int field)
+			throws UnsupportedEncodingException {
+		final int type = peekType(buf, offset, length, isoHeaderLength);
+		final ParsePlan plan = getParsePlan(type);
+		if (plan == null || field < 2 || field > 128) {
+			return -1;
+		}
+		final int limit = offset + length;
+		final int wordSize = useBinary || binBitmap ? 8 : 16;
+		int pos = offset + isoHeaderLength + (useBinary ? 2 : 4);
+		if (limit < pos + wordSize || invalidBitmap(buf, pos)) {
+			return -1;
+		}
+		final long primary = readBitmapWord(buf, pos);
+		long secondary = 0;
+		pos += wordSize;
+		if ((primary & 1) != 0) {
+			if (limit < pos + wordSize || invalidBitmap(buf, pos)) {
+				return -1;
 			}
+			secondary = readBitmapWord(buf, pos);
+			pos += wordSize;
 		}
-		if (abandon) {
-			throw new ParseException("ISO8583 MessageFactory cannot parse fields", 0);
+		final Bitmap bitmap = new Bitmap(primary, secondary);
+		if (!bitmap.get(field)) {
+			return -1;
 		}
-		//Now we parse each field
+		final FieldParseResult fieldResult = new FieldParseResult();
+		for (int i = bitmap.nextField(2); i > 0; i = bitmap.nextField(i + 1)) {
+			final FieldParseInfo fpi = plan.getParser(i);
+			if (fpi == null) {
+				return -1;
+			}
+			final int size = useBinary ? fpi.skipBinary(i, buf, pos, limit, fieldResult)
+					: fpi.skip(i, buf, pos, limit, fieldResult);
+			if (size < 0) {
+				return -1;
+			}
+			if (i == field) {
+				final int header = fpi.getLengthHeaderSize(useBinary);
+				return ((long)(pos + header) << 32) | (size - header);
+			}
+			pos += size;
+		}
+		return -1;
+	}
+
+	/** Finds a numeric field in the buffer without parsing the message, as
+	 * {@link #peekField(byte[], int, int)} does, and returns its value.
+	 * @return The value of the field, or -1 if the field is not in the message, it has more
+	 * than 18 digits or it contains anything other than digits. */
+	public long peekNumber(byte[] buf, int isoHeaderLength, int field)
+			throws UnsupportedEncodingException {
+		return peekNumber(buf, 0, buf.length, isoHeaderLength, field);
+	}
+
+	/** Finds a numeric field in a section of the buffer without parsing the message, as
+	 * {@link #peekField(byte[], int, int, int, int)} does, and returns its value.
+	 * @return The value of the field, or -1 as {@link #peekNumber(byte[], int, int)}. */
+	public long peekNumber(byte[] buf, int offset, int length, int isoHeaderLength, int field)
+			throws UnsupportedEncodingException {
+		final long range = peekField(buf, offset, length, isoHeaderLength, field);
+		if (range < 0) {
+			return -1;
+		}
+		final int start = rangeStart(range);
+		final int len = rangeLength(range);
+		long value = 0;
 		if (useBinary) {
-			for (Integer i : index) {
-				FieldParseInfo fpi = parseGuide.get(i);
-				if (bs.get(i - 1)) {
-					if (ignoreLast && pos >= buf.length && i.intValue() == index.get(index.size() -1)) {
-						log.warn("Field {} is not really in the message even though it's in the bitmap", i);
-						bs.clear(i - 1);
-					} else {
-                        CustomField<?> decoder = fpi.getDecoder();
-                        if (decoder == null) {
-                            decoder = getCustomField(i);
-                        }
-						IsoValue<?> val = fpi.parseBinary(i, buf, pos, decoder);
-						m.setField(i, val);
-						if (val != null) {
-							if (val.getType() == IsoType.NUMERIC || val.getType() == IsoType.DATE10
-									|| val.getType() == IsoType.DATE4 || val.getType() == IsoType.DATE12
-									|| val.getType() == IsoType.DATE_EXP
-									|| val.getType() == IsoType.AMOUNT
-									|| val.getType() == IsoType.TIME) {
-								pos += (val.getLength() / 2) + (val.getLength() % 2);
-							} else {
-								pos += val.getLength();
-							}
-							if (val.getType() == IsoType.LLVAR || val.getType() == IsoType.LLBIN) {
-								pos++;
-							} else if (val.getType() == IsoType.LLLVAR
-									|| val.getType() == IsoType.LLLBIN
-                                    || val.getType() == IsoType.LLLLVAR
-									|| val.getType() == IsoType.LLLLBIN) {
-                                pos += 2;
-                            }
-						}
-					}
+			//BCD, two digits per byte
+			if (len > 9) {
+				return -1;
+			}
+			for (int i = start; i < start + len; i++) {
+				final int hi = (buf[i] & 0xf0) >> 4;
+				final int lo = buf[i] & 0x0f;
+				if (hi > 9 || lo > 9) {
+					return -1;
 				}
+				value = (value * 100) + (hi * 10) + lo;
 			}
-		} else {
-			for (Integer i : index) {
-				FieldParseInfo fpi = parseGuide.get(i);
-				if (bs.get(i - 1)) {
-					if (ignoreLast && pos >= buf.length && i.intValue() == index.get(index.size() -1)) {
-						log.warn("Field {} is not really in the message even though it's in the bitmap", i);
-						bs.clear(i - 1);
-					} else {
-                        CustomField<?> decoder = fpi.getDecoder();
-                        if (decoder == null) {
-                            decoder = getCustomField(i);
-                        }
-						IsoValue<?> val = fpi.parse(i, buf, pos, decoder);
-						m.setField(i, val);
-						//To get the correct next position, we need to get the number of bytes, not chars
-						pos += val.toString().getBytes(fpi.getCharacterEncoding()).length;
-						if (val.getType() == IsoType.LLVAR || val.getType() == IsoType.LLBIN) {
-							pos += 2;
-						} else if (val.getType() == IsoType.LLLVAR || val.getType() == IsoType.LLLBIN) {
-							pos += 3;
-						} else if (val.getType() == IsoType.LLLLVAR || val.getType() == IsoType.LLLLBIN) {
-                            pos += 4;
-                        }
-					}
+			return value;
+		}
+		final TextCodec tc = getTextCodec();
+		if (len > 18 || !tc.hasAsciiTable()) {
+			return -1;
+		}
+		for (int i = start; i < start + len; i++) {
+			final int d = tc.digit(buf[i]);
+			if (d < 0) {
+				return -1;
+			}
+			value = (value * 10) + d;
+		}
+		return value;
+	}
+
+	/** Returns the position of a value in the range returned by {@link #peekField(byte[], int, int)}. */
+	public static int rangeStart(long range) {
+		return (int)(range >>> 32);
+	}
+
+	/** Returns the length of a value in the range returned by {@link #peekField(byte[], int, int)}. */
+	public static int rangeLength(long range) {
+		return (int)range;
+	}
+
+	/** Throws IndexOutOfBoundsException if the section is not inside the buffer. */
+	private static void checkWindow(byte[] buf, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > buf.length) {
+			throw new IndexOutOfBoundsException(String.format(
+					"Invalid message window offset %d length %d for buffer of %d bytes",
+					offset, length, buf.length));
+		}
+	}
+
+	/** Returns true if the bitmap word at the specified position is not valid hex. */
+	private boolean invalidBitmap(byte[] buf, int pos) throws UnsupportedEncodingException {
+		if (useBinary || binBitmap) {
+			return false;
+		} else if (forceStringEncoding) {
+			final TextCodec tc = getTextCodec();
+			if (!tc.hasAsciiTable()) {
+				return true;
+			}
+			for (int i = pos; i < pos + 16; i++) {
+				if (tc.hexDigit(buf[i]) < 0) {
+					return true;
 				}
 			}
+			return false;
 		}
-		m.setBinary(useBinary);
-        m.setBinaryBitmap(binBitmap);
-		return m;
+		return Bitmap.findInvalidHex(buf, pos) >= 0;
+	}
+
+	/** Reads a bitmap word that has already been validated. */
+	private long readBitmapWord(byte[] buf, int pos) throws UnsupportedEncodingException {
+		if (useBinary || binBitmap) {
+			return Bitmap.readBinaryWord(buf, pos);
+		} else if (forceStringEncoding) {
+			final TextCodec tc = getTextCodec();
+			long w = 0;
+			for (int i = pos; i < pos + 16; i++) {
+				w = (w << 4) | tc.hexDigit(buf[i]);
+			}
+			return Long.reverse(w);
+		}
+		return Bitmap.decodeHexWord(buf, pos);
 	}
 
 	/** Creates a Iso message, override this method in the subclass to provide your 
@@ -541,6 +1098,7 @@ public class MessageFactory<T extends IsoMessage> {
     /** Sets whether the factory should set the current date on newly created messages,
 	 * in field 7. Default is false. */
 	public void setAssignDate(boolean flag) {
+		checkMutable();
 		setDate = flag;
 	}
 	/** Returns true if the factory is assigning the current date to newly created messages
@@ -552,6 +1110,7 @@ public class MessageFactory<T extends IsoMessage> {
 	/** Sets the generator that this factory will get new trace numbers from. There is no
 	 * default generator. */
 	public void setTraceNumberGenerator(TraceNumberGenerator value) {
+		checkMutable();
 		traceGen = value;
 	}
 	/** Returns the generator used to assign trace numbers to new messages. */
@@ -559,10 +1118,29 @@ public class MessageFactory<T extends IsoMessage> {
 		return traceGen;
 	}
 
+	/** Sets the generator that this factory will get retrieval reference numbers from,
+	 * for field 37 of new messages. There is no default generator.
+	 * <p>If the generator throws an IllegalStateException because it ran out of references,
+	 * a warning is logged and the message is created without field 37, so the caller can check
+	 * for it and assign one. A {@link com.solab.iso8583.impl.JulianReferenceGenerator} can create
+	 * {@link com.solab.iso8583.impl.JulianReferenceGenerator#getCapacity()} references per hour:
+	 * 99999 with the default two-digit node number, 999999 with one digit and 9999999 with none.
+	 * Use fewer node digits for more capacity, or make it wrap around to repeat references
+	 * instead of running out.</p> */
+	public void setReferenceNumberGenerator(ReferenceNumberGenerator value) {
+		checkMutable();
+		refGen = value;
+	}
+	/** Returns the generator used to assign retrieval reference numbers to new messages. */
+	public ReferenceNumberGenerator getReferenceNumberGenerator() {
+		return refGen;
+	}
+
 	/** Sets the ISO header to be used in each message type.
 	 * @param value A map where the keys are the message types and the values are the ISO headers.
 	 */
 	public void setIsoHeaders(Map<Integer, String> value) {
+		checkMutable();
 		isoHeaders.clear();
 		isoHeaders.putAll(value);
 	}
@@ -571,6 +1149,7 @@ public class MessageFactory<T extends IsoMessage> {
 	 * @param type The message type, for example 0x200.
 	 * @param value The ISO header, or NULL to remove any headers for this message type. */
 	public void setIsoHeader(int type, String value) {
+		checkMutable();
 		if (value == null) {
 			isoHeaders.remove(type);
 		} else {
@@ -588,6 +1167,7 @@ public class MessageFactory<T extends IsoMessage> {
    	 * @param type The message type, for example 0x200.
    	 * @param value The ISO header, or NULL to remove any headers for this message type. */
     public void setBinaryIsoHeader(int type, byte[] value) {
+        checkMutable();
         if (value == null) {
             binIsoHeaders.remove(type);
         } else {
@@ -603,13 +1183,18 @@ public class MessageFactory<T extends IsoMessage> {
 	/** Adds a message template to the factory. If there was a template for the same
 	 * message type as the new one, it is overwritten. */
 	public void addMessageTemplate(T templ) {
+		checkMutable();
 		if (templ != null) {
+			if (preEncodeTemplates) {
+				freezeTemplate(templ);
+			}
 			typeTemplates.put(templ.getType(), templ);
 		}
 	}
 
 	/** Removes the message template for the specified type. */
 	public void removeMessageTemplate(int type) {
+		checkMutable();
 		typeTemplates.remove(type);
 	}
 
@@ -619,6 +1204,24 @@ public class MessageFactory<T extends IsoMessage> {
 		return typeTemplates.get(type);
 	}
 
+	/** Sets the profile that specifies which fields are copied from the request and the template
+	 * when creating a response of the specified type.
+	 * @param type The response type, for example 0x210.
+	 * @param profile The profile, or null to remove it and copy all the fields. */
+	public void setResponseProfile(int type, ResponseProfile profile) {
+		checkMutable();
+		if (profile == null) {
+			responseProfiles.remove(type);
+		} else {
+			responseProfiles.put(type, profile);
+		}
+	}
+
+	/** Returns the profile for the responses of the specified type, if there is one. */
+	public ResponseProfile getResponseProfile(int type) {
+		return responseProfiles.get(type);
+	}
+
 	/** Invoke this method in case you want to freeze the configuration, making message and parsing
 	 * templates, as well as iso headers and custom fields, immutable. */
 	public void freeze() {
@@ -628,21 +1231,218 @@ public class MessageFactory<T extends IsoMessage> {
 		isoHeaders = Collections.unmodifiableMap(isoHeaders);
         binIsoHeaders = Collections.unmodifiableMap(binIsoHeaders);
 		customFields = Collections.unmodifiableMap(customFields);
+		responseProfiles = Collections.unmodifiableMap(responseProfiles);
+	}
+
+	/** Compiles the configuration into an immutable form, after which the factory can be
+	 * shared by any number of threads that parse and create messages, without locks.
+	 * The parse guides get immutable copies of their parsers, with their encodings and
+	 * decoders resolved; the templates are copied, with their values pre-encoded where possible
+	 * if {@link #setPreEncodeTemplates(boolean)} is set, and the templates, ISO headers and
+	 * response profiles are stored in arrays indexed by message type, like the parse plans.
+	 * Everything is frozen as with {@link #freeze()}, and every setter throws
+	 * UnsupportedOperationException from then on. The templates returned by
+	 * {@link #getMessageTemplate(int)} are the original ones, and changing them no longer
+	 * affects the factory.
+	 * <P>
+	 * The factory is compiled in place, so subclasses keep creating their own kind of messages.
+	 * It must be published to other threads safely, for example through a final field,
+	 * after this method returns.
+	 * @return This factory.
+	 * @throws UnsupportedEncodingException if the encoding of the factory or of a parser is
+	 * not supported. */
+	public MessageFactory<T> compile() throws UnsupportedEncodingException {
+		if (compiledTypes != null) {
+			return this;
+		}
+		getTextCodec();
+		final Map<Integer, Map<Integer, FieldParseInfo>> guides = new HashMap<>();
+		for (Map.Entry<Integer, Map<Integer, FieldParseInfo>> e : parseMap.entrySet()) {
+			final Map<Integer, FieldParseInfo> guide = new HashMap<>();
+			for (Map.Entry<Integer, FieldParseInfo> f : e.getValue().entrySet()) {
+				guide.put(f.getKey(), f.getValue().immutableCopy());
+			}
+			guides.put(e.getKey(), Collections.unmodifiableMap(guide));
+		}
+		parseMap = guides;
+		parsePlans = new ParsePlan[256][];
+		compileParsePlans();
+		final Map<Integer, List<Integer>> order = new HashMap<>();
+		for (Map.Entry<Integer, List<Integer>> e : parseOrder.entrySet()) {
+			order.put(e.getKey(), Collections.unmodifiableList(new ArrayList<>(e.getValue())));
+		}
+		parseOrder = order;
+		final Set<Integer> types = new HashSet<>(typeTemplates.keySet());
+		types.addAll(isoHeaders.keySet());
+		types.addAll(binIsoHeaders.keySet());
+		types.addAll(responseProfiles.keySet());
+		final CompiledType[][] compiled = new CompiledType[256][];
+		for (Integer type : types) {
+			if (type < 0 || type > 0xffff) {
+				continue;
+			}
+			if (compiled[type >> 8] == null) {
+				compiled[type >> 8] = new CompiledType[256];
+			}
+			final byte[] binHeader = binIsoHeaders.get(type);
+			compiled[type >> 8][type & 0xff] = new CompiledType(
+					compileTemplate(typeTemplates.get(type)), isoHeaders.get(type),
+					binHeader == null ? null : binHeader.clone(), responseProfiles.get(type));
+		}
+		freeze();
+		compiledTypes = compiled;
+		return this;
+	}
+
+	/** Returns true if {@link #compile()} has been called. */
+	public boolean isCompiled() {
+		return compiledTypes != null;
+	}
+
+	/** Copies a template for a compiled factory, freezing its values where possible if the
+	 * templates are pre-encoded; otherwise new messages still get copies of the values. */
+	private IsoMessage compileTemplate(IsoMessage tmpl) {
+		if (tmpl == null) {
+			return null;
+		}
+		final IsoMessage copy = new IsoMessage();
+		copy.setType(tmpl.getType());
+		copy.setCharacterEncoding(tmpl.getCharacterEncoding());
+		for (int i = tmpl.nextField(2); i > 0; i = tmpl.nextField(i + 1)) {
+			final IsoValue<?> v = tmpl.getField(i);
+			final IsoValue<?> frozen = preEncodeTemplates
+					? FrozenIsoValue.freeze(v, useBinary, forceStringEncoding) : null;
+			copy.setField(i, frozen == null ? v.clone() : frozen);
+		}
+		return copy;
+	}
+
+	/** Throws UnsupportedOperationException if the factory has been compiled. */
+	private void checkMutable() {
+		if (compiledTypes != null) {
+			throw new UnsupportedOperationException("Cannot modify a compiled MessageFactory");
+		}
+	}
+
+	private CompiledType compiledType(int type) {
+		if (type < 0 || type > 0xffff) {
+			return null;
+		}
+		final CompiledType[] ct = compiledTypes[type >> 8];
+		return ct == null ? null : ct[type & 0xff];
+	}
+
+	private IsoMessage templateFor(int type) {
+		if (compiledTypes == null) {
+			return typeTemplates.get(type);
+		}
+		final CompiledType ct = compiledType(type);
+		return ct == null ? null : ct.template;
+	}
+
+	private String isoHeaderFor(int type) {
+		if (compiledTypes == null) {
+			return isoHeaders.get(type);
+		}
+		final CompiledType ct = compiledType(type);
+		return ct == null ? null : ct.isoHeader;
+	}
+
+	private byte[] binIsoHeaderFor(int type) {
+		if (compiledTypes == null) {
+			return binIsoHeaders.get(type);
+		}
+		final CompiledType ct = compiledType(type);
+		return ct == null ? null : ct.binIsoHeader;
+	}
+
+	private ResponseProfile responseProfileFor(int type) {
+		if (compiledTypes == null) {
+			return responseProfiles.get(type);
+		}
+		final CompiledType ct = compiledType(type);
+		return ct == null ? null : ct.profile;
 	}
 
 	/** Sets a map with the fields that are to be expected when parsing a certain type of
-	 * message.
+	 * message. The map is compiled into a {@link ParsePlan} right away, so changes made to it
+	 * (or to the decoders of its FieldParseInfos) afterwards require calling this method again.
 	 * @param type The message type.
 	 * @param map A map of FieldParseInfo instances, each of which define what type and length
 	 * of field to expect. The keys will be the field numbers. */
 	public void setParseMap(int type, Map<Integer, FieldParseInfo> map) {
+		checkMutable();
+		if (type < 0 || type > 0xffff) {
+			throw new IllegalArgumentException(String.format("Invalid message type %x", type));
+		}
 		parseMap.put(type, map);
+		if (longNumerics) {
+			setParseAsLong(map);
+		}
 		ArrayList<Integer> index = new ArrayList<>();
 		index.addAll(map.keySet());
 		Collections.sort(index);
 		log.trace(String.format("ISO8583 MessageFactory adding parse map for type %04x with fields %s",
 				type, index));
 		parseOrder.put(type, index);
+		compileParsePlan(type, map);
+	}
+
+	/** Copies the 16 hex chars of a bitmap word to a buffer as ASCII, translating them from
+	 * the character encoding with its table when it has one. */
+	private void toAsciiHex(byte[] buf, int pos, byte[] dest, int destPos)
+			throws UnsupportedEncodingException {
+		final TextCodec tc = getTextCodec();
+		if (tc.hasAsciiTable()) {
+			for (int i = 0; i < 16; i++) {
+				dest[destPos + i] = tc.toAscii(buf[pos + i]);
+			}
+		} else {
+			final byte[] _bb = tc.decode(buf, pos, 16).getBytes();
+			System.arraycopy(_bb, 0, dest, destPos, 16);
+		}
+	}
+
+	/** Returns the compiled parse guide for the specified message type, or null if there is
+	 * no parse guide for it. */
+	public ParsePlan getParsePlan(int type) {
+		if (type < 0 || type > 0xffff) {
+			return null;
+		}
+		final ParsePlan[] plans = parsePlans[type >> 8];
+		return plans == null ? null : plans[type & 0xff];
+	}
+
+	private void compileParsePlan(int type, Map<Integer, FieldParseInfo> map) {
+		ParsePlan[] plans = parsePlans[type >> 8];
+		if (plans == null) {
+			plans = new ParsePlan[256];
+			parsePlans[type >> 8] = plans;
+		}
+		plans[type & 0xff] = new ParsePlan(type, map, customFields);
+	}
+
+	/** Compiles the parse guides again, after the custom fields have changed. */
+	private void compileParsePlans() {
+		for (Map.Entry<Integer, Map<Integer, FieldParseInfo>> e : parseMap.entrySet()) {
+			compileParsePlan(e.getKey(), e.getValue());
+		}
+	}
+
+	/** The settings for a message type in a compiled factory. */
+	private static final class CompiledType {
+		private final IsoMessage template;
+		private final String isoHeader;
+		private final byte[] binIsoHeader;
+		private final ResponseProfile profile;
+
+		private CompiledType(IsoMessage template, String isoHeader, byte[] binIsoHeader,
+							 ResponseProfile profile) {
+			this.template = template;
+			this.isoHeader = isoHeader;
+			this.binIsoHeader = binIsoHeader;
+			this.profile = profile;
+		}
 	}
 
 }
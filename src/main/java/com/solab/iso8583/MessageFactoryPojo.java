@@ -211,6 +211,12 @@ public class MessageFactoryPojo<T extends IsoMessage> extends MessageFactory{
 						continue;
 					}
 					break;
+				case 37:
+					if(null == value && getReferenceNumberGenerator() != null){
+						assignReference(isoMessage);
+						continue;
+					}
+					break;
 				default:
 					break;
 				}
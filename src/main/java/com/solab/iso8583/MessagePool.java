@@ -0,0 +1,173 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583;
+
+import java.io.UnsupportedEncodingException;
+import java.text.ParseException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.solab.iso8583.util.Bitmap;
+
+/** A bounded pool of message instances, so that handlers that process a steady stream of
+ * messages can parse and create them without allocating a new IsoMessage (with its array of
+ * values) every time. The pool is split in stripes that are picked by thread, and each slot
+ * is taken and returned with a compare-and-set, so threads don't block each other.
+ * Messages are reset when they're returned; a message must not be used after it's released,
+ * but the values that were taken from it are not affected.
+ * A thread only looks at its own stripe and a few slots after it, so when those are empty a
+ * new message is created, and when they're full released messages are simply left for the
+ * garbage collector, even if other stripes still have room. This class is thread-safe.
+ * <p>A message must be released only once; releasing it twice would put it in two slots
+ * and hand it out to two callers. This is checked when assertions are enabled.
+ */
+public class MessagePool<T extends IsoMessage> {
+
+	private final MessageFactory<T> factory;
+	private final AtomicReferenceArray<T> slots;
+	private final int stripeSize;
+	private final int stripeMask;
+	private final int probe;
+
+	/** How many slots past its own stripe a thread looks at before giving up. */
+	private static final int NEIGHBOURS = 8;
+
+	/** Creates a pool for messages of the specified factory.
+	 * @param factory The factory that creates, sets up and parses the messages.
+	 * @param capacity The maximum number of idle messages kept by the pool. */
+	public MessagePool(MessageFactory<T> factory, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Pool capacity must be positive: " + capacity);
+		}
+		this.factory = factory;
+		int stripes = 1;
+		while (stripes < Runtime.getRuntime().availableProcessors() && stripes * 2 <= capacity) {
+			stripes *= 2;
+		}
+		stripeMask = stripes - 1;
+		stripeSize = (capacity + stripes - 1) / stripes;
+		slots = new AtomicReferenceArray<>(stripeSize * stripes);
+		probe = Math.min(slots.length(), stripeSize + NEIGHBOURS);
+	}
+
+	/** Returns the maximum number of idle messages kept by the pool. */
+	public int getCapacity() {
+		return slots.length();
+	}
+
+	/** Returns the number of idle messages in the pool. This is only an estimate if other
+	 * threads are using the pool. */
+	public int getIdleCount() {
+		int n = 0;
+		for (int i = 0; i < slots.length(); i++) {
+			if (slots.get(i) != null) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/** Takes an empty message from the pool, or creates one if the pool is empty. */
+	public T acquire() {
+		final int start = stripeStart();
+		final int len = slots.length();
+		for (int k = 0; k < probe; k++) {
+			final int i = (start + k) % len;
+			final T m = slots.get(i);
+			if (m != null && slots.compareAndSet(i, m, null)) {
+				return m;
+			}
+		}
+		return factory.createIsoMessage(null);
+	}
+
+	/** Resets the message and puts it back in the pool, unless the pool is full.
+	 * The message must not be used after this, nor released again.
+	 * @param message A message taken from this pool or created by its factory; null is ignored. */
+	public void release(T message) {
+		if (message == null) {
+			return;
+		}
+		assert !isIdle(message) : "Message released twice";
+		message.reset();
+		final int start = stripeStart();
+		final int len = slots.length();
+		for (int k = 0; k < probe; k++) {
+			final int i = (start + k) % len;
+			if (slots.get(i) == null && slots.compareAndSet(i, null, message)) {
+				return;
+			}
+		}
+	}
+
+	/** Takes a message from the pool and sets it up as {@link MessageFactory#newMessage(int)}
+	 * would. */
+	public T newMessage(int type) {
+		return factory.initMessage(acquire(), type);
+	}
+
+	/** Takes a message from the pool and parses the buffer into it.
+	 * If parsing fails, the message goes back to the pool before the exception is thrown.
+	 * @see MessageFactory#parseInto(IsoMessage, byte[], int) */
+	public T parseMessage(byte[] buf, int isoHeaderLength)
+			throws ParseException, UnsupportedEncodingException {
+		final T m = acquire();
+		try {
+			return factory.parseInto(m, buf, isoHeaderLength);
+		} catch (ParseException | UnsupportedEncodingException | RuntimeException ex) {
+			release(m);
+			throw ex;
+		}
+	}
+
+	/** Takes a message from the pool and parses a section of the buffer into it, storing it
+	 * in the result. If parsing fails, the message goes back to the pool.
+	 * @see MessageFactory#parseInto(IsoMessage, byte[], int, int, int, boolean, Bitmap, ParseResult) */
+	public boolean parseMessage(byte[] buf, int offset, int length, int isoHeaderLength,
+								boolean binaryIsoHeader, Bitmap fieldMask, ParseResult<T> result)
+			throws UnsupportedEncodingException {
+		final T m = acquire();
+		boolean ok = false;
+		try {
+			ok = factory.parseInto(m, buf, offset, length, isoHeaderLength, binaryIsoHeader,
+					fieldMask, result);
+			return ok;
+		} finally {
+			if (!ok) {
+				release(m);
+			}
+		}
+	}
+
+	/** Tells whether the message is already in the pool. Only used in assertions. */
+	private boolean isIdle(T message) {
+		for (int i = 0; i < slots.length(); i++) {
+			if (slots.get(i) == message) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Returns the first slot of the stripe for the current thread. */
+	private int stripeStart() {
+		final long id = Thread.currentThread().getId();
+		return (int)((id ^ (id >>> 16)) & stripeMask) * stripeSize;
+	}
+
+}
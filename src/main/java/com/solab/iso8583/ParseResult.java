@@ -0,0 +1,137 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583;
+
+import java.text.ParseException;
+
+import com.solab.iso8583.parse.FieldParseResult;
+import com.solab.iso8583.parse.ParseError;
+import com.solab.iso8583.util.Bitmap;
+
+/** Holds the outcome of parsing a message with
+ * {@link MessageFactory#parseMessage(byte[], int, int, int, boolean, com.solab.iso8583.util.Bitmap, ParseResult)}:
+ * either the message that was parsed, or an error code with the field and the position in the
+ * buffer where parsing stopped. Parsing invalid data doesn't create any exceptions or
+ * error messages; they're only created if {@link #toParseException()} or
+ * {@link #getErrorMessage()} are called. A result can be reused for any number of messages,
+ * but not by several threads at the same time.
+ */
+public class ParseResult<T extends IsoMessage> {
+
+	private T message;
+	private ParseError error;
+	private IsoType type;
+	private int field;
+	private int offset;
+	private int detail;
+	/** The fields that are not in the parse guide, for an UNKNOWN_FIELD error. */
+	private long unknownPrimary;
+	private long unknownSecondary;
+	private final FieldParseResult fieldResult = new FieldParseResult();
+
+	/** Returns true if the last message was parsed successfully. */
+	public boolean isOk() {
+		return error == null;
+	}
+
+	/** Returns the message that was parsed, or null if there was an error. */
+	public T getMessage() {
+		return message;
+	}
+
+	/** Returns the error for the last message, or null if it was parsed. */
+	public ParseError getError() {
+		return error;
+	}
+	/** Returns the type of the field that failed, or null if the error is not about a field. */
+	public IsoType getType() {
+		return type;
+	}
+	/** Returns the number of the field that failed, or 0 if the error is not about a field. */
+	public int getField() {
+		return field;
+	}
+	/** Returns the position in the buffer where the error was found. */
+	public int getOffset() {
+		return offset;
+	}
+	/** Returns the detail of the error, such as the invalid length of a field, the required
+	 * length of the message or the message type that has no parse guide. */
+	public int getDetail() {
+		return detail;
+	}
+
+	/** Formats and returns the error message, or null if there is no error. */
+	public String getErrorMessage() {
+		return error == null ? null : error.describe(type, field, offset, detail);
+	}
+
+	/** Creates a ParseException for the error. */
+	public ParseException toParseException() {
+		return new ParseException(getErrorMessage(), offset);
+	}
+
+	/** Returns the fields that are not in the parse guide, which are only known for an
+	 * UNKNOWN_FIELD error; the error itself is about the first of them. */
+	Bitmap getUnknownFields() {
+		return new Bitmap(unknownPrimary, unknownSecondary);
+	}
+
+	/** Returns the result that the field parsers report to, reused for every message. */
+	FieldParseResult getFieldResult() {
+		return fieldResult;
+	}
+
+	void reset() {
+		message = null;
+		error = null;
+		type = null;
+		field = 0;
+		offset = 0;
+		detail = 0;
+		unknownPrimary = 0;
+		unknownSecondary = 0;
+	}
+
+	void setMessage(T value) {
+		message = value;
+	}
+
+	boolean fail(ParseError error, int field, int offset, int detail) {
+		this.error = error;
+		this.field = field;
+		this.offset = offset;
+		this.detail = detail;
+		message = null;
+		return false;
+	}
+
+	boolean failUnknown(long primary, long secondary) {
+		unknownPrimary = primary;
+		unknownSecondary = secondary;
+		return fail(ParseError.UNKNOWN_FIELD, getUnknownFields().nextField(2), 0, 0);
+	}
+
+	boolean fail(FieldParseResult fieldResult) {
+		type = fieldResult.getType();
+		return fail(fieldResult.getError(), fieldResult.getField(), fieldResult.getOffset(),
+				fieldResult.getDetail());
+	}
+
+}
@@ -0,0 +1,31 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583;
+
+/** This interface defines the behavior needed to provide retrieval reference numbers for
+ * newly created messages. Each reference must be unique and 12 characters long, as per the
+ * ISO standard. This value is put in field 37.
+ * An implementation built from the date, hour, a node number and a sequence is provided.
+ */
+public interface ReferenceNumberGenerator {
+
+	/** Returns the next reference number. */
+	public String nextReference();
+
+}
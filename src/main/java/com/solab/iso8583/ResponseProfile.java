@@ -0,0 +1,115 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583;
+
+import com.solab.iso8583.util.Bitmap;
+
+/** Specifies which fields {@link MessageFactory#createResponse(IsoMessage)} puts in the
+ * response for a message type: the fields echoed from the request, the fields taken from
+ * the response template, and the fields that are dropped from both. The fields of the
+ * response are computed by masking the bitmaps of the request and the template, so only
+ * the fields that end up in the response are visited. Instances are immutable.
+ */
+public final class ResponseProfile {
+
+	/** Every field from 2 to 127; field 128 (the MAC) is only copied when it's listed,
+	 * same as when there is no profile. */
+	private static final long ALL_PRIMARY = ~1L;
+	private static final long ALL_SECONDARY = Long.MAX_VALUE;
+
+	private final long echoPrimary;
+	private final long echoSecondary;
+	private final long templatePrimary;
+	private final long templateSecondary;
+
+	/** Creates a profile from the specified masks.
+	 * @param echo The fields to copy from the request, or null to copy all of them but 128.
+	 * @param template The fields to copy from the template, or null to copy all of them but 128.
+	 * Fields in the request have preference over the template.
+	 * @param drop The fields that are never copied, or null. */
+	public ResponseProfile(Bitmap echo, Bitmap template, Bitmap drop) {
+		final long dropPrimary = drop == null ? 0 : drop.getPrimary();
+		final long dropSecondary = drop == null ? 0 : drop.getSecondary();
+		echoPrimary = (echo == null ? ALL_PRIMARY : echo.getPrimary() & ALL_PRIMARY) & ~dropPrimary;
+		echoSecondary = (echo == null ? ALL_SECONDARY : echo.getSecondary()) & ~dropSecondary;
+		templatePrimary = (template == null ? ALL_PRIMARY : template.getPrimary() & ALL_PRIMARY) & ~dropPrimary;
+		templateSecondary = (template == null ? ALL_SECONDARY : template.getSecondary()) & ~dropSecondary;
+	}
+
+	/** Creates a profile from lists of fields, such as "3,4,7,11-13,37".
+	 * @param echo The fields to copy from the request, or null to copy all of them but 128.
+	 * @param template The fields to copy from the template, or null to copy all of them but 128.
+	 * @param drop The fields that are never copied, or null.
+	 * @throws IllegalArgumentException if a list contains an invalid field number. */
+	public static ResponseProfile fromLists(String echo, String template, String drop) {
+		return new ResponseProfile(parseFields(echo), parseFields(template), parseFields(drop));
+	}
+
+	/** Parses a comma-separated list of field numbers and ranges, e.g. "2-4,7,11".
+	 * Returns null if the list is null or empty.
+	 * @throws IllegalArgumentException if a field number is not between 2 and 128. */
+	public static Bitmap parseFields(String list) {
+		if (list == null || list.trim().isEmpty()) {
+			return null;
+		}
+		final Bitmap bitmap = new Bitmap();
+		for (String part : list.split(",")) {
+			part = part.trim();
+			final int dash = part.indexOf('-');
+			final int from;
+			final int to;
+			try {
+				from = Integer.parseInt(dash < 0 ? part : part.substring(0, dash).trim());
+				to = dash < 0 ? from : Integer.parseInt(part.substring(dash + 1).trim());
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException("Invalid field list: " + list);
+			}
+			if (from < 2 || to > 128 || from > to) {
+				throw new IllegalArgumentException("Invalid field range " + part + " in " + list);
+			}
+			for (int i = from; i <= to; i++) {
+				bitmap.set(i);
+			}
+		}
+		return bitmap;
+	}
+
+	/** Returns the fields of the request that go in the response. */
+	public Bitmap echoedFields(Bitmap request) {
+		return new Bitmap(request.getPrimary() & echoPrimary, request.getSecondary() & echoSecondary);
+	}
+
+	/** Returns the fields of the template that go in the response, which are the ones that
+	 * are not echoed from the request. */
+	public Bitmap templateFields(Bitmap template, Bitmap echoed) {
+		return new Bitmap(template.getPrimary() & templatePrimary & ~echoed.getPrimary(),
+				template.getSecondary() & templateSecondary & ~echoed.getSecondary());
+	}
+
+	/** Returns true if the field is copied from the request when it's there. */
+	public boolean isEchoed(int field) {
+		return new Bitmap(echoPrimary, echoSecondary).get(field);
+	}
+
+	/** Returns true if the field is copied from the template when the request doesn't have it. */
+	public boolean isFromTemplate(int field) {
+		return new Bitmap(templatePrimary, templateSecondary).get(field);
+	}
+
+}
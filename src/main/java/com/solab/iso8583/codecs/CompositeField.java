@@ -5,13 +5,14 @@ import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
 import com.solab.iso8583.IsoValue;
 import com.solab.iso8583.parse.FieldParseInfo;
+import com.solab.iso8583.parse.FieldParseResult;
+import com.solab.iso8583.util.TextCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -80,33 +81,21 @@ public class CompositeField implements CustomBinaryField<CompositeField> {
         @SuppressWarnings("rawtypes")
         List<IsoValue> vals = new ArrayList<>(parsers.size());
         int pos = offset;
+        final int limit = offset + length;
+        final FieldParseResult result = new FieldParseResult();
         try {
             for (FieldParseInfo fpi : parsers) {
-                IsoValue<?> v = fpi.parseBinary(0, buf, pos, fpi.getDecoder());
-                if (v != null) {
-                    if (v.getType() == IsoType.NUMERIC || v.getType() == IsoType.DATE10
-                            || v.getType() == IsoType.DATE4 || v.getType() == IsoType.DATE_EXP
-                            || v.getType() == IsoType.AMOUNT || v.getType() == IsoType.TIME
-                            || v.getType() == IsoType.DATE12) {
-                        pos += (v.getLength() / 2) + (v.getLength() % 2);
-                    } else {
-                        pos += v.getLength();
-                    }
-                    if (v.getType() == IsoType.LLVAR || v.getType() == IsoType.LLBIN) {
-                        pos++;
-                    } else if (v.getType() == IsoType.LLLVAR || v.getType() == IsoType.LLLBIN
-                            || v.getType() == IsoType.LLLLVAR || v.getType() == IsoType.LLLLBIN) {
-                        pos+=2;
-                    }
-                    vals.add(v);
+                fpi.parseBinary(0, buf, pos, limit, fpi.getDecoder(), result);
+                if (result.isError()) {
+                    log.error("Decoding binary CompositeField: {}", result.getErrorMessage());
+                    return null;
                 }
+                vals.add(result.getValue());
+                pos += result.getLength();
             }
             final CompositeField f = new CompositeField();
             f.setValues(vals);
             return f;
-        } catch (ParseException ex) {
-            log.error("Decoding binary CompositeField", ex);
-            return null;
         } catch (UnsupportedEncodingException ex) {
             log.error("Decoding binary CompositeField", ex);
             return null;
@@ -119,25 +108,21 @@ public class CompositeField implements CustomBinaryField<CompositeField> {
         List<IsoValue> vals = new ArrayList<>(parsers.size());
         byte[] buf = value.getBytes();
         int pos = 0;
+        final FieldParseResult result = new FieldParseResult();
         try {
             for (FieldParseInfo fpi : parsers) {
-                IsoValue<?> v = fpi.parse(0, buf, pos, fpi.getDecoder());
-                if (v != null) {
-                    pos += v.toString().getBytes(fpi.getCharacterEncoding()).length;
-                    if (v.getType() == IsoType.LLVAR || v.getType() == IsoType.LLBIN) {
-                        pos+=2;
-                    } else if (v.getType() == IsoType.LLLVAR || v.getType() == IsoType.LLLBIN) {
-                        pos+=3;
-                    } else if (v.getType() == IsoType.LLLLBIN || v.getType() == IsoType.LLLLVAR) {
-                        pos+=4;
-                    }
-                    vals.add(v);
+                fpi.parse(0, buf, pos, buf.length, fpi.getDecoder(), result);
+                if (result.isError()) {
+                    log.error("Decoding CompositeField: {}", result.getErrorMessage());
+                    return null;
                 }
+                vals.add(result.getValue());
+                pos += result.getLength();
             }
             final CompositeField f = new CompositeField();
             f.setValues(vals);
             return f;
-        } catch (ParseException | UnsupportedEncodingException ex) {
+        } catch (UnsupportedEncodingException ex) {
             log.error("Decoding CompositeField", ex);
             return null;
         }
@@ -167,7 +152,7 @@ public class CompositeField implements CustomBinaryField<CompositeField> {
                 if (encoding == null)encoding = v.getCharacterEncoding();
             }
             final byte[] buf = bout.toByteArray();
-            return new String(buf, encoding==null?"UTF-8":encoding);
+            return TextCodec.forName(encoding==null?"UTF-8":encoding).decode(buf, 0, buf.length);
         } catch (IOException ex) {
             log.error("Encoding text CompositeField", ex);
             return "";
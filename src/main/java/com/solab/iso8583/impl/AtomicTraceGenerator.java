@@ -0,0 +1,60 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.solab.iso8583.TraceNumberGenerator;
+
+/** A TraceNumberGenerator with an in-memory counter that is incremented with compare-and-set
+ * instead of a lock, so threads creating messages at the same time never block each other.
+ * The numbers go from 1 to 999999 and then start again at 1, the same as with
+ * {@link SimpleTraceGenerator}.
+ */
+public class AtomicTraceGenerator implements TraceNumberGenerator {
+
+	private final AtomicInteger value;
+
+	/** Creates a new instance that will use the specified initial value. This means
+	 * the first nextTrace() call will return this number.
+	 * @param initialValue a number between 1 and 999999.
+	 * @throws IllegalArgumentException if the number is less than 1 or greater than 999999. */
+	public AtomicTraceGenerator(int initialValue) {
+		if (initialValue < 1 || initialValue > 999999) {
+			throw new IllegalArgumentException("Initial value must be between 1 and 999999");
+		}
+		value = new AtomicInteger(initialValue - 1);
+	}
+
+	public int getLastTrace() {
+		return value.get();
+	}
+
+	/** Returns the next number in the sequence. */
+	public int nextTrace() {
+		while (true) {
+			final int last = value.get();
+			final int next = last >= 999999 ? 1 : last + 1;
+			if (value.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
+
+}
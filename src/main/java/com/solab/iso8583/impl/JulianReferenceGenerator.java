@@ -0,0 +1,270 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583.impl;
+
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solab.iso8583.ReferenceNumberGenerator;
+import com.solab.iso8583.util.DateEngine;
+
+/** Generates retrieval reference numbers of 12 digits, made of the date and hour, a node number
+ * and a sequence. By default they're laid out as YHHHHnnsssss: the last digit of the year,
+ * the hour of the year (from 0000 to 8783), the node number and the sequence. The traditional
+ * layout YDDDHHnnssss, with the day of the year and the hour of the day, can be chosen instead
+ * at the cost of one digit of the sequence. The node number lets several instances of an
+ * application generate references at the same time without repeating them, as long as each
+ * one has a different node number.
+ *
+ * <p>The sequence starts again every hour and takes the digits that are not used by the
+ * node number, so a node can generate {@link #getCapacity()} references per hour. With the
+ * default layout that's 99999 with a two-digit node number, 999999 with a single digit and
+ * 9999999 with none; the YDDDHH layout has a tenth of that. By default the sequence never
+ * wraps around; once it runs out, an IllegalStateException is thrown until the next hour,
+ * instead of repeating a reference. With {@link #setWrapAround(boolean)} the sequence starts
+ * again at 1 instead, so references repeat after getCapacity() of them in the same hour.
+ * When daylight saving time ends and an hour is repeated, or the clock goes back, the
+ * sequence of the latest hour continues.</p>
+ *
+ * <p>The sequence is a single counter incremented with compare-and-set, and the digits for
+ * the date and hour are only computed once per hour, so no locks are taken and nothing
+ * is formatted. This class is thread-safe.</p>
+ */
+public class JulianReferenceGenerator implements ReferenceNumberGenerator {
+
+	private static final long MILLIS_PER_HOUR = 3600000L;
+
+	private final int node;
+	private final int nodeDigits;
+	/** The number of digits for the date and hour: 5 for YHHHH or 6 for YDDDHH. */
+	private final int prefixDigits;
+	private final long sequenceLimit;
+	private final TimeZone tz;
+	private volatile boolean wrapAround;
+	/** The local hour in the high 32 bits and the sequence for that hour in the low 32 bits. */
+	private final AtomicLong sequence = new AtomicLong();
+	private volatile Hour hour;
+
+	/** Creates a generator with a two-digit node number, in the default timezone, with the
+	 * YHHHH layout.
+	 * @param node The node number, from 0 to 99. */
+	public JulianReferenceGenerator(int node) {
+		this(node, 2, null);
+	}
+
+	/** Creates a generator for the specified node, with the YHHHH layout.
+	 * @param node The node number, from 0 to the largest number that fits in nodeDigits.
+	 * @param nodeDigits The number of digits for the node number, from 0 to 5. The rest
+	 * of the seven digits after the hour are used for the sequence.
+	 * @param tz The timezone for the date and hour, or null to use the default timezone. */
+	public JulianReferenceGenerator(int node, int nodeDigits, TimeZone tz) {
+		this(node, nodeDigits, tz, false);
+	}
+
+	/** Creates a generator for the specified node.
+	 * @param node The node number, from 0 to the largest number that fits in nodeDigits.
+	 * @param nodeDigits The number of digits for the node number, from 0 to 5. The rest
+	 * of the digits after the hour are used for the sequence.
+	 * @param tz The timezone for the date and hour, or null to use the default timezone.
+	 * @param dayAndHour true for the YDDDHH layout, with the day of the year and the hour of the
+	 * day, which leaves six digits for the node and sequence; false for YHHHH, with the hour of
+	 * the year, which leaves seven. */
+	public JulianReferenceGenerator(int node, int nodeDigits, TimeZone tz, boolean dayAndHour) {
+		if (nodeDigits < 0 || nodeDigits > 5) {
+			throw new IllegalArgumentException("Node digits must be between 0 and 5");
+		}
+		int nodeLimit = 1;
+		for (int i = 0; i < nodeDigits; i++) {
+			nodeLimit *= 10;
+		}
+		if (node < 0 || node >= nodeLimit) {
+			throw new IllegalArgumentException(String.format(
+					"Node must be between 0 and %d: %d", nodeLimit - 1, node));
+		}
+		this.node = node;
+		this.nodeDigits = nodeDigits;
+		this.prefixDigits = dayAndHour ? 6 : 5;
+		long limit = 1;
+		for (int i = prefixDigits + nodeDigits; i < 12; i++) {
+			limit *= 10;
+		}
+		this.sequenceLimit = limit;
+		this.tz = tz;
+		hour = new Hour(0, 0, 0, dayAndHour);
+	}
+
+	/** Returns the number of references this generator can create in one hour. */
+	public long getCapacity() {
+		return sequenceLimit - 1;
+	}
+
+	/** Returns true if the references use the YDDDHH layout instead of YHHHH. */
+	public boolean isDayAndHour() {
+		return prefixDigits == 6;
+	}
+
+	/** Sets whether the sequence starts again at 1 when all the references for the current
+	 * hour have been generated, repeating references, instead of throwing an exception until
+	 * the next hour. The default is false. */
+	public void setWrapAround(boolean flag) {
+		wrapAround = flag;
+	}
+	/** Returns true if the sequence starts again when it runs out within an hour. */
+	public boolean isWrapAround() {
+		return wrapAround;
+	}
+
+	/** Returns the next reference number.
+	 * @throws IllegalStateException if all the references for the current hour have been
+	 * generated and the sequence doesn't wrap around. */
+	public String nextReference() {
+		final char[] buf = new char[12];
+		nextReference(buf, 0);
+		return new String(buf);
+	}
+
+	/** Writes the next reference number to a buffer as 12 ASCII digits.
+	 * @return The number of bytes written, which is always 12.
+	 * @throws IllegalStateException if all the references for the current hour have been
+	 * generated and the sequence doesn't wrap around. */
+	public int nextReference(byte[] buf, int pos) {
+		Hour h = currentHour();
+		final long s = nextSequence(h.key);
+		h = h.forKey(s >>> 32);
+		final long n = s & 0xffffffffL;
+		for (int i = 0; i < 12; i++) {
+			buf[pos + i] = (byte)digit(h, n, i);
+		}
+		return 12;
+	}
+
+	/** Writes the next reference number to a char buffer.
+	 * @return The number of characters written, which is always 12.
+	 * @throws IllegalStateException if all the references for the current hour have been
+	 * generated and the sequence doesn't wrap around. */
+	public int nextReference(char[] buf, int pos) {
+		Hour h = currentHour();
+		final long s = nextSequence(h.key);
+		h = h.forKey(s >>> 32);
+		final long n = s & 0xffffffffL;
+		for (int i = 0; i < 12; i++) {
+			buf[pos + i] = digit(h, n, i);
+		}
+		return 12;
+	}
+
+	/** Returns the digit at the specified position of the reference. */
+	private char digit(Hour h, long seq, int index) {
+		if (index < prefixDigits) {
+			return (char)h.digits[index];
+		}
+		long v = seq;
+		int last = 11;
+		if (index < prefixDigits + nodeDigits) {
+			v = node;
+			last = prefixDigits - 1 + nodeDigits;
+		}
+		for (int i = last; i > index; i--) {
+			v /= 10;
+		}
+		return (char)((v % 10) + '0');
+	}
+
+	/** Returns the hour in the high 32 bits and the next number of its sequence, starting at 1,
+	 * in the low 32 bits. If the clock goes back to an earlier hour, the sequence of the later
+	 * hour continues. */
+	private long nextSequence(long key) {
+		while (true) {
+			final long s = sequence.get();
+			long next = (s >>> 32) >= key ? s + 1 : (key << 32) | 1;
+			if ((next & 0xffffffffL) >= sequenceLimit) {
+				if (wrapAround) {
+					next = (s & 0xffffffff00000000L) | 1;
+				} else {
+					throw new IllegalStateException(String.format(
+							"All %d references for the hour have been generated", sequenceLimit - 1));
+				}
+			}
+			if (sequence.compareAndSet(s, next)) {
+				return next;
+			}
+		}
+	}
+
+	private Hour currentHour() {
+		final long now = System.currentTimeMillis();
+		Hour h = hour;
+		if (now < h.start || now >= h.end) {
+			h = Hour.of(now, tz == null ? DateEngine.today().getTimeZone() : tz, isDayAndHour());
+			hour = h;
+		}
+		return h;
+	}
+
+	/** The digits YHHHH or YDDDHH of one hour in the timezone. The key is the number of local
+	 * hours since 1970, so an hour that is repeated when daylight saving time ends has the same key. */
+	private static final class Hour {
+		private final long start;
+		private final long end;
+		private final long key;
+		private final boolean dayAndHour;
+		private final byte[] digits;
+
+		private Hour(long start, long end, long key, boolean dayAndHour) {
+			this.start = start;
+			this.end = end;
+			this.key = key;
+			this.dayAndHour = dayAndHour;
+			final long day = Math.floorDiv(key, 24);
+			final int hourOfDay = (int)(key - (day * 24));
+			final int year = DateEngine.civil(day)[0];
+			final int dayOfYear = (int)(day - DateEngine.epochDay(year, 1, 1)) + 1;
+			if (dayAndHour) {
+				digits = new byte[6];
+				digits[1] = (byte)((dayOfYear / 100) + '0');
+				digits[2] = (byte)(((dayOfYear / 10) % 10) + '0');
+				digits[3] = (byte)((dayOfYear % 10) + '0');
+				digits[4] = (byte)((hourOfDay / 10) + '0');
+				digits[5] = (byte)((hourOfDay % 10) + '0');
+			} else {
+				final int hourOfYear = ((dayOfYear - 1) * 24) + hourOfDay;
+				digits = new byte[5];
+				digits[1] = (byte)((hourOfYear / 1000) + '0');
+				digits[2] = (byte)(((hourOfYear / 100) % 10) + '0');
+				digits[3] = (byte)(((hourOfYear / 10) % 10) + '0');
+				digits[4] = (byte)((hourOfYear % 10) + '0');
+			}
+			digits[0] = (byte)(Math.floorMod(year, 10) + '0');
+		}
+
+		/** Returns this hour if it has the key, or the digits of the hour with the key
+		 * when the clock went back and the sequence of a later hour continues. */
+		private Hour forKey(long k) {
+			return k == key ? this : new Hour(0, 0, k, dayAndHour);
+		}
+
+		private static Hour of(long now, TimeZone tz, boolean dayAndHour) {
+			final long local = now + tz.getOffset(now);
+			final long sinceHour = Math.floorMod(local, MILLIS_PER_HOUR);
+			return new Hour(now - sinceHour, now - sinceHour + MILLIS_PER_HOUR,
+					Math.floorDiv(local, MILLIS_PER_HOUR), dayAndHour);
+		}
+	}
+
+}
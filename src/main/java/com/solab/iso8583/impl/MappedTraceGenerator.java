@@ -0,0 +1,242 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solab.iso8583.TraceNumberGenerator;
+
+/** A TraceNumberGenerator that keeps its sequence in a small memory-mapped file, so that
+ * it continues where it left off after a restart instead of reusing numbers the other
+ * side may still remember. Numbers are leased from the file in blocks: the end of the
+ * block is written and flushed to disk before any of its numbers are used, so there is
+ * one flush per block instead of one per message. After a crash or restart the sequence
+ * continues after the last leased block, skipping whatever was left of it.
+ *
+ * <p>The file holds two copies of the mark, each with its complement, and they are
+ * written alternately; if the system crashes while one is being written, the other
+ * one is still valid. Several generators, in this JVM or in other processes on the same
+ * host, can share the same file: every lease is done while holding a lock on the file,
+ * so they all take their blocks from the same sequence.</p>
+ *
+ * <p>The numbers go from 1 to 999999 and then start again at 1. With several generators
+ * on the same file, or several threads using the same generator, the numbers are unique
+ * within a cycle but are not issued in order.</p>
+ */
+public class MappedTraceGenerator implements TraceNumberGenerator, Closeable {
+
+	private static final int MAX = 999999;
+	/** Two slots of 16 bytes, each with the mark and its complement. */
+	private static final int SIZE = 32;
+	/** File locks are held by the whole JVM, so generators in the same JVM also need to
+	 * exclude each other before locking the file. The entry for a path is removed when the
+	 * last generator that uses it is closed. */
+	private static final ConcurrentHashMap<String, PathLock> PATH_LOCKS = new ConcurrentHashMap<>();
+
+	private final FileChannel channel;
+	private final MappedByteBuffer map;
+	private final String path;
+	private final PathLock pathLock;
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private final int blockSize;
+	private volatile Block block = new Block(0, 0);
+	private volatile int last;
+
+	/** Opens the sequence stored in the file, creating the file if it doesn't exist.
+	 * @param file The file that holds the sequence.
+	 * @param initialValue The first number to use if the file is new, between 1 and 999999.
+	 * Ignored if the file already has a sequence.
+	 * @param blockSize The amount of numbers to lease at a time, from 1 to 999999. This is
+	 * the most numbers that are skipped after a restart.
+	 * @throws IllegalArgumentException if any of the numbers is less than 1 or greater than 999999.
+	 * @throws IOException if the file can't be opened or doesn't contain a valid sequence. */
+	public MappedTraceGenerator(File file, int initialValue, int blockSize) throws IOException {
+		if (initialValue < 1 || initialValue > MAX) {
+			throw new IllegalArgumentException("Initial value must be between 1 and 999999");
+		}
+		if (blockSize < 1 || blockSize > MAX) {
+			throw new IllegalArgumentException("Block size must be between 1 and 999999");
+		}
+		this.blockSize = blockSize;
+		path = file.getCanonicalPath();
+		pathLock = PATH_LOCKS.compute(path, (k, v) -> {
+			final PathLock pl = v == null ? new PathLock() : v;
+			pl.users++;
+			return pl;
+		});
+		try {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		} catch (IOException | RuntimeException ex) {
+			releasePath();
+			throw ex;
+		}
+		try {
+			map = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+			synchronized (pathLock) {
+				final FileLock lock = channel.lock();
+				try {
+					if (isBlank()) {
+						writeSlot(0, initialValue - 1);
+						writeSlot(1, initialValue - 1);
+						map.force();
+					} else if (readMark() < 0) {
+						throw new IOException("Invalid trace number file " + path);
+					}
+				} finally {
+					lock.release();
+				}
+			}
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			releasePath();
+			throw ex;
+		}
+	}
+
+	/** Returns the size of the blocks leased from the file. */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/** Returns the last number generated by this instance, or 0 if it hasn't generated any. */
+	public int getLastTrace() {
+		return last;
+	}
+
+	/** Returns the next number of the current block, leasing a new block from the file
+	 * if it has been used up.
+	 * @throws IllegalStateException if a new block can't be leased, because the file
+	 * can't be written or the generator was closed. */
+	public int nextTrace() {
+		Block b = block;
+		while (true) {
+			final long seq = b.next.getAndIncrement();
+			if (seq < b.end) {
+				final int trace = (int)(seq % MAX) + 1;
+				last = trace;
+				return trace;
+			}
+			try {
+				b = lease(b);
+			} catch (IOException ex) {
+				throw new IllegalStateException("Cannot lease trace numbers", ex);
+			}
+		}
+	}
+
+	/** Closes the file. The numbers left in the current block are not used. */
+	@Override
+	public void close() throws IOException {
+		if (closed.compareAndSet(false, true)) {
+			try {
+				channel.close();
+			} finally {
+				releasePath();
+			}
+		}
+	}
+
+	/** Tells whether any open generator uses the specified canonical path. */
+	static boolean isInUse(String path) {
+		return PATH_LOCKS.containsKey(path);
+	}
+
+	/** Removes the lock for the path when no other generator uses it. */
+	private void releasePath() {
+		PATH_LOCKS.computeIfPresent(path, (k, v) -> --v.users == 0 ? null : v);
+	}
+
+	/** Takes the next block from the file, unless another thread already replaced the
+	 * current one. */
+	private synchronized Block lease(Block current) throws IOException {
+		if (block != current) {
+			return block;
+		}
+		synchronized (pathLock) {
+			final FileLock lock = channel.lock();
+			try {
+				final long start = readMark();
+				if (start < 0) {
+					throw new IOException("Invalid trace number file");
+				}
+				//Overwrite the older copy, so the newer one survives a torn write
+				writeSlot(slotValue(0) == start ? 1 : 0, start + blockSize);
+				map.force();
+				block = new Block(start, start + blockSize);
+			} finally {
+				lock.release();
+			}
+		}
+		return block;
+	}
+
+	/** Returns true if the file has never been written. */
+	private boolean isBlank() {
+		for (int i = 0; i < SIZE; i += 8) {
+			if (map.getLong(i) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Returns the highest valid mark in the file, or -1 if neither copy is valid. */
+	private long readMark() {
+		return Math.max(slotValue(0), slotValue(1));
+	}
+
+	/** Returns the mark in a slot, or -1 if it doesn't match its complement. */
+	private long slotValue(int slot) {
+		final long v = map.getLong(slot * 16);
+		return v >= 0 && map.getLong((slot * 16) + 8) == ~v ? v : -1;
+	}
+
+	private void writeSlot(int slot, long value) {
+		map.putLong(slot * 16, value);
+		map.putLong((slot * 16) + 8, ~value);
+	}
+
+	/** The monitor that generators on the same path synchronize on, with the number of
+	 * generators that use it; only changed inside PATH_LOCKS.compute. */
+	private static final class PathLock {
+		private int users;
+	}
+
+	/** A range of the sequence leased from the file. */
+	private static final class Block {
+		private final AtomicLong next;
+		private final long end;
+
+		private Block(long start, long end) {
+			next = new AtomicLong(start);
+			this.end = end;
+		}
+	}
+
+}
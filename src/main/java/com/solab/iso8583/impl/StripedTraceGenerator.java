@@ -0,0 +1,93 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.solab.iso8583.TraceNumberGenerator;
+
+/** A TraceNumberGenerator in which each thread leases a block of consecutive numbers from
+ * a shared counter and hands them out without touching any shared state until the block
+ * runs out. With many threads creating messages this avoids contention on a single counter,
+ * at the cost of the numbers not being issued in order across threads: each thread's numbers
+ * are increasing, but two threads interleave their blocks. Every number from 1 to 999999 is
+ * still leased only once before the sequence starts again at 1.
+ * Numbers left in the block of a thread that stops creating messages are never used.
+ */
+public class StripedTraceGenerator implements TraceNumberGenerator {
+
+	private static final int MAX = 999999;
+
+	/** The position in the sequence where the next block starts. */
+	private final AtomicLong nextBlock;
+	private final int blockSize;
+	private final ThreadLocal<Lease> leases = new ThreadLocal<Lease>() {
+		@Override
+		protected Lease initialValue() {
+			return new Lease();
+		}
+	};
+
+	/** Creates a new instance that will lease blocks of the specified size, the first one
+	 * starting at the initial value.
+	 * @param initialValue a number between 1 and 999999.
+	 * @param blockSize The amount of numbers that each thread takes at a time, from 1 to 999999.
+	 * @throws IllegalArgumentException if any of the numbers is less than 1 or greater than 999999. */
+	public StripedTraceGenerator(int initialValue, int blockSize) {
+		if (initialValue < 1 || initialValue > MAX) {
+			throw new IllegalArgumentException("Initial value must be between 1 and 999999");
+		}
+		if (blockSize < 1 || blockSize > MAX) {
+			throw new IllegalArgumentException("Block size must be between 1 and 999999");
+		}
+		nextBlock = new AtomicLong(initialValue - 1);
+		this.blockSize = blockSize;
+	}
+
+	/** Returns the size of the blocks leased by each thread. */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/** Returns the last number generated by the calling thread, or 0 if it hasn't generated any.
+	 * Since every thread has its own block, there is no single last number for all of them. */
+	public int getLastTrace() {
+		return leases.get().last;
+	}
+
+	/** Returns the next number from the calling thread's block, leasing a new block if
+	 * it has been used up. */
+	public int nextTrace() {
+		final Lease lease = leases.get();
+		if (lease.next == lease.end) {
+			lease.next = nextBlock.getAndAdd(blockSize);
+			lease.end = lease.next + blockSize;
+		}
+		lease.last = (int)(lease.next++ % MAX) + 1;
+		return lease.last;
+	}
+
+	/** The block of numbers held by a thread. */
+	private static final class Lease {
+		private long next;
+		private long end;
+		private int last;
+	}
+
+}
@@ -19,7 +19,6 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.solab.iso8583.parse;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
 
 import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
@@ -36,32 +35,34 @@ public abstract class AlphaNumericFieldParseInfo extends FieldParseInfo {
 	}
 
     @Override
-	public <T> IsoValue<?> parse(final int field, final byte[] buf, final int pos,
-                             final CustomField<T> custom)
-            throws ParseException, UnsupportedEncodingException {
+	public <T> void parse(final int field, final byte[] buf, final int pos, final int limit,
+                             final CustomField<T> custom,
+                             final FieldParseResult result)
+            throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid ALPHA/NUM field %d position %d",
-                    field, pos), pos);
-		} else if (pos+length > buf.length) {
-			throw new ParseException(String.format("Insufficient data for %s field %d of length %d, pos %d",
-				type, field, length, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+length > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
-        try {
-            String _v = new String(buf, pos, length, getCharacterEncoding());
-            if (_v.length() != length) {
-                _v = new String(buf, pos, buf.length-pos, getCharacterEncoding()).substring(0, length);
+        String _v = decode(buf, pos, length);
+        int dataLength = length;
+        if (_v.length() != length) {
+            _v = decode(buf, pos, limit-pos);
+            if (_v.length() < length) {
+                result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+                return;
             }
-            if (custom == null) {
-                return new IsoValue<>(type, _v, length, null);
-            } else {
-                T decoded = custom.decodeField(_v);
-                return decoded == null ? new IsoValue<>(type, _v, length, null) :
-                    new IsoValue<>(type, decoded, length, custom);
-            }
-        } catch (StringIndexOutOfBoundsException ex) {
-            throw new ParseException(String.format(
-                    "Insufficient data for %s field %d of length %d, pos %d",
-                    type, field, length, pos), pos);
+            _v = _v.substring(0, length);
+            dataLength = getTextCodec().encodedLength(_v);
+        }
+        if (custom == null) {
+            result.set(new IsoValue<>(type, _v, length, null), dataLength);
+        } else {
+            T decoded = custom.decodeField(_v);
+            result.set(decoded == null ? new IsoValue<>(type, _v, length, null) :
+                new IsoValue<>(type, decoded, length, custom), dataLength);
         }
 	}
 
@@ -19,7 +19,6 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.solab.iso8583.parse;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
 
 import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
@@ -36,30 +35,24 @@ public class AlphaParseInfo extends AlphaNumericFieldParseInfo {
 	}
 
     @Override
-	public <T> IsoValue<?> parseBinary(final int field, final byte[] buf, final int pos,
-                                   final CustomField<T> custom)
-            throws ParseException, UnsupportedEncodingException {
+	public <T> void parseBinary(final int field, final byte[] buf, final int pos, final int limit,
+                                   final CustomField<T> custom,
+                                   final FieldParseResult result)
+            throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid bin ALPHA field %d position %d",
-                    field, pos), pos);
-		} else if (pos+length > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for bin %s field %d of length %d, pos %d",
-				type, field, length, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+length > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
-        try {
-            if (custom == null) {
-                return new IsoValue<>(type, new String(buf, pos, length, getCharacterEncoding()), length, null);
-            } else {
-                T decoded = custom.decodeField(new String(buf, pos, length, getCharacterEncoding()));
-                return decoded == null ?
-                    new IsoValue<>(type, new String(buf, pos, length, getCharacterEncoding()), length, null) :
-                    new IsoValue<>(type, decoded, length, custom);
-            }
-        } catch (IndexOutOfBoundsException ex) {
-            throw new ParseException(String.format(
-                    "Insufficient data for bin %s field %d of length %d, pos %d",
-         				type, field, length, pos), pos);
+        if (custom == null) {
+            result.set(new IsoValue<>(type, decode(buf, pos, length), length, null), length);
+        } else {
+            T decoded = custom.decodeField(decode(buf, pos, length));
+            result.set(decoded == null ?
+                new IsoValue<>(type, decode(buf, pos, length), length, null) :
+                new IsoValue<>(type, decoded, length, custom), length);
         }
 	}
 
@@ -22,68 +22,127 @@ import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
 import java.text.ParseException;
 
+import com.solab.iso8583.AmountIsoValue;
 import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
 import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.util.TextCodec;
 
-/** This class is used to parse AMOUNT fields.
+/** This class is used to parse AMOUNT fields. The values are read as minor units
+ * into an {@link AmountIsoValue}, which only creates a BigDecimal when it's requested.
  * 
  * @author Enrique Zamudio
  */
 public class AmountParseInfo extends FieldParseInfo {
 
-	
+	/** Returned by the digit readers when the data is not an amount. */
+	private static final long INVALID = Long.MIN_VALUE;
+
 	public AmountParseInfo() {
 		super(IsoType.AMOUNT, 12);
 	}
 
     @Override
-	public <T> IsoValue<BigDecimal> parse(final int field, final byte[] buf,
-                                      final int pos, final CustomField<T> custom)
+    public <T> IsoValue<BigDecimal> parse(final int field, final byte[] buf,
+                                          final int pos, final CustomField<T> custom)
             throws ParseException, UnsupportedEncodingException {
+        final FieldParseResult result = new FieldParseResult();
+        parse(field, buf, pos, buf.length, custom, result);
+        return result.getCheckedValue();
+    }
+
+    @Override
+    public <T> IsoValue<BigDecimal> parseBinary(final int field, final byte[] buf,
+                                                final int pos, final CustomField<T> custom)
+            throws ParseException {
+        final FieldParseResult result = new FieldParseResult();
+        parseBinary(field, buf, pos, buf.length, custom, result);
+        return result.getCheckedValue();
+    }
+
+    @Override
+	public <T> void parse(final int field, final byte[] buf,
+                                      final int pos, final int limit, final CustomField<T> custom,
+                                      final FieldParseResult result)
+            throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid AMOUNT field %d position %d",
-                    field, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
 		}
-		if (pos+12 > buf.length) {
-			throw new ParseException(String.format("Insufficient data for AMOUNT field %d, pos %d",
-                    field, pos), pos);
+		if (pos+12 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
-		String c = new String(buf, pos, 12, getCharacterEncoding());
-		try {
-			return new IsoValue<>(type, new BigDecimal(c).movePointLeft(2));
-		} catch (NumberFormatException ex) {
-			throw new ParseException(String.format("Cannot read amount '%s' field %d pos %d",
-                    c, field, pos), pos);
-        } catch (IndexOutOfBoundsException ex) {
-            throw new ParseException(String.format(
-                    "Insufficient data for AMOUNT field %d, pos %d", field, pos), pos);
+		final TextCodec tc = getTextCodec();
+		final long minor = tc.hasAsciiTable() ?
+				minorUnits(buf, pos, tc) : minorUnits(decode(buf, pos, 12));
+		if (minor == INVALID) {
+			result.fail(ParseError.INVALID_VALUE, type, field, pos);
+			return;
 		}
+		result.set(new AmountIsoValue(minor), 12);
 	}
 
     @Override
-	public <T> IsoValue<BigDecimal> parseBinary(final int field, final byte[] buf,
-                                            final int pos, final CustomField<T> custom)
-            throws ParseException {
-		char[] digits = new char[13];
-		digits[10] = '.';
-		int start = 0;
+	public <T> void parseBinary(final int field, final byte[] buf,
+                                            final int pos, final int limit, final CustomField<T> custom,
+                                            final FieldParseResult result) {
+		if (pos < 0) {
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		}
+		if (pos+6 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
+		}
+		long minor = 0;
 		for (int i = pos; i < pos + 6; i++) {
-			digits[start++] = (char)(((buf[i] & 0xf0) >> 4) + 48);
-			digits[start++] = (char)((buf[i] & 0x0f) + 48);
-			if (start == 10) {
-				start++;
+			if ((buf[i] & 0xf0) > 0x90 || (buf[i] & 0x0f) > 9) {
+				result.fail(ParseError.INVALID_VALUE, type, field, pos);
+				return;
 			}
+			minor = (minor * 100) + (((buf[i] & 0xf0) >> 4) * 10) + (buf[i] & 0x0f);
 		}
-		try {
-			return new IsoValue<>(IsoType.AMOUNT, new BigDecimal(new String(digits)));
-		} catch (NumberFormatException ex) {
-			throw new ParseException(String.format("Cannot read amount '%s' field %d pos %d",
-                    new String(digits), field, pos), pos);
-        } catch (IndexOutOfBoundsException ex) {
-            throw new ParseException(String.format(
-                    "Insufficient data for AMOUNT field %d, pos %d", field, pos), pos);
+		result.set(new AmountIsoValue(minor), 6);
+	}
+
+	/** Reads the 12 digits of an amount, with an optional leading sign, as minor units,
+	 * translating each byte with the codec's table. Returns INVALID if there's anything else. */
+	private static long minorUnits(byte[] buf, int pos, TextCodec tc) {
+		final byte first = tc.toAscii(buf[pos]);
+		final boolean negative = first == '-';
+		int i = negative || first == '+' ? pos + 1 : pos;
+		long v = 0;
+		for (; i < pos + 12; i++) {
+			final int d = tc.digit(buf[i]);
+			if (d < 0) {
+				return INVALID;
+			}
+			v = (v * 10) + d;
+		}
+		return negative ? -v : v;
+	}
+
+	/** Reads the digits of an amount that was decoded with a character encoding that doesn't
+	 * have an ASCII table. Returns INVALID if it's not an amount. */
+	private static long minorUnits(String c) {
+		if (c.isEmpty()) {
+			return INVALID;
+		}
+		final char first = c.charAt(0);
+		final boolean negative = first == '-';
+		int i = negative || first == '+' ? 1 : 0;
+		if (i == c.length()) {
+			return INVALID;
+		}
+		long v = 0;
+		for (; i < c.length(); i++) {
+			if (c.charAt(i) < '0' || c.charAt(i) > '9') {
+				return INVALID;
+			}
+			v = (v * 10) + (c.charAt(i) - '0');
 		}
+		return negative ? -v : v;
 	}
 
 }
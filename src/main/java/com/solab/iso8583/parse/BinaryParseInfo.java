@@ -19,7 +19,6 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.solab.iso8583.parse;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
 
 import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
@@ -38,48 +37,48 @@ public class BinaryParseInfo extends FieldParseInfo {
 	}
 
 	@Override
-	public <T> IsoValue<?> parse(final int field, final byte[] buf, final int pos,
-                             final CustomField<T> custom)
-			throws ParseException, UnsupportedEncodingException {
+	public <T> void parse(final int field, final byte[] buf, final int pos, final int limit,
+                             final CustomField<T> custom,
+                             final FieldParseResult result)
+			throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid BINARY field %d position %d",
-                    field, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
 		}
-		if (pos+(length*2) > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for BINARY field %d of length %d, pos %d",
-				field, length, pos), pos);
+		if (pos+(length*2) > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		byte[] binval = HexCodec.hexDecode(new String(buf, pos, length*2));
 		if (custom == null) {
-			return new IsoValue<>(type, binval, binval.length, null);
+			result.set(new IsoValue<>(type, binval, binval.length, null), length*2);
 		} else {
-            T dec = custom.decodeField(new String(buf, pos, length*2, getCharacterEncoding()));
-            return dec == null ? new IsoValue<>(type, binval, binval.length, null) :
-                    new IsoValue<>(type, dec, length, custom);
+            T dec = custom.decodeField(decode(buf, pos, length*2));
+            result.set(dec == null ? new IsoValue<>(type, binval, binval.length, null) :
+                    new IsoValue<>(type, dec, length, custom), length*2);
 		}
 	}
 
 	@Override
-	public <T> IsoValue<?> parseBinary(final int field, final byte[] buf, final int pos,
-                                   final CustomField<T> custom) throws ParseException {
+	public <T> void parseBinary(final int field, final byte[] buf, final int pos, final int limit,
+                                   final CustomField<T> custom,
+                                   final FieldParseResult result) {
         if (pos < 0) {
-            throw new ParseException(String.format("Invalid BINARY field %d position %d",
-                      field, pos), pos);
+            result.fail(ParseError.INVALID_POSITION, type, field, pos);
+            return;
         }
-        if (pos+length > buf.length) {
-            throw new ParseException(String.format(
-                      "Insufficient data for BINARY field %d of length %d, pos %d",
-                field, length, pos), pos);
+        if (pos+length > limit) {
+            result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+            return;
         }
 		byte[] _v = new byte[length];
 		System.arraycopy(buf, pos, _v, 0, length);
 		if (custom == null) {
-			return new IsoValue<>(type, _v, length, null);
+			result.set(new IsoValue<>(type, _v, length, null), length);
 		} else {
             T dec = custom.decodeField(HexCodec.hexEncode(_v, 0, _v.length));
-            return dec == null ? new IsoValue<>(type, _v, length, null) :
-                    new IsoValue<>(type, dec, length, custom);
+            result.set(dec == null ? new IsoValue<>(type, _v, length, null) :
+                    new IsoValue<>(type, dec, length, custom), length);
 		}
 	}
 
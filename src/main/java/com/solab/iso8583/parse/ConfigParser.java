@@ -222,10 +222,8 @@ public class ConfigParser {
                 T m = (T)new IsoMessage();
                 m.setType(type);
                 m.setCharacterEncoding(mfact.getCharacterEncoding());
-                for (int i = 2; i < 128; i++) {
-                    if (tref.hasField(i)) {
-                        m.setField(i, tref.getField(i).clone());
-                    }
+                for (int i = tref.nextField(2); i > 0 && i < 128; i = tref.nextField(i + 1)) {
+                    m.setField(i, tref.getField(i).clone());
                 }
                 NodeList fields = elem.getElementsByTagName("field");
                 for (int j = 0; j < fields.getLength(); j++) {
@@ -375,6 +373,25 @@ public class ConfigParser {
         }
     }
     
+    /** Reads the response profiles, which specify the fields that are echoed from the request,
+     * copied from the template, or dropped, when creating a response of each type. */
+    protected static <T extends IsoMessage> void parseResponses(
+            final NodeList nodes, final MessageFactory<T> mfact) throws IOException {
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Element elem = (Element)nodes.item(i);
+            int type = parseType(elem.getAttribute("type"));
+            if (type == -1) {
+                throw new IOException("Invalid ISO8583 type for response profile: " + elem.getAttribute("type"));
+            }
+            try {
+                mfact.setResponseProfile(type, ResponseProfile.fromLists(elem.getAttribute("echo"),
+                        elem.getAttribute("template"), elem.getAttribute("drop")));
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("Invalid response profile for type " + elem.getAttribute("type"), ex);
+            }
+        }
+    }
+
 	private static List<Element> getDirectChildrenByTagName(Element elem, String tagName) {
 		List<Element> childElementsByTagName = new ArrayList<Element>();
 		NodeList childNodes = elem.getChildNodes();
@@ -425,6 +442,7 @@ public class ConfigParser {
         parseTemplates(root.getElementsByTagName("template"), mfact);
 		//Read the parsing guides
         parseGuides(root.getElementsByTagName("parse"), mfact);
+        parseResponses(root.getElementsByTagName("response"), mfact);
 	}
 
 	/** Configures a MessageFactory using the default configuration file j8583.xml. This is useful
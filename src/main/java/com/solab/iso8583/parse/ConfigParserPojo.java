@@ -47,7 +47,8 @@ public class ConfigParserPojo extends ConfigParser{
 
 	protected static <T extends IsoMessage> void parseGuides(final T isoMessage, final MessageFactoryPojo<T> mfact) {
 		HashMap<Integer, FieldParseInfo> parseMap = new HashMap<>();
-		for (int indexField : isoMessage.getAllFields()) {
+		for (int indexField = isoMessage.nextField(2); indexField > 0;
+				indexField = isoMessage.nextField(indexField + 1)) {
 			IsoValue<?> isoValue =  isoMessage.getField(indexField);
 			FieldParseInfo fieldParseInfo = null;
 			if(null != isoValue.getEncoder()){//nested field or custom field
@@ -19,13 +19,12 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.solab.iso8583.parse;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
-import java.util.Calendar;
 import java.util.Date;
 
 import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
 import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.util.DateEngine;
 
 /** This class is used to parse fields of type DATE10.
  * 
@@ -38,74 +37,60 @@ public class Date10ParseInfo extends DateTimeParseInfo {
 	}
 
 	@Override
-	public <T> IsoValue<Date> parse(final int field, final byte[] buf,
-                                final int pos, final CustomField<T> custom)
-			throws ParseException, UnsupportedEncodingException {
+	public <T> void parse(final int field, final byte[] buf,
+                                final int pos, final int limit, final CustomField<T> custom,
+                                final FieldParseResult result)
+			throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid DATE10 field %d position %d",
-                    field, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
 		}
-		if (pos+10 > buf.length) {
-			throw new ParseException(String.format("Insufficient data for DATE10 field %d, pos %d",
-                    field, pos), pos);
+		if (pos+10 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		//A SimpleDateFormat in the case of dates won't help because of the missing data
 		//we have to use the current date for reference and change what comes in the buffer
-		Calendar cal = Calendar.getInstance();
-		//Set the month in the date
+        if (forceStringDecoding && !isDigits(buf, pos, 10)) {
+            result.fail(ParseError.INVALID_VALUE, type, field, pos);
+            return;
+        }
+        final Date date;
         if (forceStringDecoding) {
-            cal.set(Calendar.MONTH, Integer.parseInt(new String(buf, pos, 2, getCharacterEncoding()), 10)-1);
-            cal.set(Calendar.DATE, Integer.parseInt(new String(buf, pos+2, 2, getCharacterEncoding()), 10));
-            cal.set(Calendar.HOUR_OF_DAY, Integer.parseInt(new String(buf, pos+4, 2, getCharacterEncoding()), 10));
-            cal.set(Calendar.MINUTE, Integer.parseInt(new String(buf, pos+6, 2, getCharacterEncoding()), 10));
-            cal.set(Calendar.SECOND, Integer.parseInt(new String(buf, pos+8, 2, getCharacterEncoding()), 10));
+            date = toDate(DateEngine.today().getYear(), decodeDigits(buf, pos, 2),
+                    decodeDigits(buf, pos+2, 2), decodeDigits(buf, pos+4, 2),
+                    decodeDigits(buf, pos+6, 2), decodeDigits(buf, pos+8, 2), 0, true);
         } else {
-            cal.set(Calendar.MONTH, ((buf[pos] - 48) * 10) + buf[pos + 1] - 49);
-            cal.set(Calendar.DATE, ((buf[pos + 2] - 48) * 10) + buf[pos + 3] - 48);
-            cal.set(Calendar.HOUR_OF_DAY, ((buf[pos + 4] - 48) * 10) + buf[pos + 5] - 48);
-            cal.set(Calendar.MINUTE, ((buf[pos + 6] - 48) * 10) + buf[pos + 7] - 48);
-            cal.set(Calendar.SECOND, ((buf[pos + 8] - 48) * 10) + buf[pos + 9] - 48);
-        }
-        cal.set(Calendar.MILLISECOND,0);
-        if (tz != null) {
-            cal.setTimeZone(tz);
+            date = toDate(DateEngine.today().getYear(), ((buf[pos] - 48) * 10) + buf[pos + 1] - 48,
+                    ((buf[pos + 2] - 48) * 10) + buf[pos + 3] - 48,
+                    ((buf[pos + 4] - 48) * 10) + buf[pos + 5] - 48,
+                    ((buf[pos + 6] - 48) * 10) + buf[pos + 7] - 48,
+                    ((buf[pos + 8] - 48) * 10) + buf[pos + 9] - 48, 0, true);
         }
-		adjustWithFutureTolerance(cal);
-		return new IsoValue<>(type, cal.getTime(), null);
+		result.set(new IsoValue<>(type, date, null), 10);
 	}
 
 	@Override
-	public <T> IsoValue<Date> parseBinary(final int field, final byte[] buf,
-                                      final int pos, final CustomField<T> custom)
-            throws ParseException {
+	public <T> void parseBinary(final int field, final byte[] buf,
+                                      final int pos, final int limit, final CustomField<T> custom,
+                                      final FieldParseResult result) {
         if (pos < 0) {
-            throw new ParseException(String.format("Invalid DATE10 field %d position %d",
-                      field, pos), pos);
+            result.fail(ParseError.INVALID_POSITION, type, field, pos);
+            return;
         }
-        if (pos+5 > buf.length) {
-            throw new ParseException(String.format("Insufficient data for DATE10 field %d, pos %d",
-                      field, pos), pos);
+        if (pos+5 > limit) {
+            result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+            return;
         }
 		int[] tens = new int[5];
 		int start = 0;
 		for (int i = pos; i < pos + tens.length; i++) {
 			tens[start++] = (((buf[i] & 0xf0) >> 4) * 10) + (buf[i] & 0x0f);
 		}
-		Calendar cal = Calendar.getInstance();
 		//A SimpleDateFormat in the case of dates won't help because of the missing data
 		//we have to use the current date for reference and change what comes in the buffer
-		//Set the month in the date
-		cal.set(Calendar.MONTH, tens[0] - 1);
-		cal.set(Calendar.DATE, tens[1]);
-		cal.set(Calendar.HOUR_OF_DAY, tens[2]);
-		cal.set(Calendar.MINUTE, tens[3]);
-		cal.set(Calendar.SECOND, tens[4]);
-		cal.set(Calendar.MILLISECOND,0);
-        if (tz != null) {
-            cal.setTimeZone(tz);
-        }
-		adjustWithFutureTolerance(cal);
-		return new IsoValue<>(type, cal.getTime(), null);
+		result.set(new IsoValue<>(type, toDate(DateEngine.today().getYear(), tens[0], tens[1],
+				tens[2], tens[3], tens[4], 0, true), null), 5);
 	}
 
 }
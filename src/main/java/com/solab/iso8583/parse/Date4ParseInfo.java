@@ -19,13 +19,12 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.solab.iso8583.parse;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
-import java.util.Calendar;
 import java.util.Date;
 
 import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
 import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.util.DateEngine;
 
 /** This class is used to parse fields of type DATE4.
  * 
@@ -38,63 +37,53 @@ public class Date4ParseInfo extends DateTimeParseInfo {
 	}
 
 	@Override
-	public <T> IsoValue<Date> parse(final int field, final byte[] buf, final int pos,
-                                final CustomField<T> custom)
-            throws ParseException, UnsupportedEncodingException {
+	public <T> void parse(final int field, final byte[] buf, final int pos, final int limit,
+                                final CustomField<T> custom,
+                                final FieldParseResult result)
+            throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid DATE4 field %d position %d",
-                    field, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
 		}
-		if (pos+4 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for DATE4 field %d, pos %d", field, pos), pos);
+		if (pos+4 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
-		Calendar cal = Calendar.getInstance();
-		cal.set(Calendar.HOUR, 0);
-		cal.set(Calendar.MINUTE, 0);
-		cal.set(Calendar.SECOND, 0);
-		cal.set(Calendar.MILLISECOND, 0);
-		//Set the month in the date
+        if (forceStringDecoding && !isDigits(buf, pos, 4)) {
+            result.fail(ParseError.INVALID_VALUE, type, field, pos);
+            return;
+        }
+        final Date date;
         if (forceStringDecoding) {
-            cal.set(Calendar.MONTH, Integer.parseInt(new String(buf, pos, 2, getCharacterEncoding()), 10)-1);
-            cal.set(Calendar.DATE, Integer.parseInt(new String(buf, pos+2, 2, getCharacterEncoding()), 10));
+            date = toDate(decodeDigits(buf, pos, 2), decodeDigits(buf, pos+2, 2));
         } else {
-            cal.set(Calendar.MONTH, ((buf[pos] - 48) * 10) + buf[pos + 1] - 49);
-            cal.set(Calendar.DATE, ((buf[pos + 2] - 48) * 10) + buf[pos + 3] - 48);
-        }
-        if (tz != null) {
-            cal.setTimeZone(tz);
+            date = toDate(((buf[pos] - 48) * 10) + buf[pos + 1] - 48,
+                    ((buf[pos + 2] - 48) * 10) + buf[pos + 3] - 48);
         }
-		Date10ParseInfo.adjustWithFutureTolerance(cal);
-		return new IsoValue<>(type, cal.getTime(), null);
+		result.set(new IsoValue<>(type, date, null), 4);
 	}
 
 	@Override
-	public <T> IsoValue<Date> parseBinary(final int field, final byte[] buf, final int pos,
-                                      final CustomField<T> custom) throws ParseException {
+	public <T> void parseBinary(final int field, final byte[] buf, final int pos, final int limit,
+                                      final CustomField<T> custom,
+                                      final FieldParseResult result) {
 		int[] tens = new int[2];
 		int start = 0;
-        if (buf.length-pos < 2) {
-            throw new ParseException(String.format(
-                    "Insufficient data to parse binary DATE4 field %d pos %d",
-                    field, pos), pos);
+        if (limit-pos < 2) {
+            result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+            return;
         }
 		for (int i = pos; i < pos + tens.length; i++) {
 			tens[start++] = (((buf[i] & 0xf0) >> 4) * 10) + (buf[i] & 0x0f);
 		}
-		Calendar cal = Calendar.getInstance();
-		cal.set(Calendar.HOUR, 0);
-		cal.set(Calendar.MINUTE, 0);
-		cal.set(Calendar.SECOND, 0);
-		//Set the month in the date
-		cal.set(Calendar.MONTH, tens[0] - 1);
-		cal.set(Calendar.DATE, tens[1]);
-		cal.set(Calendar.MILLISECOND,0);
-        if (tz != null) {
-            cal.setTimeZone(tz);
-        }
-		DateTimeParseInfo.adjustWithFutureTolerance(cal);
-		return new IsoValue<>(type, cal.getTime(), null);
+		result.set(new IsoValue<>(type, toDate(tens[0], tens[1]), null), 2);
+	}
+
+	/** Creates the date for the month and day in the current year. The time is set to
+	 * the start of the current half of the day (hour 0 in Calendar.HOUR terms). */
+	private Date toDate(int month, int day) {
+		final DateEngine.Today today = DateEngine.today();
+		return toDate(today.getYear(), month, day, today.isAfternoon() ? 12 : 0, 0, 0, 0, true);
 	}
 
 }
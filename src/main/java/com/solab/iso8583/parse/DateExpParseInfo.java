@@ -19,13 +19,12 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.solab.iso8583.parse;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
-import java.util.Calendar;
 import java.util.Date;
 
 import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
 import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.util.DateEngine;
 
 /** This class is used to parse fields of type DATE_EXP.
  * 
@@ -38,67 +37,58 @@ public class DateExpParseInfo extends DateTimeParseInfo {
 	}
 
 	@Override
-	public <T> IsoValue<Date> parse(final int field, final byte[] buf,
-                                final int pos, final CustomField<T> custom)
-            throws ParseException, UnsupportedEncodingException {
+	public <T> void parse(final int field, final byte[] buf,
+                                final int pos, final int limit, final CustomField<T> custom,
+                                final FieldParseResult result)
+            throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid DATE_EXP field %d position %d",
-                    field, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
 		}
-		if (pos+4 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for DATE_EXP field %d pos %d", field, pos), pos);
+		if (pos+4 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
-		Calendar cal = Calendar.getInstance();
-		cal.set(Calendar.HOUR, 0);
-		cal.set(Calendar.MINUTE, 0);
-		cal.set(Calendar.SECOND, 0);
-		cal.set(Calendar.DATE, 1);
-		//Set the month in the date
+        if (forceStringDecoding && !isDigits(buf, pos, 4)) {
+            result.fail(ParseError.INVALID_VALUE, type, field, pos);
+            return;
+        }
+        final Date date;
         if (forceStringDecoding) {
-            cal.set(Calendar.YEAR, cal.get(Calendar.YEAR) - (cal.get(Calendar.YEAR) % 100)
-                    + Integer.parseInt(new String(buf, pos, 2, getCharacterEncoding()), 10));
-            cal.set(Calendar.MONTH, Integer.parseInt(new String(buf, pos+2, 2, getCharacterEncoding()), 10)-1);
+            date = toDate(decodeDigits(buf, pos, 2), decodeDigits(buf, pos+2, 2));
         } else {
-            cal.set(Calendar.YEAR, cal.get(Calendar.YEAR) - (cal.get(Calendar.YEAR) % 100)
-                    + ((buf[pos] - 48) * 10) + buf[pos + 1] - 48);
-            cal.set(Calendar.MONTH, ((buf[pos + 2] - 48) * 10) + buf[pos + 3] - 49);
-        }
-        if (tz != null) {
-            cal.setTimeZone(tz);
+            date = toDate(((buf[pos] - 48) * 10) + buf[pos + 1] - 48,
+                    ((buf[pos + 2] - 48) * 10) + buf[pos + 3] - 48);
         }
-		return new IsoValue<>(type, cal.getTime(), null);
+		result.set(new IsoValue<>(type, date, null), 4);
 	}
 
 	@Override
-	public <T> IsoValue<Date> parseBinary(final int field, final byte[] buf,
-                                      final int pos, final CustomField<T> custom)
-            throws ParseException {
+	public <T> void parseBinary(final int field, final byte[] buf,
+                                      final int pos, final int limit, final CustomField<T> custom,
+                                      final FieldParseResult result) {
         if (pos < 0) {
-            throw new ParseException(String.format("Invalid DATE_EXP field %d position %d",
-                      field, pos), pos);
+            result.fail(ParseError.INVALID_POSITION, type, field, pos);
+            return;
         }
-        if (pos+2 > buf.length) {
-            throw new ParseException(String.format(
-                      "Insufficient data for DATE_EXP field %d pos %d", field, pos), pos);
+        if (pos+2 > limit) {
+            result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+            return;
         }
 		int[] tens = new int[2];
 		int start = 0;
 		for (int i = pos; i < pos + tens.length; i++) {
 			tens[start++] = (((buf[i] & 0xf0) >> 4) * 10) + (buf[i] & 0x0f);
 		}
-		Calendar cal = Calendar.getInstance();
-		cal.set(Calendar.HOUR, 0);
-		cal.set(Calendar.MINUTE, 0);
-		cal.set(Calendar.SECOND, 0);
-		cal.set(Calendar.DATE, 1);
-		//Set the month in the date
-		cal.set(Calendar.YEAR, cal.get(Calendar.YEAR)
-				- (cal.get(Calendar.YEAR) % 100) + tens[0]);
-		cal.set(Calendar.MONTH, tens[1] - 1);
-        if (tz != null) {
-            cal.setTimeZone(tz);
-        }
-		return new IsoValue<>(type, cal.getTime(), null);
+		result.set(new IsoValue<>(type, toDate(tens[0], tens[1]), null), 2);
+	}
+
+	/** Creates the date for the first day of the month, in the current century. The time is
+	 * the start of the current half of the day (hour 0 in Calendar.HOUR terms), keeping
+	 * the milliseconds of the current time. */
+	private Date toDate(int year, int month) {
+		final DateEngine.Today today = DateEngine.today();
+		return toDate(today.getYear() - (today.getYear() % 100) + year, month, 1,
+				today.isAfternoon() ? 12 : 0, 0, 0, (int)(System.currentTimeMillis() % 1000), false);
 	}
 }
@@ -1,8 +1,14 @@
 package com.solab.iso8583.parse;
 
+import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
+import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.util.DateEngine;
 
+import java.io.UnsupportedEncodingException;
+import java.text.ParseException;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.TimeZone;
 
 /**
@@ -25,12 +31,80 @@ public abstract class DateTimeParseInfo extends FieldParseInfo {
     }
 
     public void setTimeZone(TimeZone value) {
+        checkMutable();
         tz = value;
     }
     public TimeZone getTimeZone() {
         return tz;
     }
 
+    @Override
+    protected void copySettings(FieldParseInfo target) {
+        super.copySettings(target);
+        ((DateTimeParseInfo)target).tz = tz;
+    }
+
+    @Override
+    public <T> IsoValue<Date> parse(final int field, final byte[] buf, final int pos,
+                                    final CustomField<T> custom)
+            throws ParseException, UnsupportedEncodingException {
+        return parse(field, buf, pos, buf.length, custom);
+    }
+
+    @Override
+    public <T> IsoValue<Date> parse(final int field, final byte[] buf, final int pos,
+                                    final int limit, final CustomField<T> custom)
+            throws ParseException, UnsupportedEncodingException {
+        final FieldParseResult result = new FieldParseResult();
+        parse(field, buf, pos, limit, custom, result);
+        return result.getCheckedValue();
+    }
+
+    @Override
+    public <T> IsoValue<Date> parseBinary(final int field, final byte[] buf, final int pos,
+                                          final CustomField<T> custom)
+            throws ParseException {
+        return parseBinary(field, buf, pos, buf.length, custom);
+    }
+
+    @Override
+    public <T> IsoValue<Date> parseBinary(final int field, final byte[] buf, final int pos,
+                                          final int limit, final CustomField<T> custom)
+            throws ParseException {
+        final FieldParseResult result = new FieldParseResult();
+        parseBinary(field, buf, pos, limit, custom, result);
+        return result.getCheckedValue();
+    }
+
+    @Override
+    public abstract <T> void parseBinary(final int field, final byte[] buf, final int pos,
+                                         final int limit, final CustomField<T> custom,
+                                         final FieldParseResult result);
+
+    /** Returns true if the specified number of bytes decode to decimal digits, two at a time,
+     * the way the date fields are read when forceStringDecoding is set. */
+    protected boolean isDigits(final byte[] buf, final int pos, final int count)
+            throws UnsupportedEncodingException {
+        for (int i = pos; i < pos + count; i += 2) {
+            if (decodeDigits(buf, i, 2) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Creates a date from its fields in the timezone of this parser, without using a Calendar.
+     * @param month The month, from 1 to 12.
+     * @param adjust Whether to move the date back one year if it's too far into the future. */
+    protected Date toDate(int year, int month, int day, int hour, int minute, int second,
+                          int millis, boolean adjust) {
+        long time = DateEngine.toMillis(year, month, day, hour, minute, second, millis, tz);
+        if (adjust) {
+            time = DateEngine.adjustWithFutureTolerance(time, FUTURE_TOLERANCE, tz);
+        }
+        return new Date(time);
+    }
+
     public static void adjustWithFutureTolerance(Calendar cal) {
    		//We need to handle a small tolerance into the future (a couple of minutes)
    		long now = System.currentTimeMillis();
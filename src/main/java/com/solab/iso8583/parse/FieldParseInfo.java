@@ -24,6 +24,7 @@ import java.text.ParseException;
 import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
 import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.util.TextCodec;
 
 /** This class is used to parse a field from a message buffer. There are concrete subclasses for each IsoType.
  * 
@@ -31,11 +32,50 @@ import com.solab.iso8583.IsoValue;
  */
 public abstract class FieldParseInfo {
 
+	private static final int TEXT_OVERRIDE = 1;
+	private static final int BINARY_OVERRIDE = 2;
+	/** Whether each subclass overrides any of the parse methods (TEXT_OVERRIDE) and any of
+	 * the parseBinary methods (BINARY_OVERRIDE), since the default ones call each other. */
+	private static final ClassValue<Integer> OVERRIDES = new ClassValue<Integer>() {
+		@Override
+		protected Integer computeValue(Class<?> type) {
+			int flags = 0;
+			for (Class<?> c = type; c != FieldParseInfo.class; c = c.getSuperclass()) {
+				if (declares(c, "parse")) {
+					flags |= TEXT_OVERRIDE;
+				}
+				if (declares(c, "parseBinary")) {
+					flags |= BINARY_OVERRIDE;
+				}
+			}
+			return flags;
+		}
+
+		private boolean declares(Class<?> c, String name) {
+			for (Class<?>[] params : new Class<?>[][]{
+					{ int.class, byte[].class, int.class, CustomField.class },
+					{ int.class, byte[].class, int.class, int.class, CustomField.class },
+					{ int.class, byte[].class, int.class, int.class, CustomField.class, FieldParseResult.class } }) {
+				try {
+					c.getDeclaredMethod(name, params);
+					return true;
+				} catch (NoSuchMethodException ex) {
+					//not in this class
+				}
+			}
+			return false;
+		}
+	};
+
 	protected IsoType type;
 	protected final int length;
 	private String encoding = System.getProperty("file.encoding");
     protected boolean forceStringDecoding;
     private CustomField<?> decoder;
+    /** The codec for the encoding, resolved the first time it's needed. */
+    private TextCodec codec;
+    /** Set when the parser is made immutable by {@link #immutableCopy()}. */
+    private boolean immutable;
 
 	/** Creates a new instance that parses a value of the specified type, with the specified length.
 	 * The length is only useful for ALPHA and NUMERIC types.
@@ -53,16 +93,33 @@ public abstract class FieldParseInfo {
      * be decoded using proper string conversion with the character encoding. Default is false,
      * which means use the old behavior of decoding as ASCII. */
     public void setForceStringDecoding(boolean flag) {
+        checkMutable();
         forceStringDecoding = flag;
     }
 
 	public void setCharacterEncoding(String value) {
+		checkMutable();
 		encoding = value;
+		codec = null;
 	}
 	public String getCharacterEncoding() {
 		return encoding;
 	}
 
+	/** Returns the codec for the character encoding, resolving it only once. */
+	protected TextCodec getTextCodec() throws UnsupportedEncodingException {
+		if (codec == null) {
+			codec = TextCodec.forName(encoding);
+		}
+		return codec;
+	}
+
+	/** Decodes the specified bytes with the character encoding. */
+	protected String decode(final byte[] buf, final int pos, final int len)
+			throws UnsupportedEncodingException {
+		return getTextCodec().decode(buf, pos, len);
+	}
+
 	/** Returns the specified length for the data to be parsed. */
 	public int getLength() {
 		return length;
@@ -74,21 +131,119 @@ public abstract class FieldParseInfo {
 	}
 
     public void setDecoder(CustomField<?> value) {
+        checkMutable();
         decoder = value;
     }
     public CustomField<?> getDecoder() {
          return decoder;
     }
 
+    /** Returns a parser with the same type, length and settings as this one that can't be
+     * modified (its setters throw UnsupportedOperationException), with the codec for its
+     * encoding already resolved, so it can be shared by any number of threads. The standard
+     * parsers are copied; instances of other classes can't be copied, so they are wrapped in
+     * a parser that delegates to them. This parser is left as it is, and a wrapped one must
+     * not be changed after this.
+     * @throws UnsupportedEncodingException if the character encoding is not supported. */
+    public FieldParseInfo immutableCopy() throws UnsupportedEncodingException {
+        if (immutable) {
+            return this;
+        }
+        FieldParseInfo copy = null;
+        try {
+            final FieldParseInfo std = getInstance(type, length, encoding);
+            if (std.getClass() == getClass()) {
+                copySettings(std);
+                copy = std;
+            }
+        } catch (IllegalArgumentException ex) {
+            //Not a standard type
+        }
+        if (copy == null) {
+            copy = new Delegate(this);
+        }
+        copy.getTextCodec();
+        copy.immutable = true;
+        return copy;
+    }
+
+    /** Returns true if this parser can't be modified. */
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    /** Copies the settings of this parser to another one of the same class. Subclasses with
+     * settings of their own must override this, calling the super method. */
+    protected void copySettings(FieldParseInfo target) {
+        target.forceStringDecoding = forceStringDecoding;
+        target.decoder = decoder;
+    }
+
+    /** Throws UnsupportedOperationException if the parser is immutable. Setters in subclasses
+     * must call this before changing anything. */
+    protected void checkMutable() {
+        if (immutable) {
+            throw new UnsupportedOperationException("Cannot modify an immutable FieldParseInfo");
+        }
+    }
+
 	/** Parses the character data from the buffer and returns the
 	 * IsoValue with the correct data type in it.
      * @param field The field index, useful for error reporting.
      * @param buf The full ISO message buffer.
      * @param pos The starting position for the field data.
      * @param custom A CustomField to decode the field. */
-	public abstract <T> IsoValue<?> parse(final int field, byte[] buf, int pos,
-                                      CustomField<T> custom)
-            throws ParseException, UnsupportedEncodingException;
+	public <T> IsoValue<?> parse(final int field, byte[] buf, int pos,
+                                 CustomField<T> custom)
+            throws ParseException, UnsupportedEncodingException {
+        return parse(field, buf, pos, buf.length, custom);
+    }
+
+	/** Parses the character data from the buffer and returns the
+	 * IsoValue with the correct data type in it. Data is never read at or beyond
+	 * the specified limit, so the message can be parsed in place from a larger buffer.
+     * @param field The field index, useful for error reporting.
+     * @param buf The buffer containing the ISO message.
+     * @param pos The starting position for the field data.
+     * @param limit The position where the message data ends (exclusive).
+     * @param custom A CustomField to decode the field. */
+	public <T> IsoValue<?> parse(final int field, byte[] buf, int pos, int limit,
+                                 CustomField<T> custom)
+            throws ParseException, UnsupportedEncodingException {
+        final FieldParseResult result = new FieldParseResult();
+        parse(field, buf, pos, limit, custom, result);
+        return result.getCheckedValue();
+    }
+
+	/** Parses the character data from the buffer, storing the resulting IsoValue and the
+	 * number of bytes that were consumed (including the length header) in the result.
+	 * Invalid data doesn't throw an exception; the error is recorded in the result instead.
+	 * The standard parsers override this method. By default it calls
+	 * {@link #parse(int, byte[], int, CustomField)}, so that subclasses which only override
+	 * that method keep working, and gets the number of bytes from
+	 * {@link #skip(int, byte[], int, int, FieldParseResult)}, which also checks that the field
+	 * ends before the limit, so the buffer is passed as it is. Subclasses must override one
+	 * of the parse methods, otherwise an UnsupportedOperationException is thrown.
+     * @param field The field index, useful for error reporting.
+     * @param buf The buffer containing the ISO message.
+     * @param pos The starting position for the field data.
+     * @param limit The position where the message data ends (exclusive).
+     * @param custom A CustomField to decode the field.
+     * @param result Where the value and its length in the buffer are stored. */
+	public <T> void parse(final int field, byte[] buf, int pos, int limit,
+                          CustomField<T> custom, FieldParseResult result)
+            throws UnsupportedEncodingException {
+        checkOverrides(TEXT_OVERRIDE, "parse");
+        final int size = skip(field, buf, pos, limit, result);
+        if (size < 0) {
+            return;
+        }
+        try {
+            result.set(parse(field, buf, pos, custom), size);
+        } catch (ParseException ex) {
+            result.fail(ParseError.INVALID_VALUE, type, field, pos);
+        }
+    }
 
 	/** Parses binary data from the buffer, creating and returning an IsoValue of the configured
 	 * type and length.
@@ -96,9 +251,66 @@ public abstract class FieldParseInfo {
      * @param buf The full ISO message buffer.
      * @param pos The starting position for the field data.
      * @param custom A CustomField to decode the field. */
-	public abstract <T> IsoValue<?> parseBinary(final int field, byte[] buf, int pos,
-                                            CustomField<T> custom)
-            throws ParseException, UnsupportedEncodingException;
+	public <T> IsoValue<?> parseBinary(final int field, byte[] buf, int pos,
+                                       CustomField<T> custom)
+            throws ParseException, UnsupportedEncodingException {
+        return parseBinary(field, buf, pos, buf.length, custom);
+    }
+
+	/** Parses binary data from the buffer, creating and returning an IsoValue of the configured
+	 * type and length. Data is never read at or beyond the specified limit.
+     * @param field The field index, useful for error reporting.
+     * @param buf The buffer containing the ISO message.
+     * @param pos The starting position for the field data.
+     * @param limit The position where the message data ends (exclusive).
+     * @param custom A CustomField to decode the field. */
+	public <T> IsoValue<?> parseBinary(final int field, byte[] buf, int pos, int limit,
+                                       CustomField<T> custom)
+            throws ParseException, UnsupportedEncodingException {
+        final FieldParseResult result = new FieldParseResult();
+        parseBinary(field, buf, pos, limit, custom, result);
+        return result.getCheckedValue();
+    }
+
+	/** Parses binary data from the buffer, storing the resulting IsoValue and the
+	 * number of bytes that were consumed (including the length header) in the result.
+	 * Invalid data doesn't throw an exception; the error is recorded in the result instead.
+	 * The standard parsers override this method. By default it calls
+	 * {@link #parseBinary(int, byte[], int, CustomField)}, so that subclasses which only
+	 * override that method keep working, and gets the number of bytes from
+	 * {@link #skipBinary(int, byte[], int, int, FieldParseResult)}, which also checks that the
+	 * field ends before the limit, so the buffer is passed as it is. Subclasses must override
+	 * one of the parseBinary methods, otherwise an UnsupportedOperationException is thrown.
+     * @param field The field index, useful for error reporting.
+     * @param buf The buffer containing the ISO message.
+     * @param pos The starting position for the field data.
+     * @param limit The position where the message data ends (exclusive).
+     * @param custom A CustomField to decode the field.
+     * @param result Where the value and its length in the buffer are stored. */
+	public <T> void parseBinary(final int field, byte[] buf, int pos, int limit,
+                                CustomField<T> custom, FieldParseResult result)
+            throws UnsupportedEncodingException {
+        checkOverrides(BINARY_OVERRIDE, "parseBinary");
+        final int size = skipBinary(field, buf, pos, limit, result);
+        if (size < 0) {
+            return;
+        }
+        try {
+            result.set(parseBinary(field, buf, pos, custom), size);
+        } catch (ParseException ex) {
+            result.fail(ParseError.INVALID_VALUE, type, field, pos);
+        }
+    }
+
+    /** Throws UnsupportedOperationException if the class doesn't override any of the methods
+     * with the specified name, which would otherwise call each other forever. */
+    private void checkOverrides(final int flag, final String name) {
+        if ((OVERRIDES.get(getClass()) & flag) == 0) {
+            throw new UnsupportedOperationException(String.format(
+                    "%s must override one of the %s methods of FieldParseInfo",
+                    getClass().getName(), name));
+        }
+    }
 
 	/** Returns a new FieldParseInfo instance that can parse the specified type. */
 	public static FieldParseInfo getInstance(IsoType t, int len, String encoding) {
@@ -141,9 +353,233 @@ public abstract class FieldParseInfo {
 		return fpi;
 	}
 
+	/** Returns the number of bytes the field takes in a text message, including its length
+	 * header, without decoding its value. Variable-length fields only have their length
+	 * header read.
+     * @param field The field index, useful for error reporting.
+     * @param buf The buffer containing the ISO message.
+     * @param pos The starting position for the field data.
+     * @param limit The position where the message data ends (exclusive). */
+	public int skip(final int field, final byte[] buf, final int pos, final int limit)
+			throws ParseException, UnsupportedEncodingException {
+		final FieldParseResult result = new FieldParseResult();
+		final int size = skip(field, buf, pos, limit, result);
+		if (size < 0) {
+			throw result.toParseException();
+		}
+		return size;
+	}
+
+	/** Returns the number of bytes the field takes in a text message, including its length
+	 * header, without decoding its value, or -1 if the data is invalid, in which case
+	 * the error is recorded in the result. */
+	public int skip(final int field, final byte[] buf, final int pos, final int limit,
+					final FieldParseResult result) throws UnsupportedEncodingException {
+		if (pos < 0) {
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return -1;
+		}
+		final int size;
+		switch (type) {
+			case NUMERIC:
+			case ALPHA:
+				size = textLength(buf, pos, limit, length);
+				break;
+			case BINARY:
+				size = length * 2;
+				break;
+			case LLVAR:
+			case LLLVAR:
+			case LLLLVAR:
+			case LLBIN:
+			case LLLBIN:
+			case LLLLBIN:
+				final int digits = type == IsoType.LLVAR || type == IsoType.LLBIN ? 2
+						: type == IsoType.LLLVAR || type == IsoType.LLLBIN ? 3 : 4;
+				if (pos + digits > limit) {
+					result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+					return -1;
+				}
+				final int len = decodeLength(buf, pos, digits);
+				if (len < 0) {
+					result.fail(ParseError.INVALID_LENGTH, type, field, pos, len);
+					return -1;
+				}
+				size = digits + (type == IsoType.LLVAR || type == IsoType.LLLVAR
+						|| type == IsoType.LLLLVAR ? textLength(buf, pos + digits, limit, len) : len);
+				break;
+			default:
+				size = type.getLength();
+		}
+		if (pos + size > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return -1;
+		}
+		return size;
+	}
+
+	/** Returns the number of bytes of the length header of the field in a text or binary
+	 * message, or zero if the field has a fixed length. */
+	public int getLengthHeaderSize(final boolean binary) {
+		switch (type) {
+			case LLVAR:
+			case LLBIN:
+				return binary ? 1 : 2;
+			case LLLVAR:
+			case LLLBIN:
+				return binary ? 2 : 3;
+			case LLLLVAR:
+			case LLLLBIN:
+				return binary ? 2 : 4;
+			default:
+				return 0;
+		}
+	}
+
+	/** Returns the number of bytes the field takes in a binary message, including its length
+	 * header, without decoding its value.
+     * @param field The field index, useful for error reporting.
+     * @param buf The buffer containing the ISO message.
+     * @param pos The starting position for the field data.
+     * @param limit The position where the message data ends (exclusive). */
+	public int skipBinary(final int field, final byte[] buf, final int pos, final int limit)
+			throws ParseException {
+		final FieldParseResult result = new FieldParseResult();
+		final int size = skipBinary(field, buf, pos, limit, result);
+		if (size < 0) {
+			throw result.toParseException();
+		}
+		return size;
+	}
+
+	/** Returns the number of bytes the field takes in a binary message, including its length
+	 * header, without decoding its value, or -1 if the data is invalid, in which case
+	 * the error is recorded in the result. */
+	public int skipBinary(final int field, final byte[] buf, final int pos, final int limit,
+						  final FieldParseResult result) {
+		if (pos < 0) {
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return -1;
+		}
+		final int size;
+		switch (type) {
+			case NUMERIC:
+				size = (length + 1) / 2;
+				break;
+			case ALPHA:
+			case BINARY:
+				size = length;
+				break;
+			case LLVAR:
+			case LLBIN:
+				if (pos + 1 > limit) {
+					result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+					return -1;
+				}
+				size = 1 + (((buf[pos] & 0xf0) >> 4) * 10) + (buf[pos] & 0x0f);
+				break;
+			case LLLVAR:
+			case LLLBIN:
+			case LLLLVAR:
+			case LLLLBIN:
+				if (pos + 2 > limit) {
+					result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+					return -1;
+				}
+				final int thousands = type == IsoType.LLLLVAR || type == IsoType.LLLLBIN ?
+						((buf[pos] & 0xf0) >> 4) * 1000 : 0;
+				size = 2 + thousands + ((buf[pos] & 0x0f) * 100)
+						+ (((buf[pos + 1] & 0xf0) >> 4) * 10) + (buf[pos + 1] & 0x0f);
+				break;
+			default:
+				//Dates, times and amounts are BCD-encoded
+				size = type.getLength() / 2;
+		}
+		if (pos + size > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return -1;
+		}
+		return size;
+	}
+
+	/** Returns the number of bytes taken by the specified number of characters in the buffer,
+	 * according to the character encoding. Only UTF-8 and single-byte encodings are walked
+	 * directly; other encodings are decoded. If the data is insufficient, the returned value
+	 * goes beyond the limit. */
+	protected int textLength(final byte[] buf, final int pos, final int limit, final int chars)
+			throws UnsupportedEncodingException {
+		final TextCodec tc = getTextCodec();
+		if (tc.isSingleByte()) {
+			return chars;
+		} else if (tc.isUtf8()) {
+			int i = pos;
+			int n = 0;
+			while (n < chars) {
+				if (i >= limit) {
+					return limit - pos + 1;
+				}
+				final int b = buf[i] & 0xff;
+				if (b < 0xc0) {
+					i++;
+					n++;
+				} else if (b < 0xe0) {
+					i += 2;
+					n++;
+				} else if (b < 0xf0) {
+					i += 3;
+					n++;
+				} else {
+					//Supplementary characters are two chars in a String
+					i += 4;
+					n += 2;
+				}
+			}
+			return i - pos;
+		}
+		final String s = tc.decode(buf, pos, limit - pos);
+		if (s.length() < chars) {
+			return limit - pos + 1;
+		}
+		return tc.encodedLength(s.substring(0, chars));
+	}
+
+    /** Decodes a number of decimal digits from the buffer, using the character encoding if
+     * forceStringDecoding is set. Returns -1 if there is anything other than digits. */
+    protected int decodeDigits(byte[] buf, int pos, int digits) throws UnsupportedEncodingException {
+        int v = 0;
+        if (forceStringDecoding && getTextCodec().hasAsciiTable()) {
+            //Single-byte encodings such as EBCDIC are translated with a table
+            final TextCodec tc = getTextCodec();
+            for (int i = pos; i < pos + digits; i++) {
+                final int d = tc.digit(buf[i]);
+                if (d < 0) {
+                    return -1;
+                }
+                v = (v * 10) + d;
+            }
+        } else if (forceStringDecoding) {
+            final String s = decode(buf, pos, digits);
+            for (int i = 0; i < s.length(); i++) {
+                final char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                v = (v * 10) + (c - '0');
+            }
+        } else {
+            for (int i = pos; i < pos + digits; i++) {
+                if (buf[i] < '0' || buf[i] > '9') {
+                    return -1;
+                }
+                v = (v * 10) + (buf[i] - '0');
+            }
+        }
+        return v;
+    }
+
     protected int decodeLength(byte[] buf, int pos, int digits) throws UnsupportedEncodingException {
         if (forceStringDecoding) {
-            return Integer.parseInt(new String(buf, pos, digits, encoding), 10);
+            return decodeDigits(buf, pos, digits);
         } else {
             switch(digits) {
                 case 2:
@@ -159,4 +595,47 @@ public abstract class FieldParseInfo {
         return -1;
     }
 
+    /** Immutable view of a parser that can't be copied; all the parsing is done by it. */
+    private static final class Delegate extends FieldParseInfo {
+        private final FieldParseInfo target;
+
+        private Delegate(FieldParseInfo target) {
+            super(target.type, target.length);
+            this.target = target;
+            super.encoding = target.encoding;
+            super.forceStringDecoding = target.forceStringDecoding;
+            super.decoder = target.decoder;
+        }
+
+        @Override
+        public <T> void parse(int field, byte[] buf, int pos, int limit,
+                              CustomField<T> custom, FieldParseResult result)
+                throws UnsupportedEncodingException {
+            target.parse(field, buf, pos, limit, custom, result);
+        }
+
+        @Override
+        public <T> void parseBinary(int field, byte[] buf, int pos, int limit,
+                                    CustomField<T> custom, FieldParseResult result)
+                throws UnsupportedEncodingException {
+            target.parseBinary(field, buf, pos, limit, custom, result);
+        }
+
+        @Override
+        public int skip(int field, byte[] buf, int pos, int limit, FieldParseResult result)
+                throws UnsupportedEncodingException {
+            return target.skip(field, buf, pos, limit, result);
+        }
+
+        @Override
+        public int skipBinary(int field, byte[] buf, int pos, int limit, FieldParseResult result) {
+            return target.skipBinary(field, buf, pos, limit, result);
+        }
+
+        @Override
+        public int getLengthHeaderSize(boolean binary) {
+            return target.getLengthHeaderSize(binary);
+        }
+    }
+
 }
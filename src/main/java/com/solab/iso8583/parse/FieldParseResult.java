@@ -0,0 +1,123 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583.parse;
+
+import java.text.ParseException;
+
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.IsoValue;
+
+/** Holds the outcome of parsing a single field: either the value that was read and the number
+ * of bytes it took in the buffer, including its length header if it has one, or the reason
+ * the field couldn't be parsed. No exception or error message is created when a field fails;
+ * callers can ask for them with {@link #toParseException()} and {@link #getErrorMessage()}.
+ * Instances are meant to be reused by the caller for every field of a message, so they
+ * are not thread-safe.
+ */
+public final class FieldParseResult {
+
+    private IsoValue<?> value;
+    private int length;
+    private ParseError error;
+    private IsoType type;
+    private int field;
+    private int offset;
+    private int detail;
+
+    /** Stores the parsed value and the number of bytes it was read from. */
+    public void set(IsoValue<?> value, int length) {
+        this.value = value;
+        this.length = length;
+        error = null;
+    }
+
+    /** Records an error for the field. */
+    public void fail(ParseError error, IsoType type, int field, int offset) {
+        fail(error, type, field, offset, 0);
+    }
+
+    /** Records an error for the field, with a detail that depends on the error
+     * (see {@link ParseError#describe(IsoType, int, int, int)}). */
+    public void fail(ParseError error, IsoType type, int field, int offset, int detail) {
+        this.error = error;
+        this.type = type;
+        this.field = field;
+        this.offset = offset;
+        this.detail = detail;
+        value = null;
+        length = 0;
+    }
+
+    /** Returns the value that was parsed, or null if the field failed. */
+    @SuppressWarnings("unchecked")
+    public <T> IsoValue<T> getValue() {
+        return (IsoValue<T>)value;
+    }
+
+    /** Returns the value that was parsed, throwing a ParseException if the field failed. */
+    public <T> IsoValue<T> getCheckedValue() throws ParseException {
+        if (error != null) {
+            throw toParseException();
+        }
+        return getValue();
+    }
+
+    /** Returns the number of bytes consumed from the buffer, including the length header
+     * for variable-length fields. */
+    public int getLength() {
+        return length;
+    }
+
+    /** Returns true if the last field could not be parsed. */
+    public boolean isError() {
+        return error != null;
+    }
+
+    /** Returns the error for the last field, or null if it was parsed. */
+    public ParseError getError() {
+        return error;
+    }
+    /** Returns the type of the field that failed. */
+    public IsoType getType() {
+        return type;
+    }
+    /** Returns the number of the field that failed. */
+    public int getField() {
+        return field;
+    }
+    /** Returns the position in the buffer where the error was found. */
+    public int getOffset() {
+        return offset;
+    }
+    /** Returns the detail of the error, such as the invalid length. */
+    public int getDetail() {
+        return detail;
+    }
+
+    /** Formats and returns the error message, or null if there is no error. */
+    public String getErrorMessage() {
+        return error == null ? null : error.describe(type, field, offset, detail);
+    }
+
+    /** Creates a ParseException for the error. */
+    public ParseException toParseException() {
+        return new ParseException(getErrorMessage(), offset);
+    }
+
+}
@@ -19,7 +19,6 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.solab.iso8583.parse;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
 
 import com.solab.iso8583.CustomBinaryField;
 import com.solab.iso8583.CustomField;
@@ -39,91 +38,73 @@ public class LlbinParseInfo extends FieldParseInfo {
 	}
 
 	@Override
-	public <T> IsoValue<?> parse(final int field, final byte[] buf,
-                             final int pos, final CustomField<T> custom)
-            throws ParseException, UnsupportedEncodingException {
+	public <T> void parse(final int field, final byte[] buf,
+                             final int pos, final int limit, final CustomField<T> custom,
+                             final FieldParseResult result)
+            throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid LLBIN field %d position %d",
-                    field, pos), pos);
-		} else if (pos+2 > buf.length) {
-			throw new ParseException(String.format("Insufficient LLBIN header field %d",
-                    field), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+2 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		final int len = decodeLength(buf, pos, 2);
 		if (len < 0) {
-			throw new ParseException(String.format("Invalid LLBIN field %d length %d pos %d",
-                    field, len, pos), pos);
+			result.fail(ParseError.INVALID_LENGTH, type, field, pos, len);
+			return;
 		}
-		if (len+pos+2 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for LLBIN field %d, pos %d (LEN states '%s')",
-                    field, pos, new String(buf, pos, 2)), pos);
+		if (len+pos+2 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		byte[] binval = len == 0 ? new byte[0] : HexCodec.hexDecode(
                 new String(buf, pos + 2, len));
 		if (custom == null) {
-			return new IsoValue<>(type, binval, binval.length, null);
+			result.set(new IsoValue<>(type, binval, binval.length, null), len+2);
         } else if (custom instanceof CustomBinaryField) {
-            try {
-                T dec = ((CustomBinaryField<T>)custom).decodeBinaryField(buf, pos + 2, len);
-                return dec == null ? new IsoValue<>(type, binval, binval.length, null) :
-                        new IsoValue<>(type, dec, 0, custom);
-            } catch (IndexOutOfBoundsException ex) {
-                throw new ParseException(String.format(
-                        "Insufficient data for LLBIN field %d, pos %d (LEN states '%s')",
-                        field, pos, new String(buf, pos, 2)), pos);
-            }
+            T dec = ((CustomBinaryField<T>)custom).decodeBinaryField(buf, pos + 2, len);
+            result.set(dec == null ? new IsoValue<>(type, binval, binval.length, null) :
+                    new IsoValue<>(type, dec, 0, custom), len+2);
 		} else {
-            try {
-                T dec = custom.decodeField(new String(buf, pos + 2, len));
-                return dec == null ? new IsoValue<>(type, binval, binval.length, null) :
-                        new IsoValue<>(type, dec, binval.length, custom);
-            } catch (IndexOutOfBoundsException ex) {
-                throw new ParseException(String.format(
-                        "Insufficient data for LLBIN field %d, pos %d (LEN states '%s')",
-                        field, pos, new String(buf, pos, 2)), pos);
-            }
+            T dec = custom.decodeField(new String(buf, pos + 2, len));
+            result.set(dec == null ? new IsoValue<>(type, binval, binval.length, null) :
+                    new IsoValue<>(type, dec, binval.length, custom), len+2);
 		}
 	}
 
 	@Override
-	public <T> IsoValue<?> parseBinary(final int field, final byte[] buf,
-                                   final int pos, final CustomField<T> custom)
-            throws ParseException {
+	public <T> void parseBinary(final int field, final byte[] buf,
+                                   final int pos, final int limit, final CustomField<T> custom,
+                                   final FieldParseResult result) {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid bin LLBIN field %d position %d",
-                    field, pos), pos);
-		} else if (pos+1 > buf.length) {
-			throw new ParseException(String.format("Insufficient bin LLBIN header field %d",
-                    field), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+1 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		final int l = (((buf[pos] & 0xf0) >> 4) * 10) + (buf[pos] & 0x0f);
 		if (l < 0) {
-			throw new ParseException(String.format("Invalid bin LLBIN length %d pos %d", l, pos), pos);
+			result.fail(ParseError.INVALID_LENGTH, type, field, pos, l);
+			return;
 		}
-		if (l+pos+1 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for bin LLBIN field %d, pos %d: need %d, only %d available",
-                    field, pos, l, buf.length), pos);
+		if (l+pos+1 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		byte[] _v = new byte[l];
 		System.arraycopy(buf, pos+1, _v, 0, l);
 		if (custom == null) {
-			return new IsoValue<>(type, _v, null);
+			result.set(new IsoValue<>(type, _v, null), l+1);
         } else if (custom instanceof CustomBinaryField) {
-            try {
-                T dec = ((CustomBinaryField<T>)custom).decodeBinaryField(buf, pos + 1, l);
-                return dec == null ? new IsoValue<>(type, _v, _v.length, null) :
-                        new IsoValue<>(type, dec, l, custom);
-            } catch (IndexOutOfBoundsException ex) {
-                throw new ParseException(String.format(
-                        "Insufficient data for LLBIN field %d, pos %d length %d",
-                        field, pos, l), pos);
-            }
+            T dec = ((CustomBinaryField<T>)custom).decodeBinaryField(buf, pos + 1, l);
+            result.set(dec == null ? new IsoValue<>(type, _v, _v.length, null) :
+                    new IsoValue<>(type, dec, l, custom), l+1);
 		} else {
             T dec = custom.decodeField(HexCodec.hexEncode(_v, 0, _v.length));
-            return dec == null ? new IsoValue<>(type, _v, null) :
-                    new IsoValue<>(type, dec, custom);
+            result.set(dec == null ? new IsoValue<>(type, _v, null) :
+                    new IsoValue<>(type, dec, custom), l+1);
 		}
 	}
 
@@ -19,7 +19,6 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.solab.iso8583.parse;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
 
 import com.solab.iso8583.CustomBinaryField;
 import com.solab.iso8583.CustomField;
@@ -39,89 +38,74 @@ public class LllbinParseInfo extends FieldParseInfo {
 	}
 
 	@Override
-	public <T> IsoValue<?> parse(final int field, final byte[] buf,
-                             final int pos, final CustomField<T> custom)
-            throws ParseException, UnsupportedEncodingException {
+	public <T> void parse(final int field, final byte[] buf,
+                             final int pos, final int limit, final CustomField<T> custom,
+                             final FieldParseResult result)
+            throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid LLLBIN field %d pos %d",
-                    field, pos), pos);
-		} else if (pos+3 > buf.length) {
-			throw new ParseException(String.format("Insufficient LLLBIN header field %d",
-                    field), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+3 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		final int l = decodeLength(buf, pos, 3);
 		if (l < 0) {
-			throw new ParseException(String.format("Invalid LLLBIN length %d field %d pos %d",
-                    l, field, pos), pos);
-		} else if (l+pos+3 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for LLLBIN field %d, pos %d", field, pos), pos);
+			result.fail(ParseError.INVALID_LENGTH, type, field, pos, l);
+			return;
+		} else if (l+pos+3 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		byte[] binval = l == 0 ? new byte[0] : HexCodec.hexDecode(new String(buf, pos + 3, l));
 		if (custom == null) {
-			return new IsoValue<>(type, binval, binval.length, null);
+			result.set(new IsoValue<>(type, binval, binval.length, null), l+3);
         } else if (custom instanceof CustomBinaryField) {
-            try {
-                T dec = ((CustomBinaryField<T>)custom).decodeBinaryField(
-                    buf, pos + 3, l);
-                return dec == null ? new IsoValue<>(type, binval, binval.length, null) :
-                        new IsoValue<>(type, dec, 0, custom);
-            } catch (IndexOutOfBoundsException ex) {
-                throw new ParseException(String.format(
-                        "Insufficient data for LLLBIN field %d, pos %d", field, pos), pos);
-            }
+            T dec = ((CustomBinaryField<T>)custom).decodeBinaryField(
+                buf, pos + 3, l);
+            result.set(dec == null ? new IsoValue<>(type, binval, binval.length, null) :
+                    new IsoValue<>(type, dec, 0, custom), l+3);
 		} else {
-            try {
-                T dec = custom.decodeField(
-                    l == 0 ? "" : new String(buf, pos + 3, l));
-                return dec == null ? new IsoValue<>(type, binval, binval.length, null) :
-                        new IsoValue<>(type, dec, l, custom);
-            } catch (IndexOutOfBoundsException ex) {
-                throw new ParseException(String.format(
-                        "Insufficient data for LLLBIN field %d, pos %d", field, pos), pos);
-            }
+            T dec = custom.decodeField(
+                l == 0 ? "" : new String(buf, pos + 3, l));
+            result.set(dec == null ? new IsoValue<>(type, binval, binval.length, null) :
+                    new IsoValue<>(type, dec, l, custom), l+3);
 		}
 	}
 
 	@Override
-	public <T> IsoValue<?> parseBinary(final int field, final byte[] buf,
-                                   final int pos, final CustomField<T> custom)
-            throws ParseException {
+	public <T> void parseBinary(final int field, final byte[] buf,
+                                   final int pos, final int limit, final CustomField<T> custom,
+                                   final FieldParseResult result) {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid bin LLLBIN field %d pos %d",
-                    field, pos), pos);
-		} else if (pos+2 > buf.length) {
-            throw new ParseException(String.format("Insufficient LLLBIN header field %d",
-                             field), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+2 > limit) {
+            result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+            return;
 		}
 		final int l = ((buf[pos] & 0x0f) * 100) + (((buf[pos + 1] & 0xf0) >> 4) * 10) + (buf[pos + 1] & 0x0f);
 		if (l < 0) {
-            throw new ParseException(String.format("Invalid LLLBIN length %d field %d pos %d",
-                             l, field, pos), pos);
+            result.fail(ParseError.INVALID_LENGTH, type, field, pos, l);
+            return;
 		}
-		if (l+pos+2 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for bin LLLBIN field %d, pos %d requires %d, only %d available",
-                    field, pos, l, buf.length-pos+1), pos);
+		if (l+pos+2 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		byte[] _v = new byte[l];
 		System.arraycopy(buf, pos+2, _v, 0, l);
 		if (custom == null) {
-			return new IsoValue<>(type, _v, null);
+			result.set(new IsoValue<>(type, _v, null), l+2);
         } else if (custom instanceof CustomBinaryField) {
-            try {
-                T dec = ((CustomBinaryField<T>)custom).decodeBinaryField(
-                    buf, pos + 2, l);
-                return dec == null ? new IsoValue<>(type, _v, _v.length, null) :
-                        new IsoValue<>(type, dec, l, custom);
-            } catch (IndexOutOfBoundsException ex) {
-                throw new ParseException(String.format(
-                        "Insufficient data for LLLBIN field %d, pos %d", field, pos), pos);
-            }
+            T dec = ((CustomBinaryField<T>)custom).decodeBinaryField(
+                buf, pos + 2, l);
+            result.set(dec == null ? new IsoValue<>(type, _v, _v.length, null) :
+                    new IsoValue<>(type, dec, l, custom), l+2);
 		} else {
             T dec = custom.decodeField(HexCodec.hexEncode(_v, 0, _v.length));
-            return dec == null ? new IsoValue<>(type, _v, null) :
-                    new IsoValue<>(type, dec, custom);
+            result.set(dec == null ? new IsoValue<>(type, _v, null) :
+                    new IsoValue<>(type, dec, custom), l+2);
 		}
 	}
 
@@ -7,7 +7,6 @@ import com.solab.iso8583.IsoValue;
 import com.solab.iso8583.util.HexCodec;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
 
 /**
  * Blabla.
@@ -23,90 +22,75 @@ public class LlllbinParseInfo  extends FieldParseInfo {
 	}
 
 	@Override
-	public <T> IsoValue<?> parse(final int field, final byte[] buf,
-                             final int pos, final CustomField<T> custom)
-            throws ParseException, UnsupportedEncodingException {
+	public <T> void parse(final int field, final byte[] buf,
+                             final int pos, final int limit, final CustomField<T> custom,
+                             final FieldParseResult result)
+            throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid LLLLBIN field %d pos %d",
-                    field, pos), pos);
-		} else if (pos+4 > buf.length) {
-			throw new ParseException(String.format("Insufficient LLLLBIN header field %d",
-                    field), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+4 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		final int l = decodeLength(buf, pos, 4);
 		if (l < 0) {
-			throw new ParseException(String.format("Invalid LLLLBIN length %d field %d pos %d",
-                    l, field, pos), pos);
-		} else if (l+pos+4 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for LLLLBIN field %d, pos %d", field, pos), pos);
+			result.fail(ParseError.INVALID_LENGTH, type, field, pos, l);
+			return;
+		} else if (l+pos+4 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		byte[] binval = l == 0 ? new byte[0] : HexCodec.hexDecode(new String(buf, pos + 4, l));
 		if (custom == null) {
-			return new IsoValue<>(type, binval, binval.length, null);
+			result.set(new IsoValue<>(type, binval, binval.length, null), l+4);
         } else if (custom instanceof CustomBinaryField) {
-            try {
-                T dec = ((CustomBinaryField<T>)custom).decodeBinaryField(
-                    buf, pos + 4, l);
-                return dec == null ? new IsoValue<>(type, binval, binval.length, null) :
-                        new IsoValue<>(type, dec, 0, custom);
-            } catch (IndexOutOfBoundsException ex) {
-                throw new ParseException(String.format(
-                        "Insufficient data for LLLLBIN field %d, pos %d", field, pos), pos);
-            }
+            T dec = ((CustomBinaryField<T>)custom).decodeBinaryField(
+                buf, pos + 4, l);
+            result.set(dec == null ? new IsoValue<>(type, binval, binval.length, null) :
+                    new IsoValue<>(type, dec, 0, custom), l+4);
 		} else {
-            try {
-                T dec = custom.decodeField(
-                    l == 0 ? "" : new String(buf, pos + 4, l));
-                return dec == null ? new IsoValue<>(type, binval, binval.length, null) :
-                        new IsoValue<>(type, dec, l, custom);
-            } catch (IndexOutOfBoundsException ex) {
-                throw new ParseException(String.format(
-                        "Insufficient data for LLLLBIN field %d, pos %d", field, pos), pos);
-            }
+            T dec = custom.decodeField(
+                l == 0 ? "" : new String(buf, pos + 4, l));
+            result.set(dec == null ? new IsoValue<>(type, binval, binval.length, null) :
+                    new IsoValue<>(type, dec, l, custom), l+4);
 		}
 	}
 
 	@Override
-	public <T> IsoValue<?> parseBinary(final int field, final byte[] buf,
-                                   final int pos, final CustomField<T> custom)
-            throws ParseException {
+	public <T> void parseBinary(final int field, final byte[] buf,
+                                   final int pos, final int limit, final CustomField<T> custom,
+                                   final FieldParseResult result) {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid bin LLLLBIN field %d pos %d",
-                    field, pos), pos);
-		} else if (pos+2 > buf.length) {
-            throw new ParseException(String.format("Insufficient LLLLBIN header field %d",
-                             field), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+2 > limit) {
+            result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+            return;
 		}
-		final int l = ((buf[pos] & 0xf0) * 1000) + ((buf[pos] & 0x0f) * 100)
+		final int l = (((buf[pos] & 0xf0) >> 4) * 1000) + ((buf[pos] & 0x0f) * 100)
                 + (((buf[pos + 1] & 0xf0) >> 4) * 10) + (buf[pos + 1] & 0x0f);
 		if (l < 0) {
-            throw new ParseException(String.format("Invalid LLLLBIN length %d field %d pos %d",
-                             l, field, pos), pos);
+            result.fail(ParseError.INVALID_LENGTH, type, field, pos, l);
+            return;
 		}
-		if (l+pos+2 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for bin LLLLBIN field %d, pos %d requires %d, only %d available",
-                    field, pos, l, buf.length-pos+1), pos);
+		if (l+pos+2 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		byte[] _v = new byte[l];
 		System.arraycopy(buf, pos+2, _v, 0, l);
 		if (custom == null) {
-			return new IsoValue<>(type, _v, null);
+			result.set(new IsoValue<>(type, _v, null), l+2);
         } else if (custom instanceof CustomBinaryField) {
-            try {
-                T dec = ((CustomBinaryField<T>)custom).decodeBinaryField(
-                    buf, pos + 2, l);
-                return dec == null ? new IsoValue<>(type, _v, _v.length, null) :
-                        new IsoValue<T>(type, dec, l, custom);
-            } catch (IndexOutOfBoundsException ex) {
-                throw new ParseException(String.format(
-                        "Insufficient data for LLLLBIN field %d, pos %d", field, pos), pos);
-            }
+            T dec = ((CustomBinaryField<T>)custom).decodeBinaryField(
+                buf, pos + 2, l);
+            result.set(dec == null ? new IsoValue<>(type, _v, _v.length, null) :
+                    new IsoValue<T>(type, dec, l, custom), l+2);
 		} else {
             T dec = custom.decodeField(HexCodec.hexEncode(_v, 0, _v.length));
-            return dec == null ? new IsoValue<>(type, _v, null) :
-                    new IsoValue<>(type, dec, custom);
+            result.set(dec == null ? new IsoValue<>(type, _v, null) :
+                    new IsoValue<>(type, dec, custom), l+2);
 		}
 	}
 }
@@ -5,7 +5,6 @@ import com.solab.iso8583.IsoType;
 import com.solab.iso8583.IsoValue;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
 
 /**
  * Blabla.
@@ -20,78 +19,78 @@ public class LlllvarParseInfo  extends FieldParseInfo {
 	}
 
     @Override
-	public <T> IsoValue<?> parse(final int field, final byte[] buf,
-                             final int pos, final CustomField<T> custom)
-			throws ParseException, UnsupportedEncodingException {
+	public <T> void parse(final int field, final byte[] buf,
+                             final int pos, final int limit, final CustomField<T> custom,
+                             final FieldParseResult result)
+			throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format(
-					"Invalid LLLLVAR field %d %d", field, pos), pos);
-		} else if (pos+4 > buf.length) {
-			throw new ParseException(String.format(
-					"Insufficient data for LLLLVAR header, pos %d", pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+4 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		final int len = decodeLength(buf, pos, 4);
 		if (len < 0) {
-			throw new ParseException(String.format(
-                    "Invalid LLLLVAR length %d, field %d pos %d", len, field, pos), pos);
-		} else if (len+pos+4 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for LLLLVAR field %d, pos %d", field, pos), pos);
+			result.fail(ParseError.INVALID_LENGTH, type, field, pos, len);
+			return;
+		} else if (len+pos+4 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
-		String _v;
-        try {
-            _v = len == 0 ? "" : new String(buf, pos + 4, len, getCharacterEncoding());
-        } catch (IndexOutOfBoundsException ex) {
-            throw new ParseException(String.format(
-                    "Insufficient data for LLLLVAR header, field %d pos %d", field, pos), pos);
-        }
+		String _v = len == 0 ? "" : decode(buf, pos + 4, len);
 		//This is new: if the String's length is different from the specified
 		// length in the buffer, there are probably some extended characters.
 		// So we create a String from the rest of the buffer, and then cut it to
 		// the specified length.
+		int dataLength = len;
 		if (_v.length() != len) {
-			_v = new String(buf, pos + 4, buf.length-pos-4,
-					getCharacterEncoding()).substring(0, len);
+			_v = decode(buf, pos + 4, limit-pos-4);
+			if (_v.length() < len) {
+				result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+				return;
+			}
+			_v = _v.substring(0, len);
+			dataLength = getTextCodec().encodedLength(_v);
 		}
 		if (custom == null) {
-			return new IsoValue<>(type, _v, len, null);
+			result.set(new IsoValue<>(type, _v, len, null), dataLength+4);
 		} else {
             T dec = custom.decodeField(_v);
-            return dec == null ? new IsoValue<>(type, _v, len, null) :
-                    new IsoValue<>(type, dec, len, custom);
+            result.set(dec == null ? new IsoValue<>(type, _v, len, null) :
+                    new IsoValue<>(type, dec, len, custom), dataLength+4);
 		}
 	}
 
     @Override
-	public <T> IsoValue<?> parseBinary(final int field, final byte[] buf,
-                                   final int pos, final CustomField<T> custom)
-			throws ParseException, UnsupportedEncodingException {
+	public <T> void parseBinary(final int field, final byte[] buf,
+                                   final int pos, final int limit, final CustomField<T> custom,
+                                   final FieldParseResult result)
+			throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid bin LLLLVAR field %d pos %d",
-                    field, pos), pos);
-		} else if (pos+2 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for bin LLLLVAR header, field %d pos %d",
-					field, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+2 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
         final int len = (((buf[pos] & 0xf0) >> 4) * 1000) + ((buf[pos] & 0x0f) * 100)
                 + (((buf[pos + 1] & 0xf0) >> 4) * 10) + (buf[pos + 1] & 0x0f);
 		if (len < 0) {
-			throw new ParseException(String.format(
-                    "Invalid bin LLLLVAR length %d, field %d pos %d", len, field, pos), pos);
+			result.fail(ParseError.INVALID_LENGTH, type, field, pos, len);
+			return;
 		}
-		if (len+pos+2 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for bin LLLLVAR field %d, pos %d", field, pos), pos);
+		if (len+pos+2 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		if (custom == null) {
-			return new IsoValue<>(type, new String(buf, pos + 2, len,
-					getCharacterEncoding()), null);
+			result.set(new IsoValue<>(type, decode(buf, pos + 2, len), null), len+2);
 		} else {
-            T dec = custom.decodeField(new String(buf, pos + 2, len, getCharacterEncoding()));
-            return dec == null ? new IsoValue<>(type,
-					new String(buf, pos + 2, len, getCharacterEncoding()), null) :
-                    new IsoValue<>(type, dec, custom);
+            T dec = custom.decodeField(decode(buf, pos + 2, len));
+            result.set(dec == null ? new IsoValue<>(type,
+					decode(buf, pos + 2, len), null) :
+                    new IsoValue<>(type, dec, custom), len+2);
 		}
 	}
 
@@ -19,7 +19,6 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.solab.iso8583.parse;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
 
 import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
@@ -36,75 +35,79 @@ public class LllvarParseInfo extends FieldParseInfo {
 		super(IsoType.LLLVAR, 0);
 	}
 
-	public <T> IsoValue<?> parse(final int field, final byte[] buf,
-                             final int pos, final CustomField<T> custom)
-	throws ParseException, UnsupportedEncodingException {
+	public <T> void parse(final int field, final byte[] buf,
+                             final int pos, final int limit, final CustomField<T> custom,
+                             final FieldParseResult result)
+	throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid LLLVAR field %d pos %d",
-                    field, pos), pos);
-		} else if (pos+3 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for LLLVAR header field %d pos %d", field, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+3 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
         final int len = decodeLength(buf, pos, 3);
 		if (len < 0) {
-			throw new ParseException(String.format("Invalid LLLVAR length %d field %d pos %d",
-					len, field, pos), pos);
-		} else if (len+pos+3 > buf.length) {
-			throw new ParseException(String.format("Insufficient data for LLLVAR field %d, pos %d",
-                    field, pos), pos);
+			result.fail(ParseError.INVALID_LENGTH, type, field, pos, len);
+			return;
+		} else if (len+pos+3 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
-		String _v;
-        try {
-            _v = len == 0 ? "" : new String(buf, pos + 3, len, getCharacterEncoding());
-        } catch (IndexOutOfBoundsException ex) {
-            throw new ParseException(String.format(
-                    "Insufficient data for LLLVAR header, field %d pos %d", field, pos), pos);
-        }
+		String _v = len == 0 ? "" : decode(buf, pos + 3, len);
 		//This is new: if the String's length is different from the specified length in the
 		//buffer, there are probably some extended characters. So we create a String from
 		//the rest of the buffer, and then cut it to the specified length.
+		int dataLength = len;
 		if (_v.length() != len) {
-			_v = new String(buf, pos + 3, buf.length-pos-3,
-					getCharacterEncoding()).substring(0, len);
+			_v = decode(buf, pos + 3, limit-pos-3);
+			if (_v.length() < len) {
+				result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+				return;
+			}
+			_v = _v.substring(0, len);
+			dataLength = getTextCodec().encodedLength(_v);
 		}
 		if (custom == null) {
-			return new IsoValue<>(type, _v, len, null);
+			result.set(new IsoValue<>(type, _v, len, null), dataLength+3);
 		} else {
 			T decoded = custom.decodeField(_v);
 			//If decode fails, return string; otherwise use the decoded object and its codec
-            return decoded == null ? new IsoValue<>(type, _v, len, null) :
-                new IsoValue<>(type, decoded, len, custom);
+            result.set(decoded == null ? new IsoValue<>(type, _v, len, null) :
+                new IsoValue<>(type, decoded, len, custom), dataLength+3);
 		}
 	}
 
-	public <T> IsoValue<?> parseBinary(final int field, final byte[] buf,
-                                   final int pos, final CustomField<T> custom)
-			throws ParseException, UnsupportedEncodingException {
+	public <T> void parseBinary(final int field, final byte[] buf,
+                                   final int pos, final int limit, final CustomField<T> custom,
+                                   final FieldParseResult result)
+			throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid bin LLLVAR field %d pos %d", field, pos), pos);
-		} else if (pos+2 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for bin LLLVAR header, field %d pos %d", field, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+2 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		final int len = ((buf[pos] & 0x0f) * 100) + (((buf[pos + 1] & 0xf0) >> 4) * 10) + (buf[pos + 1] & 0x0f);
 		if (len < 0) {
-			throw new ParseException(String.format(
-                    "Invalid bin LLLVAR length %d, field %d pos %d", len, field, pos), pos);
-		} else if (len+pos+2 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for bin LLLVAR field %d, pos %d", field, pos), pos);
+			result.fail(ParseError.INVALID_LENGTH, type, field, pos, len);
+			return;
+		} else if (len+pos+2 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		if (custom == null) {
-			return new IsoValue<>(type, new String(buf, pos + 2, len, getCharacterEncoding()), null);
+			result.set(new IsoValue<>(type, decode(buf, pos + 2, len), null), len+2);
 		} else {
 			IsoValue<T> v = new IsoValue<>(type, custom.decodeField(
-					new String(buf, pos + 2, len, getCharacterEncoding())), custom);
+					decode(buf, pos + 2, len)), custom);
 			if (v.getValue() == null) {
-				return new IsoValue<>(type,
-						new String(buf, pos + 2, len, getCharacterEncoding()), null);
+				result.set(new IsoValue<>(type,
+						decode(buf, pos + 2, len), null), len+2);
+			} else {
+				result.set(v, len+2);
 			}
-			return v;
 		}
 	}
 
@@ -19,7 +19,6 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.solab.iso8583.parse;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
 
 import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
@@ -36,77 +35,77 @@ public class LlvarParseInfo extends FieldParseInfo {
 	}
 
     @Override
-	public <T> IsoValue<?> parse(final int field, final byte[] buf,
-                             final int pos, final CustomField<T> custom)
-			throws ParseException, UnsupportedEncodingException {
+	public <T> void parse(final int field, final byte[] buf,
+                             final int pos, final int limit, final CustomField<T> custom,
+                             final FieldParseResult result)
+			throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format(
-					"Invalid LLVAR field %d %d", field, pos), pos);
-		} else if (pos+2 > buf.length) {
-			throw new ParseException(String.format(
-					"Insufficient data for LLVAR header, pos %d", pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+2 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		final int len = decodeLength(buf, pos, 2);
 		if (len < 0) {
-			throw new ParseException(String.format(
-                    "Invalid LLVAR length %d, field %d pos %d", len, field, pos), pos);
-		} else if (len+pos+2 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for LLVAR field %d, pos %d", field, pos), pos);
+			result.fail(ParseError.INVALID_LENGTH, type, field, pos, len);
+			return;
+		} else if (len+pos+2 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
-		String _v;
-        try {
-            _v = len == 0 ? "" : new String(buf, pos + 2, len, getCharacterEncoding());
-        } catch (IndexOutOfBoundsException ex) {
-            throw new ParseException(String.format(
-                    "Insufficient data for LLVAR header, field %d pos %d", field, pos), pos);
-        }
+		String _v = len == 0 ? "" : decode(buf, pos + 2, len);
 		//This is new: if the String's length is different from the specified
 		// length in the buffer, there are probably some extended characters.
 		// So we create a String from the rest of the buffer, and then cut it to
 		// the specified length.
+		int dataLength = len;
 		if (_v.length() != len) {
-			_v = new String(buf, pos + 2, buf.length-pos-2,
-					getCharacterEncoding()).substring(0, len);
+			_v = decode(buf, pos + 2, limit-pos-2);
+			if (_v.length() < len) {
+				result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+				return;
+			}
+			_v = _v.substring(0, len);
+			dataLength = getTextCodec().encodedLength(_v);
 		}
 		if (custom == null) {
-			return new IsoValue<>(type, _v, len, null);
+			result.set(new IsoValue<>(type, _v, len, null), dataLength+2);
 		} else {
             T dec = custom.decodeField(_v);
-            return dec == null ? new IsoValue<>(type, _v, len, null) :
-                    new IsoValue<>(type, dec, len, custom);
+            result.set(dec == null ? new IsoValue<>(type, _v, len, null) :
+                    new IsoValue<>(type, dec, len, custom), dataLength+2);
 		}
 	}
 
     @Override
-	public <T> IsoValue<?> parseBinary(final int field, final byte[] buf,
-                                   final int pos, final CustomField<T> custom)
-			throws ParseException, UnsupportedEncodingException {
+	public <T> void parseBinary(final int field, final byte[] buf,
+                                   final int pos, final int limit, final CustomField<T> custom,
+                                   final FieldParseResult result)
+			throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid bin LLVAR field %d pos %d",
-                    field, pos), pos);
-		} else if (pos+1 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for bin LLVAR header, field %d pos %d",
-					field, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+1 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		final int len = (((buf[pos] & 0xf0) >> 4) * 10) + (buf[pos] & 0x0f);
 		if (len < 0) {
-			throw new ParseException(String.format(
-                    "Invalid bin LLVAR length %d, field %d pos %d", len, field, pos), pos);
+			result.fail(ParseError.INVALID_LENGTH, type, field, pos, len);
+			return;
 		}
-		if (len+pos+1 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for bin LLVAR field %d, pos %d", field, pos), pos);
+		if (len+pos+1 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		if (custom == null) {
-			return new IsoValue<>(type, new String(buf, pos + 1, len,
-					getCharacterEncoding()), null);
+			result.set(new IsoValue<>(type, decode(buf, pos + 1, len), null), len+1);
 		} else {
-            T dec = custom.decodeField(new String(buf, pos + 1, len, getCharacterEncoding()));
-            return dec == null ? new IsoValue<>(type,
-					new String(buf, pos + 1, len, getCharacterEncoding()), null) :
-                    new IsoValue<>(type, dec, custom);
+            T dec = custom.decodeField(decode(buf, pos + 1, len));
+            result.set(dec == null ? new IsoValue<>(type,
+					decode(buf, pos + 1, len), null) :
+                    new IsoValue<>(type, dec, custom), len+1);
 		}
 	}
 
@@ -18,50 +18,122 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 */
 package com.solab.iso8583.parse;
 
+import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.text.ParseException;
 
 import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
 import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.LongIsoValue;
 import com.solab.iso8583.util.Bcd;
+import com.solab.iso8583.util.TextCodec;
 
-/** This class is used to parse NUMERIC fields.
+/** This class is used to parse NUMERIC fields. Binary values of up to 18 digits are
+ * parsed as {@link LongIsoValue}; text values are parsed as Strings, unless
+ * {@link #setParseAsLong(boolean)} is set.
  * 
  * @author Enrique Zamudio
  */
 public class NumericParseInfo extends AlphaNumericFieldParseInfo {
 
+	private boolean parseAsLong;
+
 	public NumericParseInfo(int len) {
 		super(IsoType.NUMERIC, len);
 	}
 
+	/** Tells the parser to store text values of up to 18 digits in a {@link LongIsoValue}
+	 * instead of a String. Values with anything other than digits are still parsed as Strings.
+	 * Default is false. */
+	public void setParseAsLong(boolean flag) {
+		checkMutable();
+		parseAsLong = flag;
+	}
+	public boolean isParseAsLong() {
+		return parseAsLong;
+	}
+
+	@Override
+	protected void copySettings(FieldParseInfo target) {
+		super.copySettings(target);
+		((NumericParseInfo)target).parseAsLong = parseAsLong;
+	}
+
+	@Override
+	public <T> void parse(final int field, final byte[] buf, final int pos, final int limit,
+						  final CustomField<T> custom, final FieldParseResult result)
+			throws UnsupportedEncodingException {
+		if (!parseAsLong || custom != null || length > LongIsoValue.MAX_DIGITS) {
+			super.parse(field, buf, pos, limit, custom, result);
+		} else if (pos >= 0 && pos + length <= limit && getTextCodec().hasAsciiTable()) {
+			final TextCodec tc = getTextCodec();
+			long v = 0;
+			for (int i = pos; i < pos + length; i++) {
+				final int d = tc.digit(buf[i]);
+				if (d < 0) {
+					super.parse(field, buf, pos, limit, custom, result);
+					return;
+				}
+				v = (v * 10) + d;
+			}
+			result.set(new LongIsoValue(v, length), length);
+		} else {
+			super.parse(field, buf, pos, limit, custom, result);
+			if (!result.isError()) {
+				final String s = (String)result.getValue().getValue();
+				long v = 0;
+				for (int i = 0; i < s.length(); i++) {
+					final char c = s.charAt(i);
+					if (c < '0' || c > '9') {
+						return;
+					}
+					v = (v * 10) + (c - '0');
+				}
+				result.set(new LongIsoValue(v, length), result.getLength());
+			}
+		}
+	}
+
     @Override
-	public <T> IsoValue<Number> parseBinary(final int field, final byte[] buf,
-                                        final int pos, final CustomField<T> custom)
+    public <T> IsoValue<Number> parseBinary(final int field, final byte[] buf,
+                                            final int pos, final CustomField<T> custom)
             throws ParseException {
+        final FieldParseResult result = new FieldParseResult();
+        parseBinary(field, buf, pos, buf.length, custom, result);
+        return result.getCheckedValue();
+    }
+
+    @Override
+	public <T> void parseBinary(final int field, final byte[] buf,
+                                        final int pos, final int limit, final CustomField<T> custom,
+                                        final FieldParseResult result) {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid bin NUMERIC field %d pos %d",
-                    field, pos), pos);
-		} else if (pos+(length/2) > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for bin %s field %d of length %d, pos %d",
-				type, field, length, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+(length/2)+(length%2) > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		//A long covers up to 18 digits
-		if (length < 19) {
-			return new IsoValue<Number>(IsoType.NUMERIC, Bcd.decodeToLong(buf, pos, length),
-                length, null);
+		if (length <= LongIsoValue.MAX_DIGITS) {
+			final int end = pos + (length / 2) + (length % 2);
+			long v = 0;
+			for (int i = pos; i < end; i++) {
+				//The first nibble of an odd length is just padding
+				final int hi = i == pos && length % 2 == 1 ? 0 : (buf[i] & 0xf0) >> 4;
+				final int lo = buf[i] & 0x0f;
+				if (hi > 9 || lo > 9) {
+					result.fail(ParseError.INVALID_VALUE, type, field, pos);
+					return;
+				}
+				v = (v * 100) + (hi * 10) + lo;
+			}
+			result.set(new LongIsoValue(v, length), end - pos);
 		} else {
 			//Use a BigInteger
-            try {
-                return new IsoValue<Number>(IsoType.NUMERIC,
-                    Bcd.decodeToBigInteger(buf, pos, length), length, null);
-            } catch (IndexOutOfBoundsException ex) {
-                throw new ParseException(String.format(
-                    "Insufficient data for bin %s field %d of length %d, pos %d",
-                    type, field, length, pos), pos);
-            }
+            result.set(new IsoValue<Number>(IsoType.NUMERIC,
+                Bcd.decodeToBigInteger(buf, pos, length), length, null), (length+1)/2);
 		}
 	}
 
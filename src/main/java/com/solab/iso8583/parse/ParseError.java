@@ -0,0 +1,79 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583.parse;
+
+import com.solab.iso8583.IsoType;
+
+/** The reasons a message or one of its fields can fail to parse. Parse results carry one
+ * of these codes along with the field number and offset, so that the error message
+ * is only formatted when somebody asks for it.
+ */
+public enum ParseError {
+
+	/** The field starts at an invalid position. */
+	INVALID_POSITION,
+	/** There is not enough data for the field or its length header. */
+	INSUFFICIENT_DATA,
+	/** The length header of a variable-length field is invalid. */
+	INVALID_LENGTH,
+	/** The field data can't be decoded as a value of its type. */
+	INVALID_VALUE,
+	/** The message is shorter than its type and bitmap. */
+	MESSAGE_TOO_SHORT,
+	/** The message type is not valid. */
+	INVALID_TYPE,
+	/** The bitmap contains something other than hex digits. */
+	INVALID_BITMAP,
+	/** There is no parse guide for the message type. */
+	NO_PARSE_GUIDE,
+	/** The bitmap contains a field that is not in the parse guide. */
+	UNKNOWN_FIELD;
+
+	/** Formats the error message.
+	 * @param type The type of the field that failed, if any.
+	 * @param field The field number, if the error is about a field.
+	 * @param offset The position in the buffer where the error was found.
+	 * @param detail A value that depends on the error: the invalid length for INVALID_LENGTH,
+	 * the required length for MESSAGE_TOO_SHORT, the message type for NO_PARSE_GUIDE. */
+	public String describe(IsoType type, int field, int offset, int detail) {
+		switch (this) {
+			case INVALID_POSITION:
+				return String.format("Invalid %s field %d position %d", type, field, offset);
+			case INSUFFICIENT_DATA:
+				return String.format("Insufficient data for %s field %d, pos %d", type, field, offset);
+			case INVALID_LENGTH:
+				return String.format("Invalid %s length %d field %d pos %d", type, detail, field, offset);
+			case INVALID_VALUE:
+				return String.format("Invalid %s value field %d pos %d", type, field, offset);
+			case MESSAGE_TOO_SHORT:
+				return "Insufficient buffer length, needs to be at least " + detail;
+			case INVALID_TYPE:
+				return "Invalid ISO8583 message type at pos " + offset;
+			case INVALID_BITMAP:
+				return "Invalid ISO8583 bitmap at pos " + offset;
+			case NO_PARSE_GUIDE:
+				return String.format("ISO8583 MessageFactory has no parsing guide for message type %04x",
+						detail);
+			default:
+				return String.format(
+						"ISO8583 MessageFactory cannot parse field %d: unspecified in parsing guide", field);
+		}
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583.parse;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.solab.iso8583.CustomField;
+
+/** A parsing guide for a message type, compiled into arrays indexed by field number so that
+ * parsing a message doesn't need any map lookups. It contains the FieldParseInfo for each
+ * field, the decoder to use with it (the one set on the FieldParseInfo or else the factory's
+ * custom field for that number), the field numbers in ascending order and a mask of the
+ * fields that are allowed in the bitmap, where field n is bit n-1 of the first word
+ * (fields 1 to 64) or bit n-65 of the second word (fields 65 to 128).
+ * <P>
+ * Instances are immutable; the MessageFactory compiles a new plan whenever a parse guide
+ * or the custom fields change.
+ */
+public final class ParsePlan {
+
+    private final int type;
+    private final FieldParseInfo[] parsers = new FieldParseInfo[129];
+    private final CustomField<?>[] decoders = new CustomField<?>[129];
+    private final int[] fields;
+    private final long allowed1;
+    private final long allowed2;
+
+    /** Compiles a parse guide.
+     * @param type The message type.
+     * @param guide The FieldParseInfo for each field, keyed by field number (2 to 128).
+     * @param customFields The factory's custom fields, keyed by field number; may be null. */
+    @SuppressWarnings("rawtypes")
+    public ParsePlan(int type, Map<Integer, FieldParseInfo> guide,
+                     Map<Integer, CustomField> customFields) {
+        this.type = type;
+        int[] nums = new int[guide.size()];
+        int count = 0;
+        long a1 = 0;
+        long a2 = 0;
+        for (Map.Entry<Integer, FieldParseInfo> e : guide.entrySet()) {
+            final int i = e.getKey();
+            if (i < 2 || i > 128) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid field %d in parse guide for type %04x", i, type));
+            }
+            final FieldParseInfo fpi = e.getValue();
+            parsers[i] = fpi;
+            CustomField<?> dec = fpi.getDecoder();
+            if (dec == null && customFields != null) {
+                dec = customFields.get(i);
+            }
+            decoders[i] = dec;
+            nums[count++] = i;
+            if (i <= 64) {
+                a1 |= 1L << (i - 1);
+            } else {
+                a2 |= 1L << (i - 65);
+            }
+        }
+        Arrays.sort(nums, 0, count);
+        fields = nums;
+        allowed1 = a1;
+        allowed2 = a2;
+    }
+
+    /** Returns the message type this plan is for. */
+    public int getType() {
+        return type;
+    }
+
+    /** Returns the FieldParseInfo for the specified field, or null if the field is not
+     * in the guide. */
+    public FieldParseInfo getParser(int field) {
+        return parsers[field];
+    }
+
+    /** Returns the decoder to use for the specified field, or null if there is none. */
+    public CustomField<?> getDecoder(int field) {
+        return decoders[field];
+    }
+
+    /** Returns the number of fields in the guide. */
+    public int getFieldCount() {
+        return fields.length;
+    }
+
+    /** Returns the field number at the specified position, in ascending order. */
+    public int getField(int index) {
+        return fields[index];
+    }
+
+    /** Returns the highest field number in the guide, or 0 if it's empty. */
+    public int getLastField() {
+        return fields.length == 0 ? 0 : fields[fields.length - 1];
+    }
+
+    /** Returns the mask of allowed fields 1 to 64 (field n is bit n-1). */
+    public long getAllowedPrimary() {
+        return allowed1;
+    }
+
+    /** Returns the mask of allowed fields 65 to 128 (field n is bit n-65). */
+    public long getAllowedSecondary() {
+        return allowed2;
+    }
+
+    /** Returns true if the guide contains the specified field. */
+    public boolean allows(int field) {
+        return field > 0 && field < 129 && parsers[field] != null;
+    }
+
+    /** Returns the fields from the specified bitmap words that are not in the guide, with the
+     * same layout as the allowed masks. Field 1 (the secondary bitmap indicator) is never
+     * reported. */
+    public long unknownPrimary(long word) {
+        return word & ~allowed1 & ~1L;
+    }
+
+    /** Returns the fields 65 to 128 from the specified bitmap word that are not in the guide. */
+    public long unknownSecondary(long word) {
+        return word & ~allowed2;
+    }
+
+}
@@ -19,13 +19,12 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.solab.iso8583.parse;
 
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
-import java.util.Calendar;
 import java.util.Date;
 
 import com.solab.iso8583.CustomField;
 import com.solab.iso8583.IsoType;
 import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.util.DateEngine;
 
 /** This class is used to parse TIME fields.
  * 
@@ -39,56 +38,58 @@ public class TimeParseInfo extends DateTimeParseInfo {
 	}
 
 	@Override
-	public <T> IsoValue<Date> parse(final int field, final byte[] buf,
-                                final int pos, final CustomField<T> custom)
-            throws ParseException, UnsupportedEncodingException {
+	public <T> void parse(final int field, final byte[] buf,
+                                final int pos, final int limit, final CustomField<T> custom,
+                                final FieldParseResult result)
+            throws UnsupportedEncodingException {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid TIME field %d pos %d",
-                    field, pos), pos);
-		} else if (pos+6 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for TIME field %d, pos %d", field, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+6 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
-		Calendar cal = Calendar.getInstance();
+        if (forceStringDecoding && !isDigits(buf, pos, 6)) {
+            result.fail(ParseError.INVALID_VALUE, type, field, pos);
+            return;
+        }
+        final Date date;
         if (forceStringDecoding) {
-            cal.set(Calendar.HOUR_OF_DAY, Integer.parseInt(new String(buf, pos, 2, getCharacterEncoding()), 10));
-            cal.set(Calendar.MINUTE, Integer.parseInt(new String(buf, pos+2, 2, getCharacterEncoding()), 10));
-            cal.set(Calendar.SECOND, Integer.parseInt(new String(buf, pos+4, 2, getCharacterEncoding()), 10));
+            date = toDate(decodeDigits(buf, pos, 2), decodeDigits(buf, pos+2, 2),
+                    decodeDigits(buf, pos+4, 2));
         } else {
-            cal.set(Calendar.HOUR_OF_DAY, ((buf[pos] - 48) * 10) + buf[pos + 1] - 48);
-            cal.set(Calendar.MINUTE, ((buf[pos + 2] - 48) * 10) + buf[pos + 3] - 48);
-            cal.set(Calendar.SECOND, ((buf[pos + 4] - 48) * 10) + buf[pos + 5] - 48);
-        }
-        if (tz != null) {
-            cal.setTimeZone(tz);
+            date = toDate(((buf[pos] - 48) * 10) + buf[pos + 1] - 48,
+                    ((buf[pos + 2] - 48) * 10) + buf[pos + 3] - 48,
+                    ((buf[pos + 4] - 48) * 10) + buf[pos + 5] - 48);
         }
-		return new IsoValue<Date>(type, cal.getTime(), null);
+		result.set(new IsoValue<Date>(type, date, null), 6);
 	}
 
 	@Override
-	public <T> IsoValue<Date> parseBinary(final int field, final byte[] buf,
-                                      final int pos, final CustomField<T> custom)
-            throws ParseException {
+	public <T> void parseBinary(final int field, final byte[] buf,
+                                      final int pos, final int limit, final CustomField<T> custom,
+                                      final FieldParseResult result) {
 		if (pos < 0) {
-			throw new ParseException(String.format("Invalid bin TIME field %d pos %d",
-                    field, pos), pos);
-		} else if (pos+3 > buf.length) {
-			throw new ParseException(String.format(
-                    "Insufficient data for bin TIME field %d, pos %d", field, pos), pos);
+			result.fail(ParseError.INVALID_POSITION, type, field, pos);
+			return;
+		} else if (pos+3 > limit) {
+			result.fail(ParseError.INSUFFICIENT_DATA, type, field, pos);
+			return;
 		}
 		int[] tens = new int[3];
 		int start = 0;
 		for (int i = pos; i < pos + 3; i++) {
 			tens[start++] = (((buf[i] & 0xf0) >> 4) * 10) + (buf[i] & 0x0f);
 		}
-		Calendar cal = Calendar.getInstance();
-		cal.set(Calendar.HOUR_OF_DAY, tens[0]);
-		cal.set(Calendar.MINUTE, tens[1]);
-		cal.set(Calendar.SECOND, tens[2]);
-        if (tz != null) {
-            cal.setTimeZone(tz);
-        }
-		return new IsoValue<Date>(type, cal.getTime(), null);
+		result.set(new IsoValue<Date>(type, toDate(tens[0], tens[1], tens[2]), null), 3);
+	}
+
+	/** Creates the date for the time of the current day, keeping the milliseconds
+	 * of the current time. */
+	private Date toDate(int hour, int minute, int second) {
+		final DateEngine.Today today = DateEngine.today();
+		return toDate(today.getYear(), today.getMonth(), today.getDay(), hour, minute, second,
+				(int)(System.currentTimeMillis() % 1000), false);
 	}
 
 }
@@ -0,0 +1,298 @@
+/*
+ * j8583 A Java implementation of the ISO8583 protocol
+ * Copyright (C) 2007 Enrique Zamudio Lopez
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ */
+package com.solab.iso8583.util;
+
+import java.text.ParseException;
+
+/** An ISO8583 bitmap stored in two longs. Field n is bit n-1 of the primary word for fields
+ * 1 to 64 and bit n-65 of the secondary word for fields 65 to 128, so present fields can be
+ * iterated with {@link Long#numberOfTrailingZeros(long)}. On the wire the bits go the other way
+ * (field 1 is the most significant bit of the first byte), so words are reversed when they're
+ * decoded and encoded.
+ * <P>
+ * Field 1 is the secondary bitmap indicator; it is only stored when decoding a bitmap, and
+ * the encoding methods set or clear it as requested.
+ */
+public final class Bitmap {
+
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+	/** Two hex digits for each byte value. */
+	private static final byte[] HEX_PAIRS = new byte[512];
+	/** The value of each hex digit, -1 for anything else. */
+	private static final byte[] HEX_VALUES = new byte[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			HEX_PAIRS[i * 2] = HEX[i >> 4];
+			HEX_PAIRS[i * 2 + 1] = HEX[i & 15];
+			HEX_VALUES[i] = -1;
+		}
+		for (int i = 0; i < 10; i++) {
+			HEX_VALUES['0' + i] = (byte)i;
+		}
+		for (int i = 0; i < 6; i++) {
+			HEX_VALUES['A' + i] = (byte)(i + 10);
+			HEX_VALUES['a' + i] = (byte)(i + 10);
+		}
+	}
+
+	private long primary;
+	private long secondary;
+
+	/** Creates an empty bitmap. */
+	public Bitmap() {
+	}
+
+	/** Creates a bitmap with the specified words.
+	 * @param primary Fields 1 to 64, field n being bit n-1.
+	 * @param secondary Fields 65 to 128, field n being bit n-65. */
+	public Bitmap(long primary, long secondary) {
+		this.primary = primary;
+		this.secondary = secondary;
+	}
+
+	/** Returns the word for fields 1 to 64. */
+	public long getPrimary() {
+		return primary;
+	}
+	/** Returns the word for fields 65 to 128. */
+	public long getSecondary() {
+		return secondary;
+	}
+
+	/** Replaces the contents of the bitmap with the specified words. */
+	public void setWords(long primary, long secondary) {
+		this.primary = primary;
+		this.secondary = secondary;
+	}
+
+	/** Returns true if the specified field (1 to 128) is set.
+	 * @throws IndexOutOfBoundsException if the field is not between 1 and 128. */
+	public boolean get(int field) {
+		checkField(field);
+		return field <= 64 ? (primary & (1L << (field - 1))) != 0
+				: (secondary & (1L << (field - 65))) != 0;
+	}
+
+	/** Sets the specified field (1 to 128).
+	 * @throws IndexOutOfBoundsException if the field is not between 1 and 128. */
+	public void set(int field) {
+		checkField(field);
+		if (field <= 64) {
+			primary |= 1L << (field - 1);
+		} else {
+			secondary |= 1L << (field - 65);
+		}
+	}
+
+	/** Clears the specified field (1 to 128).
+	 * @throws IndexOutOfBoundsException if the field is not between 1 and 128. */
+	public void clear(int field) {
+		checkField(field);
+		if (field <= 64) {
+			primary &= ~(1L << (field - 1));
+		} else {
+			secondary &= ~(1L << (field - 65));
+		}
+	}
+
+	/** Sets or clears the specified field (1 to 128). */
+	public void set(int field, boolean flag) {
+		if (flag) {
+			set(field);
+		} else {
+			clear(field);
+		}
+	}
+
+	private static void checkField(int field) {
+		if (field < 1 || field > 128) {
+			throw new IndexOutOfBoundsException("Field must be between 1 and 128: " + field);
+		}
+	}
+
+	/** Clears all the fields. */
+	public void clear() {
+		primary = 0;
+		secondary = 0;
+	}
+
+	/** Returns true if no field is set. */
+	public boolean isEmpty() {
+		return (primary | secondary) == 0;
+	}
+
+	/** Returns true if any of the fields 65 to 128 is set, which means the secondary
+	 * bitmap must be encoded. */
+	public boolean needsSecondary() {
+		return secondary != 0;
+	}
+
+	/** Returns the number of fields that are set. */
+	public int cardinality() {
+		return Long.bitCount(primary) + Long.bitCount(secondary);
+	}
+
+	/** Returns the first field that is set starting at the specified one (inclusive),
+	 * or -1 if there are no more fields set. */
+	public int nextField(int from) {
+		if (from < 1) {
+			from = 1;
+		}
+		if (from <= 64) {
+			final long w = primary & (-1L << (from - 1));
+			if (w != 0) {
+				return Long.numberOfTrailingZeros(w) + 1;
+			}
+			from = 65;
+		}
+		if (from <= 128) {
+			final long w = secondary & (-1L << (from - 65));
+			if (w != 0) {
+				return Long.numberOfTrailingZeros(w) + 65;
+			}
+		}
+		return -1;
+	}
+
+	/** Writes the bitmap in binary format to the buffer.
+	 * @param buf The buffer to write to.
+	 * @param pos The position where the bitmap starts.
+	 * @param withSecondary Whether to set field 1 and write the secondary bitmap.
+	 * @return The position after the bitmap. */
+	public int writeBinary(byte[] buf, int pos, boolean withSecondary) {
+		putWord(buf, pos, withSecondary ? primary | 1 : primary & ~1L);
+		if (withSecondary) {
+			putWord(buf, pos + 8, secondary);
+			return pos + 16;
+		}
+		return pos + 8;
+	}
+
+	/** Writes the bitmap as ASCII hex digits to the buffer.
+	 * @param buf The buffer to write to.
+	 * @param pos The position where the bitmap starts.
+	 * @param withSecondary Whether to set field 1 and write the secondary bitmap.
+	 * @return The position after the bitmap. */
+	public int writeHex(byte[] buf, int pos, boolean withSecondary) {
+		putHexWord(buf, pos, withSecondary ? primary | 1 : primary & ~1L);
+		if (withSecondary) {
+			putHexWord(buf, pos + 16, secondary);
+			return pos + 32;
+		}
+		return pos + 16;
+	}
+
+	/** Returns the bitmap as hex digits, the way it's encoded in text messages. */
+	public String toHexString(boolean withSecondary) {
+		final byte[] buf = new byte[32];
+		final int len = writeHex(buf, 0, withSecondary);
+		final char[] chars = new char[len];
+		for (int i = 0; i < len; i++) {
+			chars[i] = (char)buf[i];
+		}
+		return new String(chars);
+	}
+
+	/** Decodes 8 bytes of a binary bitmap into a word with field n at bit n-1 (or n-65
+	 * for the secondary bitmap). */
+	public static long readBinaryWord(byte[] buf, int pos) {
+		long w = 0;
+		for (int i = pos; i < pos + 8; i++) {
+			w = (w << 8) | (buf[i] & 0xff);
+		}
+		return Long.reverse(w);
+	}
+
+	/** Decodes 16 ASCII hex digits of a bitmap into a word with field n at bit n-1 (or n-65
+	 * for the secondary bitmap).
+	 * @throws ParseException if there is anything other than a hex digit in the data. */
+	public static long readHexWord(byte[] buf, int pos) throws ParseException {
+		final int invalid = findInvalidHex(buf, pos);
+		if (invalid >= 0) {
+			throw new ParseException("Invalid ISO8583 bitmap", invalid);
+		}
+		return decodeHexWord(buf, pos);
+	}
+
+	/** Returns the position of the first of the 16 bytes at the specified position that is
+	 * not an ASCII hex digit, or -1 if all of them are. */
+	public static int findInvalidHex(byte[] buf, int pos) {
+		for (int i = pos; i < pos + 16; i++) {
+			if (HEX_VALUES[buf[i] & 0xff] < 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/** Decodes a word from 16 hex digits at the specified position, without checking them;
+	 * use {@link #findInvalidHex(byte[], int)} first if the data hasn't been validated. */
+	public static long decodeHexWord(byte[] buf, int pos) {
+		long w = 0;
+		for (int i = pos; i < pos + 16; i++) {
+			w = (w << 4) | HEX_VALUES[buf[i] & 0xff];
+		}
+		return Long.reverse(w);
+	}
+
+	private static void putWord(byte[] buf, int pos, long word) {
+		final long w = Long.reverse(word);
+		buf[pos] = (byte)(w >>> 56);
+		buf[pos + 1] = (byte)(w >>> 48);
+		buf[pos + 2] = (byte)(w >>> 40);
+		buf[pos + 3] = (byte)(w >>> 32);
+		buf[pos + 4] = (byte)(w >>> 24);
+		buf[pos + 5] = (byte)(w >>> 16);
+		buf[pos + 6] = (byte)(w >>> 8);
+		buf[pos + 7] = (byte)w;
+	}
+
+	private static void putHexWord(byte[] buf, int pos, long word) {
+		final long w = Long.reverse(word);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			final int b = ((int)(w >>> shift) & 0xff) << 1;
+			buf[pos++] = HEX_PAIRS[b];
+			buf[pos++] = HEX_PAIRS[b + 1];
+		}
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other == this) {
+			return true;
+		}
+		if (!(other instanceof Bitmap)) {
+			return false;
+		}
+		final Bitmap b = (Bitmap)other;
+		return primary == b.primary && secondary == b.secondary;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int)(primary ^ (primary >>> 32) ^ secondary ^ (secondary >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return toHexString(needsSecondary());
+	}
+
+}
@@ -0,0 +1,205 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583.util;
+
+import java.time.Instant;
+import java.util.TimeZone;
+
+/**
+ * Computes dates from their numeric fields without using Calendar. The fields are turned
+ * into epoch millis with a table of month offsets and the offset of the timezone; fields
+ * that are out of range roll over into the next field, the same as with a lenient Calendar.
+ * The current date, which the date fields that don't have a year or a day need for reference,
+ * is taken from a shared clock that is only recomputed every half day.
+ */
+public final class DateEngine {
+
+    public static final long MILLIS_PER_DAY = 86400000L;
+
+    /** Days before the start of each month, in common years. */
+    private static final int[] MONTH_OFFSETS = {
+            0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334 };
+    private static final int[] MONTH_DAYS = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+    /** Days from 0000-03-01 to 1970-01-01. */
+    private static final long EPOCH_OFFSET = 719468L;
+
+    private static volatile Today today = new Today(0, 0, 0, false, 0, 0, null);
+
+    private DateEngine(){}
+
+    /** Returns the epoch millis for the specified date and time in a timezone.
+     * @param year The full year, e.g. 2014.
+     * @param month The month, from 1 to 12.
+     * @param day The day of the month.
+     * @param hour The hour of the day, from 0 to 23.
+     * @param minute The minute.
+     * @param second The second.
+     * @param millis The milliseconds.
+     * @param tz The timezone for the fields, or null to use the default timezone. */
+    public static long toMillis(int year, int month, int day, int hour, int minute, int second,
+                                int millis, TimeZone tz) {
+        final long local = (epochDay(year, month, day) * MILLIS_PER_DAY) + (hour * 3600000L)
+                + (minute * 60000L) + (second * 1000L) + millis;
+        return toUtc(local, tz == null ? today().getTimeZone() : tz);
+    }
+
+    /** Same as {@link #toMillis(int, int, int, int, int, int, int, TimeZone)}, returning an Instant. */
+    public static Instant toInstant(int year, int month, int day, int hour, int minute, int second,
+                                    int millis, TimeZone tz) {
+        return Instant.ofEpochMilli(toMillis(year, month, day, hour, minute, second, millis, tz));
+    }
+
+    /** Returns the date minus one year if it is further into the future than the specified
+     * tolerance; otherwise returns the same date. The time of day is kept in the timezone,
+     * and the 29th of February becomes the 28th, as with Calendar.add(Calendar.YEAR, -1).
+     * @param millis The date to check.
+     * @param tolerance The number of milliseconds a date can be in the future.
+     * @param tz The timezone of the date, or null to use the default timezone. */
+    public static long adjustWithFutureTolerance(long millis, long tolerance, TimeZone tz) {
+        final long now = System.currentTimeMillis();
+        if (millis <= now || millis - now <= tolerance) {
+            return millis;
+        }
+        if (tz == null) {
+            tz = today().getTimeZone();
+        }
+        final long local = millis + tz.getOffset(millis);
+        final long days = Math.floorDiv(local, MILLIS_PER_DAY);
+        final long timeOfDay = local - (days * MILLIS_PER_DAY);
+        final int[] ymd = civil(days);
+        final int year = ymd[0] - 1;
+        final int day = Math.min(ymd[2], daysInMonth(year, ymd[1]));
+        return toUtc((epochDay(year, ymd[1], day) * MILLIS_PER_DAY) + timeOfDay, tz);
+    }
+
+    /** Returns the current date in the default timezone. The value is cached and recomputed
+     * when the current half of the day is over or the default timezone changes. */
+    public static Today today() {
+        final long now = System.currentTimeMillis();
+        //getDefault returns a copy, so the zones are compared by ID
+        final TimeZone tz = TimeZone.getDefault();
+        Today t = today;
+        if (now < t.start || now >= t.end || t.tz == null || !tz.getID().equals(t.tz.getID())) {
+            t = refresh(now, tz);
+            today = t;
+        }
+        return t;
+    }
+
+    /** Returns the number of days in the month (1 to 12) of the specified year. */
+    public static int daysInMonth(int year, int month) {
+        return month == 2 && isLeap(year) ? 29 : MONTH_DAYS[month - 1];
+    }
+
+    /** Returns true if the year is a leap year in the gregorian calendar. */
+    public static boolean isLeap(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    /** Returns the number of days since 1970-01-01 for the date. Months and days out of range
+     * roll over into the next year or month. */
+    public static long epochDay(int year, int month, int day) {
+        long y = year + Math.floorDiv(month - 1, 12);
+        final int m = Math.floorMod(month - 1, 12);
+        final long leaps = Math.floorDiv(y - 1, 4) - Math.floorDiv(y - 1, 100)
+                + Math.floorDiv(y - 1, 400);
+        long days = (365 * (y - 1970)) + leaps - 477 + MONTH_OFFSETS[m] + day - 1;
+        if (m > 1 && isLeap((int)y)) {
+            days++;
+        }
+        return days;
+    }
+
+    /** Converts a number of days since 1970-01-01 to year, month (1 to 12) and day. */
+    public static int[] civil(long epochDay) {
+        final long z = epochDay + EPOCH_OFFSET;
+        final long era = Math.floorDiv(z, 146097);
+        final long doe = z - (era * 146097);
+        final long yoe = (doe - (doe / 1460) + (doe / 36524) - (doe / 146096)) / 365;
+        final long doy = doe - ((365 * yoe) + (yoe / 4) - (yoe / 100));
+        final long mp = ((5 * doy) + 2) / 153;
+        final int day = (int)(doy - (((153 * mp) + 2) / 5) + 1);
+        final int month = (int)(mp < 10 ? mp + 3 : mp - 9);
+        final int year = (int)(yoe + (era * 400) + (month <= 2 ? 1 : 0));
+        return new int[]{ year, month, day };
+    }
+
+    /** Converts local millis to UTC. A local time that is skipped when daylight saving time
+     * starts is taken as standard time, the same way Calendar resolves its fields. */
+    private static long toUtc(long local, TimeZone tz) {
+        final int offset = tz.getOffset(local - tz.getRawOffset());
+        return local - tz.getOffset(local - offset);
+    }
+
+    private static Today refresh(long now, TimeZone tz) {
+        final long local = now + tz.getOffset(now);
+        final long days = Math.floorDiv(local, MILLIS_PER_DAY);
+        final boolean pm = local - (days * MILLIS_PER_DAY) >= MILLIS_PER_DAY / 2;
+        final int[] ymd = civil(days);
+        final long start = toMillis(ymd[0], ymd[1], ymd[2], pm ? 12 : 0, 0, 0, 0, tz);
+        long end = toMillis(ymd[0], ymd[1], ymd[2], pm ? 24 : 12, 0, 0, 0, tz);
+        if (now < start || now >= end) {
+            //The clock is in a timezone transition; don't cache it for long
+            end = now + 1000;
+            return new Today(ymd[0], ymd[1], ymd[2], pm, now, end, tz);
+        }
+        return new Today(ymd[0], ymd[1], ymd[2], pm, start, end, tz);
+    }
+
+    /** The current date in the default timezone, as seen by {@link DateEngine#today()}. */
+    public static final class Today {
+        private final int year;
+        private final int month;
+        private final int day;
+        private final boolean afternoon;
+        private final long start;
+        private final long end;
+        private final TimeZone tz;
+
+        Today(int year, int month, int day, boolean afternoon, long start, long end, TimeZone tz) {
+            this.year = year;
+            this.month = month;
+            this.day = day;
+            this.afternoon = afternoon;
+            this.start = start;
+            this.end = end;
+            this.tz = tz;
+        }
+
+        public int getYear() {
+            return year;
+        }
+        /** Returns the month, from 1 to 12. */
+        public int getMonth() {
+            return month;
+        }
+        public int getDay() {
+            return day;
+        }
+        /** Returns true if the current time is past noon. */
+        public boolean isAfternoon() {
+            return afternoon;
+        }
+        /** The default timezone when this date was computed. */
+        public TimeZone getTimeZone() {
+            return tz;
+        }
+    }
+
+}
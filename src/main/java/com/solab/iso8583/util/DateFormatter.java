@@ -0,0 +1,136 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.solab.iso8583.IsoType;
+
+/**
+ * Formats the date types (DATE10, DATE4, DATE_EXP, TIME and DATE12) without SimpleDateFormat.
+ * The digits for a date are rendered once as yyyyMMddHHmmss, in ASCII and in BCD, and every
+ * type is written as a slice of them. The last rendered second is cached for each timezone,
+ * so all the messages stamped with the same clock reading share the same digits.
+ * This class is thread-safe.
+ */
+public final class DateFormatter {
+
+    private static final ConcurrentHashMap<String, Stamp> STAMPS = new ConcurrentHashMap<>();
+
+    private DateFormatter(){}
+
+    /** Returns the date formatted according to the type.
+     * @param type One of the date types.
+     * @param date The date to format.
+     * @param tz The timezone for the date, or null to use the default timezone. */
+    public static String format(IsoType type, Date date, TimeZone tz) {
+        final int offset = offset(type);
+        return new String(stamp(date, tz).ascii, offset, type.getLength(), StandardCharsets.US_ASCII);
+    }
+
+    /** Copies the ASCII digits for the date into a buffer and returns the number of bytes written. */
+    public static int format(IsoType type, Date date, TimeZone tz, byte[] buf, int pos) {
+        final int offset = offset(type);
+        System.arraycopy(stamp(date, tz).ascii, offset, buf, pos, type.getLength());
+        return type.getLength();
+    }
+
+    /** Writes the date as ASCII digits to a stream. */
+    public static void write(IsoType type, Date date, TimeZone tz, OutputStream outs)
+            throws IOException {
+        final int offset = offset(type);
+        outs.write(stamp(date, tz).ascii, offset, type.getLength());
+    }
+
+    /** Writes the date to a stream, translating the digits with the codec's ASCII table. */
+    public static void write(IsoType type, Date date, TimeZone tz, TextCodec codec,
+                             OutputStream outs) throws IOException {
+        final int offset = offset(type);
+        codec.writeAscii(stamp(date, tz).ascii, offset, type.getLength(), outs);
+    }
+
+    /** Writes the date as BCD to a stream, two digits per byte. */
+    public static void writeBcd(IsoType type, Date date, TimeZone tz, OutputStream outs)
+            throws IOException {
+        final int offset = offset(type);
+        outs.write(stamp(date, tz).bcd, offset / 2, type.getLength() / 2);
+    }
+
+    /** Returns where the digits of a type start in yyyyMMddHHmmss. */
+    private static int offset(IsoType type) {
+        if (type == IsoType.DATE10 || type == IsoType.DATE4) {
+            return 4;
+        } else if (type == IsoType.DATE_EXP) {
+            return 2;
+        } else if (type == IsoType.TIME) {
+            return 8;
+        } else if (type == IsoType.DATE12) {
+            return 2;
+        }
+        throw new IllegalArgumentException("Cannot format date as " + type);
+    }
+
+    private static Stamp stamp(Date date, TimeZone tz) {
+        if (tz == null) {
+            tz = TimeZone.getDefault();
+        }
+        final long millis = date.getTime();
+        final long second = Math.floorDiv(millis, 1000L);
+        Stamp s = STAMPS.get(tz.getID());
+        if (s == null || s.second != second) {
+            s = new Stamp(second, millis + tz.getOffset(millis));
+            STAMPS.put(tz.getID(), s);
+        }
+        return s;
+    }
+
+    /** The digits of one second in a timezone. */
+    private static final class Stamp {
+        private final long second;
+        private final byte[] ascii = new byte[14];
+        private final byte[] bcd = new byte[7];
+
+        private Stamp(long second, long local) {
+            this.second = second;
+            final long days = Math.floorDiv(local, DateEngine.MILLIS_PER_DAY);
+            final int time = (int)((local - (days * DateEngine.MILLIS_PER_DAY)) / 1000);
+            final int[] ymd = DateEngine.civil(days);
+            final int year = Math.floorMod(ymd[0], 10000);
+            put(0, year / 100);
+            put(1, year % 100);
+            put(2, ymd[1]);
+            put(3, ymd[2]);
+            put(4, time / 3600);
+            put(5, (time / 60) % 60);
+            put(6, time % 60);
+        }
+
+        private void put(int index, int value) {
+            ascii[index * 2] = (byte)((value / 10) + '0');
+            ascii[(index * 2) + 1] = (byte)((value % 10) + '0');
+            bcd[index] = (byte)(((value / 10) << 4) | (value % 10));
+        }
+    }
+
+}
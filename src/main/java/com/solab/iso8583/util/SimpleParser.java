@@ -70,14 +70,11 @@ public class SimpleParser {
             if (m != null) {
                 System.out.printf("Message type: %04x%n", m.getType());
                 System.out.println("FIELD TYPE    VALUE");
-                for (int i = 2; i <= 128; i++) {
-                    IsoValue<?> f = m.getField(i);
-                    if (f != null) {
-                        System.out.printf("%5d %-6s [", i, f.getType());
-                        System.out.print(f.toString());
-                        System.out.println(']');
-                    }
-                }
+                m.forEachField((f, i) -> {
+                    System.out.printf("%5d %-6s [", i, f.getType());
+                    System.out.print(f.toString());
+                    System.out.println(']');
+                });
             }
             line = getMessage();
         }
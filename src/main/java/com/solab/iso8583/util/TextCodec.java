@@ -0,0 +1,378 @@
+/*
+j8583 A Java implementation of the ISO8583 protocol
+Copyright (C) 2007 Enrique Zamudio Lopez
+
+This library is free software; you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public
+License as published by the Free Software Foundation; either
+version 2.1 of the License, or (at your option) any later version.
+
+This library is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public
+License along with this library; if not, write to the Free Software
+Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+*/
+package com.solab.iso8583.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts text to and from bytes with a Charset that is resolved only once, instead of
+ * looking up the encoding by name for every field. ASCII and ISO-8859-1 are converted
+ * directly between bytes and chars without a CharsetDecoder or CharsetEncoder, as long
+ * as all the characters can be represented. For encodings that write every ASCII character
+ * in a single byte, such as EBCDIC, translation tables are built once so that digits,
+ * hex characters and length headers can be read and written straight from the bytes.
+ * Instances are immutable and thread-safe.
+ */
+public final class TextCodec {
+
+    private static final int LATIN1 = 1;
+    private static final int ASCII = 2;
+    private static final int UTF8 = 3;
+    private static final int SINGLE_BYTE = 4;
+    private static final int OTHER = 5;
+
+    private static final ConcurrentHashMap<String, TextCodec> CODECS = new ConcurrentHashMap<>();
+
+    private final Charset charset;
+    private final int kind;
+    private final boolean asciiDigits;
+    /** The byte for each ASCII char, or null if the hex digits don't fit in one byte each. */
+    private final byte[] fromAscii;
+    /** The ASCII char for each byte, or 0 if the byte isn't an ASCII char. */
+    private final byte[] toAscii;
+    /** True if the ASCII chars are encoded as themselves. */
+    private final boolean asciiIdentity;
+
+    private TextCodec(Charset charset) {
+        this.charset = charset;
+        if (StandardCharsets.ISO_8859_1.equals(charset)) {
+            kind = LATIN1;
+        } else if (StandardCharsets.US_ASCII.equals(charset)) {
+            kind = ASCII;
+        } else if (StandardCharsets.UTF_8.equals(charset)) {
+            kind = UTF8;
+        } else if (charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1.0f) {
+            kind = SINGLE_BYTE;
+        } else {
+            kind = OTHER;
+        }
+        final byte[] b = "0123456789".getBytes(charset);
+        boolean ok = b.length == 10;
+        for (int i = 0; ok && i < 10; i++) {
+            ok = b[i] == '0' + i;
+        }
+        asciiDigits = ok;
+        //Translation tables for the ASCII chars
+        final byte[] from = new byte[128];
+        final byte[] to = new byte[256];
+        boolean tables = kind != OTHER;
+        boolean identity = tables;
+        for (int c = 1; tables && c < 128; c++) {
+            final String ch = String.valueOf((char)c);
+            final byte[] enc = ch.getBytes(charset);
+            if (enc.length == 1 && ch.equals(new String(enc, charset))) {
+                from[c] = enc[0];
+                to[enc[0] & 0xff] = (byte)c;
+                identity &= enc[0] == c;
+            } else {
+                //Only punctuation and control chars may be missing
+                identity = false;
+                tables = !Character.isLetterOrDigit(c);
+            }
+        }
+        fromAscii = tables ? from : null;
+        toAscii = tables ? to : null;
+        asciiIdentity = tables && identity;
+    }
+
+    /** Returns the codec for the specified encoding. The codecs are cached by name.
+     * @param encoding The name of the encoding, or null for the platform default.
+     * @throws UnsupportedEncodingException if the encoding is not supported. */
+    public static TextCodec forName(String encoding) throws UnsupportedEncodingException {
+        if (encoding == null) {
+            encoding = Charset.defaultCharset().name();
+        }
+        TextCodec codec = CODECS.get(encoding);
+        if (codec == null) {
+            try {
+                codec = new TextCodec(Charset.forName(encoding));
+            } catch (IllegalArgumentException ex) {
+                throw new UnsupportedEncodingException(encoding);
+            }
+            CODECS.put(encoding, codec);
+        }
+        return codec;
+    }
+
+    /** Returns the codec for the specified charset. */
+    public static TextCodec forCharset(Charset charset) {
+        TextCodec codec = CODECS.get(charset.name());
+        if (codec == null || !codec.charset.equals(charset)) {
+            codec = new TextCodec(charset);
+            CODECS.put(charset.name(), codec);
+        }
+        return codec;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /** Returns true if every character is encoded in exactly one byte. */
+    public boolean isSingleByte() {
+        return kind != UTF8 && kind != OTHER;
+    }
+
+    /** Returns true if the encoding is UTF-8. */
+    public boolean isUtf8() {
+        return kind == UTF8;
+    }
+
+    /** Returns true if text can be written in pieces, with {@link #write(CharSequence, int, int, OutputStream)}
+     * and {@link #writeRepeated(char, int, OutputStream)}, and get the same bytes as encoding it
+     * all at once. This is false for encodings that are neither UTF-8 nor single-byte, since
+     * some of them, like UTF-16, write a byte order mark before every piece. */
+    public boolean canWritePieces() {
+        return kind != OTHER;
+    }
+
+    /** Returns true if the encoding writes the decimal digits as the ASCII bytes 0x30 to 0x39. */
+    public boolean isAsciiDigits() {
+        return asciiDigits;
+    }
+
+    /** Returns true if the ASCII letters and digits are encoded as one byte each, so that
+     * {@link #digit(byte)}, {@link #hexDigit(byte)}, {@link #toAscii(byte)} and
+     * {@link #fromAscii(int)} can be used. */
+    public boolean hasAsciiTable() {
+        return fromAscii != null;
+    }
+
+    /** Returns the value of a decimal digit encoded in this encoding, or -1 if the byte
+     * is not a digit. Only valid if {@link #hasAsciiTable()} is true. */
+    public int digit(byte b) {
+        final int c = toAscii[b & 0xff];
+        return c >= '0' && c <= '9' ? c - '0' : -1;
+    }
+
+    /** Returns the value of a hex digit (upper or lower case) encoded in this encoding,
+     * or -1 if the byte is not a hex digit. Only valid if {@link #hasAsciiTable()} is true. */
+    public int hexDigit(byte b) {
+        return Character.digit(toAscii[b & 0xff], 16);
+    }
+
+    /** Returns the ASCII char for an encoded byte, or 0 if it has none. Only valid
+     * if {@link #hasAsciiTable()} is true. */
+    public byte toAscii(byte b) {
+        return toAscii[b & 0xff];
+    }
+
+    /** Returns the encoded byte for an ASCII char. Only valid if {@link #hasAsciiTable()} is true. */
+    public byte fromAscii(int c) {
+        return fromAscii[c];
+    }
+
+    /** Writes ASCII chars to the stream, translating each one to this encoding. Only valid
+     * if {@link #hasAsciiTable()} is true. */
+    public void writeAscii(byte[] ascii, int pos, int len, OutputStream outs) throws IOException {
+        if (asciiIdentity) {
+            outs.write(ascii, pos, len);
+        } else {
+            for (int i = pos; i < pos + len; i++) {
+                outs.write(fromAscii[ascii[i]]);
+            }
+        }
+    }
+
+    /** Writes the digits of a non-negative number, padded with zeroes to the specified number
+     * of digits, without creating a String when the encoding has an ASCII table. */
+    public void writeDigits(long value, int digits, OutputStream outs) throws IOException {
+        if (fromAscii == null) {
+            final char[] chars = new char[digits];
+            for (int i = digits - 1; i >= 0; i--, value /= 10) {
+                chars[i] = (char)((value % 10) + '0');
+            }
+            outs.write(new String(chars).getBytes(charset));
+            return;
+        }
+        long pow = 1;
+        for (int i = 1; i < digits; i++) {
+            pow *= 10;
+        }
+        for (; pow > 0; pow /= 10) {
+            outs.write(fromAscii[(int)((value / pow) % 10) + '0']);
+        }
+    }
+
+    /** Writes the bytes as upper case hex digits, two chars per byte. */
+    public void writeHex(byte[] buf, int pos, int len, OutputStream outs) throws IOException {
+        if (fromAscii == null) {
+            write(HexCodec.hexEncode(buf, pos, len), outs);
+            return;
+        }
+        for (int i = pos; i < pos + len; i++) {
+            outs.write(fromAscii[HexCodec.HEX[(buf[i] & 0xf0) >> 4]]);
+            outs.write(fromAscii[HexCodec.HEX[buf[i] & 0x0f]]);
+        }
+    }
+
+    /** Writes the same char the specified number of times, e.g. to pad a value. Encodings
+     * that can't be written in pieces (see {@link #canWritePieces()}) encode all the chars
+     * at once. */
+    public void writeRepeated(char c, int count, OutputStream outs) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        if (c < 0x80 && fromAscii != null && (c == 0 || fromAscii[c] != 0)) {
+            final byte b = fromAscii[c];
+            for (int i = 0; i < count; i++) {
+                outs.write(b);
+            }
+        } else if (kind == OTHER) {
+            final char[] chars = new char[count];
+            Arrays.fill(chars, c);
+            outs.write(new String(chars).getBytes(charset));
+        } else {
+            final byte[] b = String.valueOf(c).getBytes(charset);
+            for (int i = 0; i < count; i++) {
+                outs.write(b);
+            }
+        }
+    }
+
+    /** Encodes the chars from start to end of the sequence and writes them to the stream, one
+     * at a time, without creating a String or byte array; chars that cannot be encoded are
+     * written as the replacement byte of the encoding, same as {@link String#getBytes(Charset)}.
+     * Only encodings that are neither UTF-8 nor single-byte encode the whole range at once. */
+    public void write(CharSequence s, int start, int end, OutputStream outs) throws IOException {
+        if (kind == OTHER) {
+            outs.write(s.subSequence(start, end).toString().getBytes(charset));
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80 && fromAscii != null && (c == 0 || fromAscii[c] != 0)) {
+                outs.write(fromAscii[c]);
+            } else if (kind == LATIN1 && c <= 0xff) {
+                outs.write(c);
+            } else if (kind == UTF8 && !Character.isSurrogate(c)) {
+                if (c < 0x800) {
+                    outs.write(0xc0 | (c >> 6));
+                } else {
+                    outs.write(0xe0 | (c >> 12));
+                    outs.write(0x80 | ((c >> 6) & 0x3f));
+                }
+                outs.write(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                //A valid pair is a single code point
+                if (kind == UTF8) {
+                    final int cp = Character.toCodePoint(c, s.charAt(++i));
+                    outs.write(0xf0 | (cp >> 18));
+                    outs.write(0x80 | ((cp >> 12) & 0x3f));
+                    outs.write(0x80 | ((cp >> 6) & 0x3f));
+                    outs.write(0x80 | (cp & 0x3f));
+                } else {
+                    outs.write(s.subSequence(i, i + 2).toString().getBytes(charset));
+                    i++;
+                }
+            } else if (kind == SINGLE_BYTE) {
+                outs.write(String.valueOf(c).getBytes(charset));
+            } else {
+                //unpaired surrogates, and chars that don't fit in ASCII or ISO-8859-1
+                outs.write(kind == UTF8 || fromAscii == null ? '?' : fromAscii['?']);
+            }
+        }
+    }
+
+    /** Decodes the specified bytes into a String. */
+    @SuppressWarnings("deprecation")
+    public String decode(byte[] buf, int pos, int len) {
+        if (kind == LATIN1 || (kind == ASCII && isAscii(buf, pos, len))) {
+            //Every byte is the char with the same value
+            return new String(buf, 0, pos, len);
+        }
+        return new String(buf, pos, len, charset);
+    }
+
+    /** Encodes the String into a new byte array. */
+    @SuppressWarnings("deprecation")
+    public byte[] encode(String s) {
+        if ((kind == LATIN1 && charBits(s) <= 0xff) || (kind == ASCII && charBits(s) < 0x80)) {
+            final byte[] b = new byte[s.length()];
+            s.getBytes(0, b.length, b, 0);
+            return b;
+        }
+        return s.getBytes(charset);
+    }
+
+    /** Encodes the String and writes it to the stream. */
+    public void write(String s, OutputStream outs) throws IOException {
+        if (kind == OTHER) {
+            outs.write(s.getBytes(charset));
+        } else {
+            write(s, 0, s.length(), outs);
+        }
+    }
+
+    /** Returns the number of bytes the String takes once encoded, without encoding it
+     * unless the encoding is neither UTF-8 nor a single-byte encoding. */
+    public int encodedLength(String s) {
+        if (kind == OTHER) {
+            return s.getBytes(charset).length;
+        }
+        final int len = s.length();
+        int n = 0;
+        for (int i = 0; i < len; i++) {
+            final char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                //A valid pair is a single character: 4 bytes in UTF-8, or a single replacement
+                n += kind == UTF8 ? 4 : 1;
+                i++;
+            } else if (kind != UTF8 || c < 0x80 || Character.isSurrogate(c)) {
+                n++;
+            } else {
+                n += c < 0x800 ? 2 : 3;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return charset.name();
+    }
+
+    private static boolean isAscii(byte[] buf, int pos, int len) {
+        for (int i = pos; i < pos + len; i++) {
+            if (buf[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns all the chars of the String OR'ed together, which is below 0x80 or 0x100
+     * only if every char is. */
+    private static int charBits(String s) {
+        int bits = 0;
+        for (int i = 0; i < s.length(); i++) {
+            bits |= s.charAt(i);
+        }
+        return bits;
+    }
+
+}
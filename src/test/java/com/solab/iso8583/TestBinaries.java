@@ -89,6 +89,50 @@ public class TestBinaries {
         Assert.assertTrue("LLVAR fields wrong", ascii.debugString().contains("03XXX"));
 	}
 
+    @Test
+    public void testLazyParsing() throws ParseException, UnsupportedEncodingException {
+        mfactAscii.setLazyParsing(true);
+        mfactBin.setLazyParsing(true);
+        final byte[] asciiBuf = mfactAscii.newMessage(0x600).writeData();
+        final byte[] binBuf = mfactBin.newMessage(0x600).writeData();
+        IsoMessage ascii = mfactAscii.parseMessage(asciiBuf, 0);
+        IsoMessage bin = mfactBin.parseMessage(binBuf, 0);
+        Assert.assertArrayEquals(asciiBuf, ascii.writeData());
+        Assert.assertArrayEquals(binBuf, bin.writeData());
+        testParsed(ascii);
+        testParsed(bin);
+        //Written with a different encoding than it was parsed
+        bin = mfactBin.parseMessage(binBuf, 0);
+        bin.setBinary(false);
+        Assert.assertEquals(ascii.debugString(), bin.debugString());
+        Assert.assertEquals(mfactAscii.parseMessage(bin.writeData(), 0).debugString(), ascii.debugString());
+    }
+
+    @Test
+    public void testAmounts() throws ParseException, UnsupportedEncodingException {
+        IsoMessage ascii = mfactAscii.parseMessage(mfactAscii.newMessage(0x600).writeData(), 0);
+        IsoMessage bin = mfactBin.parseMessage(mfactBin.newMessage(0x600).writeData(), 0);
+        Assert.assertTrue(ascii.<BigDecimal>getField(4) instanceof AmountIsoValue);
+        Assert.assertTrue(bin.<BigDecimal>getField(4) instanceof AmountIsoValue);
+        Assert.assertEquals(123400, ascii.getAmount(4));
+        Assert.assertEquals(123400, bin.getAmount(4));
+        Assert.assertEquals(123400, mfactAscii.newMessage(0x600).getAmount(4));
+        ascii.setAmount(4, 9876543);
+        bin.setAmount(4, 9876543);
+        Assert.assertEquals("000009876543", ascii.getField(4).toString());
+        ascii = mfactAscii.parseMessage(ascii.writeData(), 0);
+        bin = mfactBin.parseMessage(bin.writeData(), 0);
+        Assert.assertEquals(new BigDecimal("98765.43"), ascii.getObjectValue(4));
+        Assert.assertEquals(new BigDecimal("98765.43"), bin.getObjectValue(4));
+        Assert.assertEquals(9876543, bin.getAmount(4));
+        //Equal to a plain AMOUNT value, so it must hash the same
+        final IsoValue<BigDecimal> plain = new IsoValue<>(IsoType.AMOUNT, new BigDecimal("98765.43"));
+        Assert.assertEquals(plain, bin.getField(4));
+        Assert.assertEquals(plain.hashCode(), bin.getField(4).hashCode());
+        Assert.assertEquals(new IsoValue<>(IsoType.AMOUNT, new BigDecimal("-0.05")).hashCode(),
+                new AmountIsoValue(-5).hashCode());
+    }
+
     @Test
     public void testBinaryBitmap() throws UnsupportedEncodingException {
         IsoMessage iso1 = mfactAscii.newMessage(0x200);
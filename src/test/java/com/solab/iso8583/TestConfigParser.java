@@ -21,6 +21,49 @@ public class TestConfigParser {
         return mfact;
     }
 
+    @Test
+    public void testResponseProfile() throws IOException {
+        final MessageFactory<IsoMessage> mfact = config("config.xml");
+        final ResponseProfile profile = mfact.getResponseProfile(0x210);
+        Assert.assertNotNull(profile);
+        Assert.assertTrue(profile.isEchoed(12));
+        Assert.assertFalse(profile.isEchoed(35));
+        Assert.assertTrue(profile.isFromTemplate(70));
+        Assert.assertFalse(profile.isFromTemplate(100));
+        final IsoMessage req = mfact.newMessage(0x200);
+        req.setValue(11, "123456", IsoType.NUMERIC, 6);
+        final IsoMessage resp = mfact.createResponse(req);
+        for (int i = 2; i <= 128; i++) {
+            final boolean expected = i == 3 || i == 11 || i == 32 || i == 43 || i == 49
+                    || i == 60 || i == 70 || i == 90;
+            Assert.assertEquals("Field " + i, expected, resp.hasField(i));
+        }
+        Assert.assertEquals("123456", resp.getObjectValue(11));
+        Assert.assertEquals("Fixed data from template", resp.getObjectValue(60));
+        Assert.assertNotSame(req.getField(3), resp.getField(3));
+        //Without the profile, everything is copied
+        mfact.setResponseProfile(0x210, null);
+        Assert.assertTrue(mfact.createResponse(req).hasEveryField(35, 48, 61, 100, 102, 126));
+        //The MAC is not copied unless it's listed, with or without a profile
+        req.setValue(128, "0123456789ABCDEF", IsoType.ALPHA, 16);
+        Assert.assertFalse(mfact.createResponse(req).hasField(128));
+        final ResponseProfile dropOnly = ResponseProfile.fromLists(null, null, "35");
+        Assert.assertFalse(dropOnly.isEchoed(128));
+        Assert.assertTrue(dropOnly.isEchoed(127));
+        mfact.setResponseProfile(0x210, dropOnly);
+        final IsoMessage resp2 = mfact.createResponse(req);
+        Assert.assertFalse(resp2.hasField(128));
+        Assert.assertFalse(resp2.hasField(35));
+        Assert.assertTrue(resp2.hasEveryField(48, 61, 100, 102, 126));
+        mfact.setResponseProfile(0x210, ResponseProfile.fromLists("11,128", null, null));
+        Assert.assertTrue(mfact.createResponse(req).hasField(128));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFieldList() {
+        ResponseProfile.fromLists("2-4,129", null, null);
+    }
+
     @Test
     public void testParser() throws IOException, ParseException {
         final MessageFactory<IsoMessage> mfact = config("config.xml");
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
 
@@ -176,4 +177,41 @@ public class TestEbcdic {
         Assert.assertEquals("800", iso.getObjectValue(39));
     }
 
+    @Test
+    public void testRoundTrip() throws IOException, ParseException {
+        MessageFactory<IsoMessage> mfact = new MessageFactory<IsoMessage>();
+        mfact.setUseLongNumerics(true);
+        HashMap<Integer, FieldParseInfo> pinfo = new HashMap<Integer, FieldParseInfo>();
+        pinfo.put(4, new AmountParseInfo());
+        pinfo.put(7, new Date10ParseInfo());
+        pinfo.put(11, new NumericParseInfo(6));
+        pinfo.put(44, new LlvarParseInfo());
+        pinfo.put(102, new LllvarParseInfo());
+        mfact.setParseMap(0x210, pinfo);
+        mfact.setCharacterEncoding("Cp1047");
+        mfact.setForceStringEncoding(true);
+        final IsoMessage msg = mfact.newMessage(0x210);
+        msg.setAmount(4, 1234567);
+        msg.setValue(7, new Date(96867296000L), IsoType.DATE10, 10);
+        msg.setLong(11, 4321, 6);
+        msg.setValue(44, "Respuesta aprobada", IsoType.LLVAR, 0);
+        msg.setValue(102, "ABC-123", IsoType.LLLVAR, 0);
+        final byte[] enc = msg.writeData();
+        //Everything is EBCDIC, so there can't be any ASCII digits
+        for (byte b : enc) {
+            Assert.assertFalse(b >= '0' && b <= '9');
+        }
+        Assert.assertEquals("0210", new String(enc, 0, 4, "Cp1047"));
+        final IsoMessage m2 = mfact.parseMessage(enc, 0);
+        Assert.assertEquals(0x210, m2.getType());
+        Assert.assertEquals(1234567, m2.getAmount(4));
+        Assert.assertEquals(new SimpleDateFormat("MMddHHmmss").format(new Date(96867296000L)),
+                m2.getField(7).toString());
+        Assert.assertEquals(4321, m2.getLong(11));
+        Assert.assertEquals("Respuesta aprobada", m2.getObjectValue(44));
+        Assert.assertEquals("ABC-123", m2.getObjectValue(102));
+        m2.setForceStringEncoding(true);
+        Assert.assertArrayEquals(enc, m2.writeData());
+    }
+
 }
@@ -1,7 +1,12 @@
 package com.solab.iso8583;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
 
 import org.junit.Assert;
@@ -38,6 +43,42 @@ public class TestFormats {
         Assert.assertEquals("730126043456", IsoType.DATE12.format(date, gmt));
 	}
 
+	@Test
+	public void testCachedDateFormats() throws IOException {
+		//Compare with SimpleDateFormat around the year change and across timezones
+		TimeZone[] zones = { TimeZone.getTimeZone("GMT"), TimeZone.getTimeZone("America/New_York"),
+				TimeZone.getTimeZone("Asia/Kolkata") };
+		SimpleDateFormat sdf = new SimpleDateFormat("yyMMddHHmmss");
+		for (TimeZone tz : zones) {
+			sdf.setTimeZone(tz);
+			for (long t = 1419984000000L; t < 1420156800000L; t += 2017000L) {
+				Date d = new Date(t);
+				Assert.assertEquals(sdf.format(d), IsoType.DATE12.format(d, tz));
+				Assert.assertEquals(sdf.format(d).substring(6), IsoType.TIME.format(d, tz));
+			}
+		}
+		//The binary value is written from the same digits
+		IsoValue<Date> v = new IsoValue<>(IsoType.DATE10, date);
+		v.setTimeZone(TimeZone.getTimeZone("America/Mexico_City"));
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		v.write(bout, true, false);
+		Assert.assertArrayEquals(new byte[]{ 0x01, 0x25, 0x21, 0x34, 0x56 }, bout.toByteArray());
+		bout.reset();
+		v.write(bout, false, false);
+		Assert.assertEquals("0125213456", bout.toString());
+		//A null timezone follows the current default
+		final TimeZone def = TimeZone.getDefault();
+		try {
+			for (TimeZone tz : zones) {
+				TimeZone.setDefault(tz);
+				sdf.setTimeZone(tz);
+				Assert.assertEquals(sdf.format(date), IsoType.DATE12.format(date, null));
+			}
+		} finally {
+			TimeZone.setDefault(def);
+		}
+	}
+
 	@Test
 	public void testNumericFormats() {
 		assert IsoType.NUMERIC.format(123, 6).equals("000123");
@@ -57,4 +98,32 @@ public class TestFormats {
         assert IsoType.LLLLVAR.format("HOLA", 0).equals("HOLA");
 	}
 
+	@Test
+	public void testDirectTextWrites() throws IOException {
+		final List<IsoValue<?>> values = Arrays.asList(
+				new IsoValue<>(IsoType.ALPHA, "hola", 3),
+				new IsoValue<>(IsoType.ALPHA, "Año", 6),
+				new IsoValue<>(IsoType.NUMERIC, "123", 6),
+				new IsoValue<>(IsoType.AMOUNT, new BigDecimal("12345.67")),
+				new IsoValue<>(IsoType.BINARY, new byte[]{ 1, (byte)0xab }, 4),
+				new IsoValue<>(IsoType.BINARY, new byte[]{ 1, 2, 3 }, 2),
+				new IsoValue<>(IsoType.LLBIN, new byte[]{ (byte)0xfe, 0x10 }),
+				new IsoValue<>(IsoType.LLLVAR, "€uro"));
+		for (String enc : Arrays.asList("UTF-8", "ISO-8859-1", "Cp1047")) {
+			for (IsoValue<?> v : values) {
+				v.setCharacterEncoding(enc);
+				ByteArrayOutputStream bout = new ByteArrayOutputStream();
+				v.write(bout, false, true);
+				String expected = v.toString();
+				if (v.getType() == IsoType.LLBIN) {
+					expected = "04" + expected;
+				} else if (v.getType() == IsoType.LLLVAR) {
+					expected = "004" + expected;
+				}
+				Assert.assertArrayEquals(enc + " " + v.getType(), expected.getBytes(enc), bout.toByteArray());
+				Assert.assertEquals(bout.size(), v.encodedLength(false, true));
+			}
+		}
+	}
+
 }
@@ -1,9 +1,17 @@
 package com.solab.iso8583;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
 import java.util.List;
 
 import org.junit.Assert;
@@ -111,6 +119,248 @@ public class TestIsoMessage {
         testFields(iso, fields);
 	}
 
+	@Test
+	public void testLazyParsing() throws IOException, ParseException {
+		InputStream ins = getClass().getResourceAsStream("/parse1.txt");
+		final byte[] buf = new byte[400];
+		int pos = 0;
+		while (ins.available() > 0) {
+			buf[pos++] = (byte)ins.read();
+		}
+		ins.close();
+		final int hlen = mf.getIsoHeader(0x210).length();
+		final IsoMessage eager = mf.parseMessage(buf, hlen);
+		mf.setLazyParsing(true);
+		IsoMessage lazy = mf.parseMessage(buf, hlen);
+		testFields(lazy, Arrays.asList(3, 4, 7, 11, 12, 13, 15, 17, 32, 35, 37, 38, 39, 41, 43, 49, 60, 61, 100, 102, 126));
+		Assert.assertTrue(lazy.isFieldPending(43));
+		//Fields 0 and 1 are never set
+		Assert.assertNull(lazy.getField(0));
+		Assert.assertNull(lazy.getField(1));
+		Assert.assertNull(new IsoMessage().getField(1));
+		Assert.assertFalse(lazy.isFieldPending(1));
+		//Unread fields are copied as they came
+		Assert.assertArrayEquals(eager.writeData(), lazy.writeData());
+		Assert.assertEquals((Object)eager.getObjectValue(4), lazy.getObjectValue(4));
+		Assert.assertEquals(eager.getField(43), lazy.getField(43));
+		Assert.assertFalse(lazy.isFieldPending(43));
+		Assert.assertTrue(lazy.isFieldPending(41));
+		Assert.assertEquals(eager.debugString(), lazy.debugString());
+		//Changed fields are encoded again
+		lazy = mf.parseMessage(buf, hlen);
+		lazy.setValue(41, "TERM0002", IsoType.ALPHA, 16);
+		eager.setValue(41, "TERM0002", IsoType.ALPHA, 16);
+		Assert.assertArrayEquals(eager.writeData(), lazy.writeData());
+	}
+
+	@Test
+	public void testRawPassthrough() throws IOException, ParseException {
+		InputStream ins = getClass().getResourceAsStream("/parse1.txt");
+		final byte[] buf = new byte[400];
+		int pos = 0;
+		while (ins.available() > 0) {
+			buf[pos++] = (byte)ins.read();
+		}
+		ins.close();
+		final int hlen = mf.getIsoHeader(0x210).length();
+		final IsoMessage eager = mf.parseMessage(buf, hlen);
+		mf.setRawPassthrough(true);
+		final IsoMessage raw = mf.parseMessage(buf, hlen);
+		//Decoded fields are still written from their original bytes
+		for (int i = 2; i <= 128; i++) {
+			if (raw.hasField(i)) {
+				Assert.assertEquals(eager.getField(i).toString(), raw.getField(i).toString());
+				Assert.assertFalse(raw.isFieldDirty(i));
+			}
+		}
+		final byte[] data = raw.writeData();
+		Assert.assertArrayEquals(Arrays.copyOf(buf, data.length), data);
+		Assert.assertArrayEquals(eager.writeData(), data);
+		Assert.assertEquals(data.length, raw.encodedLength());
+		//Only the fields that are set are encoded again
+		raw.setValue(41, "TERM0002", IsoType.ALPHA, 16);
+		eager.setValue(41, "TERM0002", IsoType.ALPHA, 16);
+		Assert.assertTrue(raw.isFieldDirty(41));
+		Assert.assertFalse(raw.isFieldDirty(43));
+		Assert.assertArrayEquals(eager.writeData(), raw.writeData());
+		raw.markFieldDirty(43);
+		Assert.assertTrue(raw.isFieldDirty(43));
+		Assert.assertArrayEquals(eager.writeData(), raw.writeData());
+		//Same thing with lazy parsing
+		mf.setLazyParsing(true);
+		final IsoMessage lazy = mf.parseMessage(buf, hlen);
+		Assert.assertEquals(eager.getField(43), lazy.getField(43));
+		Assert.assertFalse(lazy.isFieldDirty(43));
+		Assert.assertArrayEquals(Arrays.copyOf(buf, data.length), lazy.writeData());
+		Assert.assertTrue(mf.newMessage(0x200).isFieldDirty(3));
+	}
+
+	@Test
+	public void testLongNumerics() throws IOException, ParseException {
+		InputStream ins = getClass().getResourceAsStream("/parse1.txt");
+		final byte[] buf = new byte[400];
+		int pos = 0;
+		while (ins.available() > 0) {
+			buf[pos++] = (byte)ins.read();
+		}
+		ins.close();
+		final int hlen = mf.getIsoHeader(0x210).length();
+		final IsoMessage strings = mf.parseMessage(buf, hlen);
+		mf.setUseLongNumerics(true);
+		final IsoMessage longs = mf.parseMessage(buf, hlen);
+		Assert.assertTrue(longs.<Long>getField(11) instanceof LongIsoValue);
+		Assert.assertEquals(Long.parseLong((String)strings.getObjectValue(11)), longs.getLong(11));
+		Assert.assertEquals(strings.getLong(3), longs.getLong(3));
+		Assert.assertEquals(strings.getField(37).toString(), longs.getField(37).toString());
+		Assert.assertArrayEquals(strings.writeData(), longs.writeData());
+		//Set and write a long value in text and binary
+		final IsoMessage text = mf.newMessage(0x200);
+		text.setLong(11, 42, 6);
+		Assert.assertEquals("000042", text.getField(11).toString());
+		Assert.assertEquals(42, mf.parseMessage(text.writeData(), hlen).getLong(11));
+		final IsoMessage bin = new IsoMessage(mf.getIsoHeader(0x200));
+		bin.setType(0x200);
+		bin.setBinary(true);
+		bin.setLong(3, 650000, 6);
+		bin.setLong(11, 12345, 6);
+		mf.setUseBinaryMessages(true);
+		final IsoMessage bin2 = mf.parseMessage(bin.writeData(), hlen);
+		Assert.assertTrue(bin2.<Long>getField(3) instanceof LongIsoValue);
+		Assert.assertEquals(650000, bin2.getLong(3));
+		Assert.assertEquals(12345, bin2.getLong(11));
+		//Equal to a plain NUMERIC value, so it must hash the same
+		final IsoValue<Long> plain = new IsoValue<>(IsoType.NUMERIC, 12345L, 6);
+		Assert.assertEquals(plain, bin2.getField(11));
+		Assert.assertEquals(plain.hashCode(), bin2.getField(11).hashCode());
+		Assert.assertEquals("000042".hashCode(), new LongIsoValue(42, 6).hashCode());
+	}
+
+	@Test
+	public void testEncodedLength() throws IOException, ParseException {
+		InputStream ins = getClass().getResourceAsStream("/parse1.txt");
+		final byte[] buf = new byte[400];
+		int pos = 0;
+		while (ins.available() > 0) {
+			buf[pos++] = (byte)ins.read();
+		}
+		ins.close();
+		final int hlen = mf.getIsoHeader(0x210).length();
+		final IsoMessage parsed = mf.parseMessage(buf, hlen);
+		mf.setLazyParsing(true);
+		final IsoMessage lazy = mf.parseMessage(buf, hlen);
+		final IsoMessage text = mf.newMessage(0x200);
+		text.setValue(43, "Caf\u00e9 \u00f1and\u00fa", IsoType.ALPHA, 40);
+		text.setValue(102, "\u20ac12345", IsoType.LLVAR, 0);
+		text.setValue(4, new BigDecimal("12.34"), IsoType.AMOUNT, 0);
+		text.setValue(7, new Date(), IsoType.DATE10, 0);
+		final IsoMessage bin = mf.newMessage(0x200);
+		bin.setBinary(true);
+		bin.setEtx(3);
+		bin.setValue(4, new BigDecimal("12.34"), IsoType.AMOUNT, 0);
+		bin.setValue(7, new Date(), IsoType.DATE10, 0);
+		bin.setValue(52, new byte[]{ 1, 2, 3 }, IsoType.BINARY, 8);
+		bin.setValue(55, new byte[]{ 1, 2, 3, 4, 5 }, IsoType.LLLBIN, 0);
+		bin.setLong(11, 12345, 6);
+		for (IsoMessage m : Arrays.asList(parsed, lazy, text, bin)) {
+			final int len = m.encodedLength();
+			Assert.assertEquals(m.writeData().length, len);
+			final ByteBuffer expected = m.writeToBuffer(2);
+			Assert.assertEquals(len + 2 + (m == bin ? 1 : 0), expected.remaining());
+			for (ByteBuffer dst : Arrays.asList(ByteBuffer.allocate(500),
+					ByteBuffer.allocateDirect(500))) {
+				dst.put((byte)9);
+				Assert.assertEquals(expected.remaining(), m.writeTo(dst, 2));
+				dst.flip();
+				Assert.assertEquals(9, dst.get());
+				Assert.assertEquals(expected, dst);
+			}
+		}
+		//Nothing is written if the message doesn't fit
+		final ByteBuffer small = ByteBuffer.allocate(20);
+		try {
+			text.writeTo(small, 2);
+			Assert.fail("Message should not fit in 20 bytes");
+		} catch (BufferOverflowException ex) {
+			Assert.assertEquals(0, small.position());
+		}
+		//Nor if a field fails to encode halfway
+		final IsoMessage bad = mf.newMessage(0x200);
+		bad.setValue(3, "12345678", IsoType.NUMERIC, 6);
+		final ByteBuffer big = ByteBuffer.allocate(500);
+		big.put((byte)1);
+		try {
+			bad.writeTo(big, 2);
+			Assert.fail("Numeric value is too long");
+		} catch (IllegalArgumentException ex) {
+			Assert.assertEquals(1, big.position());
+		}
+		//A subclass that appends a trailer in writeData gets the same bytes everywhere
+		final IsoMessage mac = new IsoMessage() {
+			@Override
+			public byte[] writeData() {
+				final byte[] data = super.writeData();
+				final byte[] withMac = Arrays.copyOf(data, data.length + 4);
+				Arrays.fill(withMac, data.length, withMac.length, (byte)'M');
+				return withMac;
+			}
+		};
+		mac.setType(0x200);
+		mac.setValue(3, "650000", IsoType.NUMERIC, 6);
+		final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		mac.write(bout, 2);
+		Assert.assertEquals(ByteBuffer.wrap(bout.toByteArray()), mac.writeToBuffer(2));
+		final ByteBuffer dst = ByteBuffer.allocate(100);
+		Assert.assertEquals(bout.size(), mac.writeTo(dst, 2));
+		dst.flip();
+		Assert.assertEquals(ByteBuffer.wrap(bout.toByteArray()), dst);
+		//Same with the stream hook
+		final IsoMessage trailer = new IsoMessage() {
+			@Override
+			protected void writeData(OutputStream outs) throws IOException {
+				super.writeData(outs);
+				outs.write('T');
+			}
+		};
+		trailer.setType(0x200);
+		trailer.setValue(3, "650000", IsoType.NUMERIC, 6);
+		bout.reset();
+		trailer.write(bout, 2);
+		Assert.assertEquals(ByteBuffer.wrap(bout.toByteArray()), trailer.writeToBuffer(2));
+	}
+
+	@Test
+	public void testBitmapBitSet() {
+		final IsoMessage plain = new IsoMessage();
+		final IsoMessage sub = new IsoMessage() {};
+		//Always send the secondary bitmap
+		final IsoMessage forced = new IsoMessage() {
+			@Override
+			protected BitSet createBitmapBitSet() {
+				final BitSet bs = super.createBitmapBitSet();
+				final BitSet b2 = new BitSet(128);
+				b2.or(bs);
+				b2.set(0);
+				return b2;
+			}
+		};
+		for (IsoMessage m : Arrays.asList(plain, sub, forced)) {
+			m.setType(0x200);
+			m.setValue(3, "650000", IsoType.NUMERIC, 6);
+			m.setValue(100, "ABC", IsoType.LLVAR, 0);
+		}
+		Assert.assertArrayEquals(plain.writeData(), sub.writeData());
+		Assert.assertEquals("0200A000000000000000" + "0000000010000000" + "65000003ABC",
+				new String(plain.writeData()));
+		plain.setValue(100, null, IsoType.LLVAR, 0);
+		forced.setValue(100, null, IsoType.LLVAR, 0);
+		Assert.assertEquals("0200A000000000000000" + "0000000000000000" + "650000",
+				new String(forced.writeData()));
+		forced.setBinary(true);
+		plain.setBinary(true);
+		plain.setForceSecondaryBitmap(true);
+		Assert.assertArrayEquals(plain.writeData(), forced.writeData());
+	}
+
 	@Test
 	public void testTemplating() {
 		IsoMessage iso1 = mf.newMessage(0x200);
@@ -127,6 +377,59 @@ public class TestIsoMessage {
         Assert.assertEquals(cf48_2.getValue2(), origv + 1000);
 	}
 
+	@Test
+	public void testPreEncodedTemplates() {
+		final IsoMessage cloned = mf.newMessage(0x200);
+		final IsoMessage response = mf.createResponse(mf.newMessage(0x400));
+		mf.setPreEncodeTemplates(true);
+		IsoMessage iso1 = mf.newMessage(0x200);
+		IsoMessage iso2 = mf.newMessage(0x200);
+		//Constant fields are shared, fields with custom objects are still copied
+		Assert.assertSame(iso1.getField(3), iso2.getField(3));
+		Assert.assertSame(iso1.getField(43), iso2.getField(43));
+		Assert.assertNotSame(iso1.getField(48), iso2.getField(48));
+		Assert.assertArrayEquals(cloned.writeData(), iso1.writeData());
+		Assert.assertEquals(cloned.encodedLength(), iso1.encodedLength());
+		Assert.assertArrayEquals(response.writeData(), mf.createResponse(mf.newMessage(0x400)).writeData());
+		//Setting a field only changes that message
+		iso1.setValue(3, "999999", IsoType.NUMERIC, 6);
+		Assert.assertEquals("650000", iso2.getObjectValue(3));
+		Assert.assertEquals("650000", mf.getMessageTemplate(0x200).getObjectValue(3));
+		Assert.assertNotSame(iso2.getField(3), iso2.getField(3).clone());
+		iso2.getField(3).clone().setCharacterEncoding("ISO-8859-1");
+		//Changing the encoding encodes the templates again
+		mf.setCharacterEncoding("Cp1047");
+		iso1 = mf.newMessage(0x200);
+		Assert.assertEquals("Cp1047", iso1.getField(3).getCharacterEncoding());
+		Assert.assertSame(iso1.getField(3), mf.newMessage(0x200).getField(3));
+		mf.setPreEncodeTemplates(false);
+		Assert.assertNotSame(mf.newMessage(0x200).getField(3), mf.newMessage(0x200).getField(3));
+	}
+
+    @Test
+    public void testFieldIteration() {
+        final IsoMessage m = mf.newMessage(0x200);
+        m.setValue(70, "301", IsoType.NUMERIC, 3);
+        final Integer[] all = m.getAllFields();
+        Assert.assertEquals(all.length, m.getFieldCount());
+        int n = 0;
+        for (int i = m.nextField(0); i > 0; i = m.nextField(i + 1)) {
+            Assert.assertEquals(all[n++].intValue(), i);
+        }
+        Assert.assertEquals(all.length, n);
+        Assert.assertEquals(70, m.nextField(66));
+        Assert.assertEquals(-1, m.nextField(all[all.length - 1] + 1));
+        final List<Integer> visited = new ArrayList<>();
+        m.forEachField((v, i) -> {
+            Assert.assertSame(m.getField(i), v);
+            visited.add(i);
+        });
+        Assert.assertEquals(Arrays.asList(all), visited);
+        m.removeFields(70, 3);
+        Assert.assertEquals(all.length - 2, m.getFieldCount());
+        Assert.assertFalse(m.hasAnyField(3, 70));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testSimpleFieldSetter() {
         IsoMessage iso = mf.newMessage(0x200);
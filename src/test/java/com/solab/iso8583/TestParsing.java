@@ -2,14 +2,21 @@ package com.solab.iso8583;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.TimeZone;
 
 import com.solab.iso8583.codecs.CompositeField;
+import com.solab.iso8583.parse.FieldParseInfo;
 import com.solab.iso8583.parse.NumericParseInfo;
+import com.solab.iso8583.parse.ParseError;
+import com.solab.iso8583.parse.ParsePlan;
+import com.solab.iso8583.util.Bitmap;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -136,4 +143,357 @@ public class TestParsing {
         Assert.assertEquals(14, cal.get(Calendar.HOUR_OF_DAY));
     }
 
+    @Test
+    public void testParseWindow() throws ParseException, UnsupportedEncodingException {
+        final IsoMessage m1 = mf.newMessage(0x200);
+        final byte[] data = m1.writeData();
+        final int hlen = mf.getIsoHeader(0x200).length();
+        //Surround the message with garbage, as in a receive buffer
+        final byte[] buf = new byte[data.length + 20];
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] = (byte)'9';
+        }
+        System.arraycopy(data, 0, buf, 7, data.length);
+        IsoMessage m2 = mf.parseMessage(buf, 7, data.length, hlen, false);
+        Assert.assertEquals(0x200, m2.getType());
+        Assert.assertEquals(m1.debugString(), m2.debugString());
+        Assert.assertArrayEquals(data, m2.writeData());
+        //Heap buffer slice
+        ByteBuffer bb = ByteBuffer.wrap(buf, 7, data.length);
+        m2 = mf.parseMessage(bb, hlen);
+        Assert.assertEquals(m1.debugString(), m2.debugString());
+        Assert.assertEquals(7, bb.position());
+        //Direct buffer
+        bb = ByteBuffer.allocateDirect(buf.length);
+        bb.put(buf);
+        bb.position(7);
+        bb.limit(7 + data.length);
+        m2 = mf.parseMessage(bb, hlen);
+        Assert.assertEquals(m1.debugString(), m2.debugString());
+        //Parsing another message from a direct buffer reuses the copy, without changing the first
+        final IsoMessage other = mf.newMessage(0x200);
+        other.setValue(41, "OTHERTRM", IsoType.ALPHA, 16);
+        final ByteBuffer bb2 = ByteBuffer.allocateDirect(500);
+        bb2.put(other.writeData());
+        bb2.flip();
+        Assert.assertEquals(other.debugString(), mf.parseMessage(bb2, hlen).debugString());
+        Assert.assertEquals(m1.debugString(), m2.debugString());
+        //Lazily parsed messages keep their own copy of the data
+        mf.setLazyParsing(true);
+        m2 = mf.parseMessage(bb, hlen);
+        mf.parseMessage(bb2, hlen);
+        Assert.assertArrayEquals(data, m2.writeData());
+        Assert.assertEquals(m1.debugString(), m2.debugString());
+        mf.setLazyParsing(false);
+    }
+
+    @Test(expected=ParseException.class)
+    public void testParseWindowTruncated() throws ParseException, UnsupportedEncodingException {
+        final IsoMessage m1 = mf.newMessage(0x200);
+        final byte[] data = m1.writeData();
+        //The last field is cut off by the window even though the array has the data
+        mf.parseMessage(data, 0, data.length - 2, mf.getIsoHeader(0x200).length(), false);
+    }
+
+    @Test(expected=ParseException.class)
+    public void testUnknownField() throws ParseException, UnsupportedEncodingException {
+        final Map<Integer, FieldParseInfo> guide = new HashMap<>();
+        guide.put(3, new NumericParseInfo(6));
+        mf.setParseMap(0x100, guide);
+        //Field 4 is in the bitmap but not in the parse guide
+        mf.parseMessage("01003000000000000000000000000000001000".getBytes(), 0);
+    }
+
+    @Test
+    public void testParsePlan() {
+        final ParsePlan plan = mf.getParsePlan(0x200);
+        Assert.assertNotNull(plan);
+        Assert.assertNull(mf.getParsePlan(0x1234));
+        Assert.assertNull(mf.getParsePlan(-1));
+        Assert.assertTrue(plan.allows(3));
+        Assert.assertFalse(plan.allows(1));
+        Assert.assertTrue(plan.getDecoder(48) instanceof CustomField48);
+        //Custom fields set after the guide are picked up
+        mf.setCustomField(61, new CustomField48());
+        Assert.assertTrue(mf.getParsePlan(0x200).getDecoder(61) instanceof CustomField48);
+        for (int i = 1; i < plan.getFieldCount(); i++) {
+            Assert.assertTrue(plan.getField(i - 1) < plan.getField(i));
+        }
+    }
+
+    @Test
+    public void testProjection() throws ParseException, UnsupportedEncodingException {
+        final IsoMessage m1 = mf.newMessage(0x200);
+        final byte[] data = m1.writeData();
+        final Bitmap mask = new Bitmap();
+        mask.set(3);
+        mask.set(11);
+        mask.set(102);
+        final IsoMessage m2 = mf.parseMessage(data, mf.getIsoHeader(0x200).length(), mask);
+        Assert.assertEquals(0x200, m2.getType());
+        for (int i = 2; i < 129; i++) {
+            if (mask.get(i) && m1.hasField(i)) {
+                Assert.assertEquals(m1.getField(i).toString(), m2.getField(i).toString());
+            } else {
+                Assert.assertFalse("Field " + i + " should not be there", m2.hasField(i));
+            }
+        }
+        Assert.assertTrue(m2.hasField(3));
+    }
+
+    @Test
+    public void testPeek() throws ParseException, UnsupportedEncodingException {
+        final IsoMessage m1 = mf.newMessage(0x200);
+        m1.setValue(11, "004321", IsoType.NUMERIC, 6);
+        m1.setValue(37, "000012345678", IsoType.NUMERIC, 12);
+        m1.setValue(41, "TERM01", IsoType.ALPHA, 16);
+        final int hlen = mf.getIsoHeader(0x200).length();
+        final byte[] data = m1.writeData();
+        Assert.assertEquals(0x200, mf.peekType(data, hlen));
+        Assert.assertEquals(4321, mf.peekNumber(data, hlen, 11));
+        Assert.assertEquals(12345678, mf.peekNumber(data, hlen, 37));
+        long range = mf.peekField(data, hlen, 41);
+        Assert.assertEquals(16, MessageFactory.rangeLength(range));
+        Assert.assertEquals("TERM01          ", new String(data, MessageFactory.rangeStart(range), 16, "UTF-8"));
+        //Variable length fields don't include the length header
+        range = mf.peekField(data, hlen, 102);
+        Assert.assertEquals("ABCD", new String(data, MessageFactory.rangeStart(range),
+                MessageFactory.rangeLength(range), "UTF-8"));
+        //Missing fields and invalid data
+        Assert.assertEquals(-1, mf.peekField(data, hlen, 12));
+        Assert.assertEquals(-1, mf.peekNumber(data, hlen, 43));
+        Assert.assertEquals(-1, mf.peekType(new byte[3], 0));
+        Assert.assertEquals(-1, mf.peekField("0210B23A8001ZEA08018000000001400000465000".getBytes(), 0, 3));
+        Assert.assertEquals(-1, mf.peekField("0210B23A80012EA08018000000001400000465000".getBytes(), 0, 4));
+        //Binary messages
+        mf.setUseBinaryMessages(true);
+        final IsoMessage bin = new IsoMessage();
+        bin.setType(0x200);
+        bin.setBinary(true);
+        bin.setValue(3, "650000", IsoType.NUMERIC, 6);
+        bin.setValue(11, "987654", IsoType.NUMERIC, 6);
+        bin.setValue(32, "456", IsoType.LLVAR, 0);
+        bin.setValue(37, "000012345678", IsoType.NUMERIC, 12);
+        final byte[] bdata = bin.writeData();
+        Assert.assertEquals(0x200, mf.peekType(bdata, 0));
+        Assert.assertEquals(987654, mf.peekNumber(bdata, 0, 11));
+        Assert.assertEquals(12345678, mf.peekNumber(bdata, 0, 37));
+        range = mf.peekField(bdata, 0, 32);
+        Assert.assertEquals("456", new String(bdata, MessageFactory.rangeStart(range),
+                MessageFactory.rangeLength(range), "UTF-8"));
+        //A frame inside a larger buffer; the range is relative to the whole buffer
+        final byte[] framed = new byte[bdata.length + 10];
+        System.arraycopy(bdata, 0, framed, 4, bdata.length);
+        Assert.assertEquals(0x200, mf.peekType(framed, 4, bdata.length, 0));
+        Assert.assertEquals(987654, mf.peekNumber(framed, 4, bdata.length, 0, 11));
+        range = mf.peekField(framed, 4, bdata.length, 0, 32);
+        Assert.assertEquals("456", new String(framed, MessageFactory.rangeStart(range),
+                MessageFactory.rangeLength(range), "UTF-8"));
+        //Fields past the end of the frame are not read
+        Assert.assertEquals(-1, mf.peekNumber(framed, 4, bdata.length - 1, 0, 37));
+        Assert.assertEquals(-1, mf.peekType(framed, 4, 1, 0));
+        try {
+            mf.peekType(framed, 4, framed.length, 0);
+            Assert.fail("Window outside the buffer");
+        } catch (IndexOutOfBoundsException expected) {
+            //ok
+        }
+    }
+
+    @Test
+    public void testParseResult() throws ParseException, UnsupportedEncodingException {
+        final ParseResult<IsoMessage> result = new ParseResult<>();
+        Assert.assertFalse(mf.parseMessage(new byte[20], 8, result));
+        Assert.assertEquals(ParseError.MESSAGE_TOO_SHORT, result.getError());
+        Assert.assertFalse(mf.parseMessage("0210B23A80012EA08018000000001400000465000".getBytes(), 0, result));
+        Assert.assertEquals(ParseError.INSUFFICIENT_DATA, result.getError());
+        Assert.assertEquals(3, result.getField());
+        Assert.assertEquals(36, result.getOffset());
+        Assert.assertNull(result.getMessage());
+        Assert.assertFalse(mf.parseMessage("0210B23A8001ZEA08018000000001400000465000".getBytes(), 0, result));
+        Assert.assertEquals(ParseError.INVALID_BITMAP, result.getError());
+        final byte[] unknown = "01003000000000000000000000000000001000".getBytes();
+        Assert.assertFalse(mf.parseMessage(unknown, 0, result));
+        Assert.assertEquals(ParseError.NO_PARSE_GUIDE, result.getError());
+        Assert.assertEquals(0x100, result.getDetail());
+        final Map<Integer, FieldParseInfo> guide = new HashMap<>();
+        guide.put(3, new NumericParseInfo(6));
+        mf.setParseMap(0x100, guide);
+        Assert.assertFalse(mf.parseMessage(unknown, 0, result));
+        Assert.assertEquals(ParseError.UNKNOWN_FIELD, result.getError());
+        Assert.assertEquals(4, result.getField());
+        //All the unknown fields are kept for logging, the error is about the first one
+        Assert.assertFalse(mf.parseMessage("01003400000000000000000000000000001000".getBytes(), 0, result));
+        Assert.assertEquals(4, result.getField());
+        Assert.assertEquals(4, result.getUnknownFields().nextField(2));
+        Assert.assertEquals(6, result.getUnknownFields().nextField(5));
+        Assert.assertEquals(-1, result.getUnknownFields().nextField(7));
+        //The same result can be used for a valid message
+        final byte[] data = mf.newMessage(0x200).writeData();
+        Assert.assertTrue(mf.parseMessage(data, mf.getIsoHeader(0x200).length(), result));
+        Assert.assertTrue(result.isOk());
+        Assert.assertNull(result.getErrorMessage());
+        Assert.assertEquals(0x200, result.getMessage().getType());
+        Assert.assertEquals(mf.parseMessage(data, mf.getIsoHeader(0x200).length()).debugString(),
+                result.getMessage().debugString());
+    }
+
+    @Test
+    public void testParseInto() throws ParseException, UnsupportedEncodingException {
+        final int hlen = mf.getIsoHeader(0x200).length();
+        final IsoMessage req = mf.newMessage(0x200);
+        req.setValue(41, "TERM01", IsoType.ALPHA, 16);
+        final byte[] data = req.writeData();
+        final IsoMessage m = mf.newMessage(0x800);
+        m.setValue(70, "301", IsoType.NUMERIC, 3);
+        Assert.assertSame(m, mf.parseInto(m, data, hlen));
+        Assert.assertEquals(0x200, m.getType());
+        Assert.assertFalse(m.hasField(70));
+        Assert.assertEquals(mf.getIsoHeader(0x200), m.getIsoHeader());
+        Assert.assertEquals(mf.parseMessage(data, hlen).debugString(), m.debugString());
+        Assert.assertArrayEquals(data, m.writeData());
+        //Errors leave the message to be reset
+        final ParseResult<IsoMessage> result = new ParseResult<>();
+        Assert.assertFalse(mf.parseInto(m, new byte[20], 0, 20, 8, false, null, result));
+        Assert.assertNull(result.getMessage());
+        m.reset();
+        Assert.assertEquals(0, m.getType());
+        Assert.assertNull(m.getIsoHeader());
+        Assert.assertEquals(0, m.getAllFields().length);
+        //A reset message is set up like a new one
+        Assert.assertSame(m, mf.initMessage(m, 0x200));
+        Assert.assertEquals(mf.newMessage(0x200).getField(41), m.getField(41));
+        Assert.assertEquals(mf.getIsoHeader(0x200), m.getIsoHeader());
+    }
+
+    @Test
+    public void testCompile() throws Exception {
+        final int hlen = mf.getIsoHeader(0x200).length();
+        final byte[] req = mf.newMessage(0x200).writeData();
+        final String parsed = mf.parseMessage(req, hlen).debugString();
+        final String response = mf.createResponse(mf.parseMessage(req, hlen)).debugString();
+        Assert.assertFalse(mf.isCompiled());
+        Assert.assertSame(mf, mf.compile());
+        Assert.assertTrue(mf.isCompiled());
+        Assert.assertArrayEquals(req, mf.newMessage(0x200).writeData());
+        Assert.assertEquals(parsed, mf.parseMessage(req, hlen).debugString());
+        Assert.assertEquals(response, mf.createResponse(mf.parseMessage(req, hlen)).debugString());
+        Assert.assertTrue(mf.getParsePlan(0x200).getParser(3).isImmutable());
+        try {
+            mf.getParsePlan(0x200).getParser(3).setCharacterEncoding("UTF-16");
+            Assert.fail("Parsers should be immutable");
+        } catch (UnsupportedOperationException ex) {
+            //ok
+        }
+        try {
+            mf.setUseBinaryMessages(true);
+            Assert.fail("Factory should be immutable");
+        } catch (UnsupportedOperationException ex) {
+            //ok
+        }
+        //Changes to the original template don't affect the compiled factory
+        mf.getMessageTemplate(0x200).setValue(3, "999999", IsoType.NUMERIC, 6);
+        Assert.assertArrayEquals(req, mf.newMessage(0x200).writeData());
+        //Without pre-encoded templates, new messages get their own copies of the values
+        final IsoMessage copy = mf.newMessage(0x200);
+        Assert.assertNotSame(copy.getField(3), mf.newMessage(0x200).getField(3));
+        copy.getField(3).setTimeZone(TimeZone.getTimeZone("GMT"));
+        //Parse and create from several threads at the same time
+        final Thread[] threads = new Thread[4];
+        final Throwable[] errors = new Throwable[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int slot = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 500; i++) {
+                        Assert.assertEquals(parsed, mf.parseMessage(req, hlen).debugString());
+                        Assert.assertArrayEquals(req, mf.newMessage(0x200).writeData());
+                    }
+                } catch (Throwable ex) {
+                    errors[slot] = ex;
+                }
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            Assert.assertNull(errors[t]);
+        }
+    }
+
+    @Test
+    public void testMessagePool() throws ParseException, UnsupportedEncodingException {
+        final int hlen = mf.getIsoHeader(0x200).length();
+        final byte[] data = mf.newMessage(0x200).writeData();
+        final MessagePool<IsoMessage> pool = new MessagePool<>(mf, 4);
+        Assert.assertTrue(pool.getCapacity() >= 4);
+        Assert.assertEquals(0, pool.getIdleCount());
+        final IsoMessage m1 = pool.parseMessage(data, hlen);
+        Assert.assertArrayEquals(data, m1.writeData());
+        pool.release(m1);
+        Assert.assertEquals(1, pool.getIdleCount());
+        Assert.assertFalse(m1.hasField(3));
+        //The released message is reused
+        final IsoMessage m2 = pool.newMessage(0x200);
+        Assert.assertSame(m1, m2);
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertArrayEquals(mf.newMessage(0x200).writeData(), m2.writeData());
+        //A message set up for sending is parsed into as if it were new
+        m2.setEtx(3);
+        m2.setForceSecondaryBitmap(true);
+        m2.setForceStringEncoding(true);
+        pool.release(m2);
+        final IsoMessage m3 = pool.parseMessage(data, hlen);
+        Assert.assertSame(m2, m3);
+        Assert.assertFalse(m3.getForceSecondaryBitmap());
+        Assert.assertArrayEquals(data, m3.writeData());
+        Assert.assertArrayEquals(mf.parseMessage(data, hlen).writeData(), m3.writeData());
+        pool.release(m3);
+        Assert.assertSame(m3, pool.acquire());
+        //Failed parses give the message back
+        try {
+            pool.parseMessage(new byte[20], 8);
+            Assert.fail("Parsing should fail");
+        } catch (ParseException ex) {
+            Assert.assertEquals(1, pool.getIdleCount());
+        }
+        //The pool never holds more than its capacity
+        for (int i = 0; i < pool.getCapacity() + 3; i++) {
+            pool.release(new IsoMessage());
+        }
+        Assert.assertTrue(pool.getIdleCount() <= pool.getCapacity());
+    }
+
+    @Test
+    public void testMessagePoolProbe() {
+        //One thread only uses its own stripe and a few slots after it
+        final MessagePool<IsoMessage> pool = new MessagePool<>(mf, 1024);
+        for (int i = 0; i < pool.getCapacity(); i++) {
+            pool.release(new IsoMessage());
+        }
+        final int idle = pool.getIdleCount();
+        Assert.assertTrue(idle > 0);
+        Assert.assertTrue(idle <= pool.getCapacity());
+        for (int i = 0; i < idle; i++) {
+            pool.acquire();
+        }
+        Assert.assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testMessagePoolDoubleRelease() {
+        final MessagePool<IsoMessage> pool = new MessagePool<>(mf, 4);
+        final IsoMessage m = pool.acquire();
+        pool.release(m);
+        boolean checked = false;
+        try {
+            pool.release(m);
+        } catch (AssertionError ex) {
+            checked = true;
+        }
+        //Only detected when assertions are enabled, as they are in the tests
+        Assert.assertEquals(MessagePool.class.desiredAssertionStatus(), checked);
+        Assert.assertEquals(checked ? 1 : 2, pool.getIdleCount());
+    }
+
 }
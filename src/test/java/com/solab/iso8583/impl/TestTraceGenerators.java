@@ -0,0 +1,299 @@
+package com.solab.iso8583.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.MessageFactory;
+import com.solab.iso8583.TraceNumberGenerator;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Checks that the trace generators wrap around and never repeat a number within
+ * one cycle, even with several threads.
+ */
+public class TestTraceGenerators {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testAtomicWrap() {
+		final AtomicTraceGenerator gen = new AtomicTraceGenerator(999998);
+		Assert.assertEquals(999997, gen.getLastTrace());
+		Assert.assertEquals(999998, gen.nextTrace());
+		Assert.assertEquals(999999, gen.nextTrace());
+		Assert.assertEquals(1, gen.nextTrace());
+		Assert.assertEquals(1, gen.getLastTrace());
+	}
+
+	@Test
+	public void testStripedWrap() {
+		final StripedTraceGenerator gen = new StripedTraceGenerator(999998, 3);
+		Assert.assertEquals(0, gen.getLastTrace());
+		Assert.assertEquals(999998, gen.nextTrace());
+		Assert.assertEquals(999999, gen.nextTrace());
+		Assert.assertEquals(1, gen.nextTrace());
+		Assert.assertEquals(2, gen.nextTrace());
+		Assert.assertEquals(2, gen.getLastTrace());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBlock() {
+		new StripedTraceGenerator(1, 0);
+	}
+
+	@Test
+	public void testConcurrentUnique() throws Exception {
+		assertUnique(new AtomicTraceGenerator(1));
+		assertUnique(new StripedTraceGenerator(1, 100));
+		assertUnique(new SimpleTraceGenerator(1));
+		try (MappedTraceGenerator gen = new MappedTraceGenerator(tmp.newFile(), 1, 100)) {
+			assertUnique(gen);
+		}
+	}
+
+	@Test
+	public void testMappedRestart() throws IOException {
+		final File f = new File(tmp.getRoot(), "stan.seq");
+		try (MappedTraceGenerator gen = new MappedTraceGenerator(f, 999990, 8)) {
+			Assert.assertEquals(999990, gen.nextTrace());
+			Assert.assertEquals(999991, gen.nextTrace());
+			Assert.assertEquals(999991, gen.getLastTrace());
+		}
+		//The rest of the block is skipped and the initial value is ignored
+		try (MappedTraceGenerator gen = new MappedTraceGenerator(f, 5, 8)) {
+			Assert.assertEquals(999998, gen.nextTrace());
+			Assert.assertEquals(999999, gen.nextTrace());
+			Assert.assertEquals(1, gen.nextTrace());
+		}
+		//A torn write of one copy falls back to the other one
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			raf.seek(0);
+			raf.writeLong(123);
+			raf.seek(16);
+			raf.writeLong(456);
+			raf.writeLong(~456L);
+		}
+		try (MappedTraceGenerator gen = new MappedTraceGenerator(f, 1, 8)) {
+			Assert.assertEquals(457, gen.nextTrace());
+		}
+	}
+
+	@Test
+	public void testMappedShared() throws IOException {
+		final File f = tmp.newFile();
+		try (MappedTraceGenerator g1 = new MappedTraceGenerator(f, 1, 3);
+				MappedTraceGenerator g2 = new MappedTraceGenerator(f, 1, 3)) {
+			Assert.assertEquals(1, g1.nextTrace());
+			Assert.assertEquals(4, g2.nextTrace());
+			Assert.assertEquals(2, g1.nextTrace());
+			Assert.assertEquals(3, g1.nextTrace());
+			Assert.assertEquals(7, g1.nextTrace());
+			Assert.assertEquals(5, g2.nextTrace());
+		}
+	}
+
+	@Test
+	public void testMappedClose() throws IOException {
+		final File f = tmp.newFile();
+		final String path = f.getCanonicalPath();
+		final MappedTraceGenerator g1 = new MappedTraceGenerator(f, 1, 3);
+		final MappedTraceGenerator g2 = new MappedTraceGenerator(f, 1, 3);
+		g1.close();
+		g1.close();
+		Assert.assertTrue(MappedTraceGenerator.isInUse(path));
+		g2.close();
+		Assert.assertFalse(MappedTraceGenerator.isInUse(path));
+	}
+
+	@Test(expected = IOException.class)
+	public void testMappedInvalidFile() throws IOException {
+		final File f = tmp.newFile();
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			raf.writeLong(77);
+		}
+		new MappedTraceGenerator(f, 1, 10).close();
+	}
+
+	@Test
+	public void testJulianReference() {
+		final TimeZone utc = TimeZone.getTimeZone("UTC");
+		final JulianReferenceGenerator gen = new JulianReferenceGenerator(7, 1, utc, true);
+		final Calendar cal = Calendar.getInstance(utc);
+		final String prefix = String.format("%d%03d%02d", cal.get(Calendar.YEAR) % 10,
+				cal.get(Calendar.DAY_OF_YEAR), cal.get(Calendar.HOUR_OF_DAY));
+		final String ref = gen.nextReference();
+		Assert.assertEquals(12, ref.length());
+		if (ref.startsWith(prefix)) {
+			Assert.assertEquals(prefix + "700001", ref);
+		}
+		final String ref2 = gen.nextReference();
+		if (ref2.startsWith(ref.substring(0, 6))) {
+			Assert.assertEquals(ref.substring(0, 7) + "00002", ref2);
+		}
+		Assert.assertEquals(99999, gen.getCapacity());
+		Assert.assertTrue(gen.isDayAndHour());
+		//The default layout has the hour of the year and one more digit for the sequence
+		final JulianReferenceGenerator compact = new JulianReferenceGenerator(42, 2, utc);
+		final String hourPrefix = String.format("%d%04d", cal.get(Calendar.YEAR) % 10,
+				((cal.get(Calendar.DAY_OF_YEAR) - 1) * 24) + cal.get(Calendar.HOUR_OF_DAY));
+		final String ref3 = compact.nextReference();
+		Assert.assertEquals(12, ref3.length());
+		if (ref3.startsWith(hourPrefix)) {
+			Assert.assertEquals(hourPrefix + "4200001", ref3);
+		}
+		Assert.assertFalse(compact.isDayAndHour());
+		Assert.assertEquals(99999, new JulianReferenceGenerator(1).getCapacity());
+		Assert.assertEquals(9999, new JulianReferenceGenerator(1, 2, utc, true).getCapacity());
+		//No node digits
+		Assert.assertTrue(new JulianReferenceGenerator(0, 0, utc).nextReference().endsWith("0000001"));
+		//Unique across threads
+		final Set<String> refs = new HashSet<>();
+		final JulianReferenceGenerator shared = new JulianReferenceGenerator(42);
+		final Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 2000; i++) {
+					final String r = shared.nextReference();
+					synchronized (refs) {
+						refs.add(r);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException ex) {
+				Assert.fail("Interrupted");
+			}
+		}
+		Assert.assertEquals(8000, refs.size());
+	}
+
+	@Test
+	public void testJulianReferenceExhausted() {
+		//Five node digits leave room for 9 references per hour with YDDDHH
+		final JulianReferenceGenerator gen = new JulianReferenceGenerator(12345, 5,
+				TimeZone.getTimeZone("UTC"), true);
+		Assert.assertEquals(9, gen.getCapacity());
+		final long hour = System.currentTimeMillis() / 3600000L;
+		final Set<String> refs = new HashSet<>();
+		for (int i = 0; i < 9; i++) {
+			refs.add(gen.nextReference());
+		}
+		Assert.assertEquals(9, refs.size());
+		try {
+			final String r = gen.nextReference();
+			//Only possible if the hour changed during the test
+			Assert.assertNotEquals(hour, System.currentTimeMillis() / 3600000L);
+			Assert.assertFalse(refs.contains(r));
+		} catch (IllegalStateException expected) {
+			//The sequence doesn't wrap around
+		}
+	}
+
+	@Test
+	public void testJulianReferenceWrapAround() {
+		final JulianReferenceGenerator gen = new JulianReferenceGenerator(12345, 5,
+				TimeZone.getTimeZone("UTC"), true);
+		gen.setWrapAround(true);
+		final long hour = System.currentTimeMillis() / 3600000L;
+		final String first = gen.nextReference();
+		for (int i = 0; i < 8; i++) {
+			gen.nextReference();
+		}
+		final String r = gen.nextReference();
+		if (hour == System.currentTimeMillis() / 3600000L) {
+			Assert.assertEquals(first, r);
+		}
+	}
+
+	@Test
+	public void testJulianReferenceBuffers() {
+		final JulianReferenceGenerator gen = new JulianReferenceGenerator(0, 0,
+				TimeZone.getTimeZone("UTC"));
+		final byte[] bytes = new byte[14];
+		Assert.assertEquals(12, gen.nextReference(bytes, 2));
+		Assert.assertEquals(0, bytes[0]);
+		final char[] chars = new char[12];
+		Assert.assertEquals(12, gen.nextReference(chars, 0));
+		final String b = new String(bytes, 2, 12);
+		final String c = new String(chars);
+		if (b.startsWith(c.substring(0, 5))) {
+			Assert.assertTrue(b.endsWith("0000001"));
+			Assert.assertTrue(c.endsWith("0000002"));
+		}
+	}
+
+	@Test
+	public void testFactoryReferenceExhausted() {
+		final MessageFactory<IsoMessage> mf = new MessageFactory<>();
+		mf.setReferenceNumberGenerator(() -> {
+			throw new IllegalStateException("No more references");
+		});
+		final IsoMessage m = mf.newMessage(0x200);
+		Assert.assertNotNull(m);
+		Assert.assertFalse(m.hasField(37));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidNode() {
+		new JulianReferenceGenerator(100);
+	}
+
+	@Test
+	public void testFactoryReference() {
+		final MessageFactory<IsoMessage> mf = new MessageFactory<>();
+		mf.setReferenceNumberGenerator(new JulianReferenceGenerator(3));
+		final IsoMessage m = mf.newMessage(0x200);
+		Assert.assertEquals(IsoType.NUMERIC, m.getField(37).getType());
+		Assert.assertEquals(12, m.getField(37).getLength());
+		Assert.assertTrue(m.getObjectValue(37).toString().endsWith("0300001"));
+		Assert.assertTrue(mf.newMessage(0x200).getObjectValue(37).toString().endsWith("0300002"));
+	}
+
+	private void assertUnique(final TraceNumberGenerator gen) throws Exception {
+		final int threads = 4;
+		final int perThread = 20000;
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		@SuppressWarnings("unchecked")
+		final Future<int[]>[] results = new Future[threads];
+		for (int t = 0; t < threads; t++) {
+			results[t] = pool.submit(() -> {
+				final int[] nums = new int[perThread];
+				for (int i = 0; i < perThread; i++) {
+					nums[i] = gen.nextTrace();
+				}
+				return nums;
+			});
+		}
+		final BitSet seen = new BitSet(1000000);
+		for (Future<int[]> f : results) {
+			for (int n : f.get()) {
+				Assert.assertTrue(n >= 1 && n <= 999999);
+				Assert.assertFalse("Repeated trace " + n, seen.get(n));
+				seen.set(n);
+			}
+		}
+		pool.shutdown();
+		Assert.assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertEquals(threads * perThread, seen.cardinality());
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.solab.iso8583.impl;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.solab.iso8583.TraceNumberGenerator;
+
+/** Measures the throughput of the trace generators when many threads request numbers at
+ * the same time. This is not run with the tests; run it with
+ * <code>java com.solab.iso8583.impl.TraceGeneratorBenchmark [threads] [numbersPerThread]</code>
+ * from the test classpath. Defaults are 32 threads and one million numbers per thread.
+ */
+public class TraceGeneratorBenchmark {
+
+	public static void main(String[] args) throws InterruptedException {
+		final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		final int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+		for (int round = 0; round < 3; round++) {
+			System.out.printf("Round %d, %d threads, %d numbers each%n", round + 1, threads, count);
+			run("synchronized", new SimpleTraceGenerator(1), threads, count);
+			run("atomic", new AtomicTraceGenerator(1), threads, count);
+			run("striped(1000)", new StripedTraceGenerator(1, 1000), threads, count);
+		}
+	}
+
+	private static void run(String name, final TraceNumberGenerator gen, int threads, final int count)
+			throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] workers = new Thread[threads];
+		final long[] sums = new long[threads];
+		for (int t = 0; t < threads; t++) {
+			final int slot = t;
+			workers[t] = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException ex) {
+					return;
+				}
+				long sum = 0;
+				for (int i = 0; i < count; i++) {
+					sum += gen.nextTrace();
+				}
+				sums[slot] = sum;
+			});
+			workers[t].start();
+		}
+		final long t0 = System.nanoTime();
+		start.countDown();
+		for (Thread w : workers) {
+			w.join();
+		}
+		final long nanos = System.nanoTime() - t0;
+		System.out.printf("%-15s %8.1f ms %10.0f numbers/ms%n", name, nanos / 1e6,
+				(double)threads * count / (nanos / 1e6));
+	}
+
+}
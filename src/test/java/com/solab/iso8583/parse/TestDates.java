@@ -4,12 +4,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.Date;
+import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
 import org.junit.*;
 
 import com.solab.iso8583.IsoType;
 import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.util.DateEngine;
 
 /** Test that the dates are formatted and parsed correctly.
  * 
@@ -61,4 +64,47 @@ public class TestDates {
 		Assert.assertEquals(comp.getValue().getTime(), bin.getValue().getTime());
 	}
 
+	@Test
+	public void testDateEngine() {
+		//Includes the days when daylight saving time starts and ends
+		TimeZone tz = TimeZone.getTimeZone("America/New_York");
+		int[][] dates = { {2014, 3, 9, 2, 30}, {2014, 11, 2, 1, 30}, {2012, 2, 29, 23, 59},
+				{2013, 2, 31, 12, 0}, {1999, 12, 31, 24, 0}, {2050, 1, 1, 0, 0} };
+		for (int[] d : dates) {
+			Calendar cal = new GregorianCalendar(tz);
+			cal.clear();
+			cal.set(d[0], d[1] - 1, d[2], d[3], d[4], 7);
+			Assert.assertEquals(cal.getTimeInMillis(),
+					DateEngine.toMillis(d[0], d[1], d[2], d[3], d[4], 7, 0, tz));
+		}
+	}
+
+	@Test
+	public void testDateEngineFutureTolerance() {
+		TimeZone tz = TimeZone.getTimeZone("GMT+0100");
+		Calendar cal = new GregorianCalendar(tz);
+		cal.add(Calendar.MONTH, 2);
+		long later = cal.getTimeInMillis();
+		cal.add(Calendar.YEAR, -1);
+		Assert.assertEquals(cal.getTimeInMillis(),
+				DateEngine.adjustWithFutureTolerance(later, 900000, tz));
+		long soon = System.currentTimeMillis() + 50000;
+		Assert.assertEquals(soon, DateEngine.adjustWithFutureTolerance(soon, 900000, tz));
+	}
+
+	@Test
+	public void testDateEngineDefaultTimeZone() {
+		final TimeZone def = TimeZone.getDefault();
+		try {
+			TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+			Assert.assertEquals("Pacific/Kiritimati", DateEngine.today().getTimeZone().getID());
+			TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Pago_Pago"));
+			Assert.assertEquals("Pacific/Pago_Pago", DateEngine.today().getTimeZone().getID());
+			Calendar cal = new GregorianCalendar();
+			Assert.assertEquals(cal.get(Calendar.DATE), DateEngine.today().getDay());
+		} finally {
+			TimeZone.setDefault(def);
+		}
+	}
+
 }
@@ -28,4 +28,20 @@ public class TestEncoding {
         Assert.assertEquals(data.substring(2), field.getValue());
     }
 
+    @Test
+    public void consumedBytes() throws UnsupportedEncodingException, ParseException {
+        final byte[] buf = "05ácido1234".getBytes("UTF-8");
+        final FieldParseResult result = new FieldParseResult();
+        final LlvarParseInfo parser = new LlvarParseInfo();
+        parser.setCharacterEncoding("UTF-8");
+        parser.parse(1, buf, 0, buf.length, null, result);
+        Assert.assertEquals("ácido", result.getValue().getValue());
+        //Five characters but six bytes, plus the header
+        Assert.assertEquals(8, result.getLength());
+        final NumericParseInfo num = new NumericParseInfo(4);
+        num.parse(2, buf, result.getLength(), buf.length, null, result);
+        Assert.assertEquals("1234", result.getValue().getValue());
+        Assert.assertEquals(4, result.getLength());
+    }
+
 }
@@ -0,0 +1,115 @@
+package com.solab.iso8583.parse;
+
+import com.solab.iso8583.CustomField;
+import com.solab.iso8583.IsoMessage;
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.IsoValue;
+import com.solab.iso8583.MessageFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.text.ParseException;
+import java.util.Collections;
+
+/** Parsers written before the result-based methods existed, which only override the
+ * methods that return an IsoValue, must keep working.
+ */
+public class TestLegacyParser {
+
+    /** Reads ALPHA values in upper case, the way a third-party parser would. */
+    private static class UpperCaseParseInfo extends FieldParseInfo {
+        private byte[] lastBuffer;
+        UpperCaseParseInfo(int len) {
+            super(IsoType.ALPHA, len);
+        }
+        @Override
+        public <T> IsoValue<?> parse(int field, byte[] buf, int pos, CustomField<T> custom)
+                throws ParseException, UnsupportedEncodingException {
+            lastBuffer = buf;
+            if (pos + length > buf.length) {
+                throw new ParseException("Insufficient data", pos);
+            }
+            return new IsoValue<>(type, new String(buf, pos, length, "US-ASCII").toUpperCase(), length);
+        }
+        @Override
+        public <T> IsoValue<?> parseBinary(int field, byte[] buf, int pos, CustomField<T> custom)
+                throws ParseException, UnsupportedEncodingException {
+            return parse(field, buf, pos, custom);
+        }
+    }
+
+    @Test
+    public void testResultMethods() throws Exception {
+        final UpperCaseParseInfo fpi = new UpperCaseParseInfo(4);
+        final byte[] buf = "xxabcdef".getBytes("US-ASCII");
+        final FieldParseResult result = new FieldParseResult();
+        fpi.parse(2, buf, 2, buf.length, null, result);
+        Assert.assertFalse(result.isError());
+        Assert.assertEquals("ABCD", result.getValue().getValue());
+        Assert.assertEquals(4, result.getLength());
+        fpi.parseBinary(2, buf, 2, buf.length, null, result);
+        Assert.assertEquals(4, result.getLength());
+        //The limit is respected even though the parser reads the whole buffer
+        fpi.parse(2, buf, 2, 5, null, result);
+        Assert.assertEquals(ParseError.INSUFFICIENT_DATA, result.getError());
+        Assert.assertEquals("ABCD", fpi.parse(2, buf, 2, 6, null).getValue());
+        //The message is not copied for every field
+        Assert.assertSame(buf, fpi.lastBuffer);
+    }
+
+    @Test
+    public void testNoOverrides() throws Exception {
+        final FieldParseInfo fpi = new FieldParseInfo(IsoType.ALPHA, 4) {};
+        final byte[] buf = "abcd".getBytes("US-ASCII");
+        try {
+            fpi.parse(2, buf, 0, null);
+            Assert.fail("A parser without parse methods should fail");
+        } catch (UnsupportedOperationException ex) {
+            //instead of a StackOverflowError
+        }
+        try {
+            fpi.parseBinary(2, buf, 0, buf.length, null, new FieldParseResult());
+            Assert.fail("A parser without parseBinary methods should fail");
+        } catch (UnsupportedOperationException ex) {
+            //ok
+        }
+    }
+
+    @Test
+    public void testImmutableCopy() throws Exception {
+        final UpperCaseParseInfo fpi = new UpperCaseParseInfo(4);
+        final FieldParseInfo copy = fpi.immutableCopy();
+        //The parser given by the caller is not changed
+        Assert.assertNotSame(fpi, copy);
+        Assert.assertFalse(fpi.isImmutable());
+        fpi.setForceStringDecoding(true);
+        Assert.assertTrue(copy.isImmutable());
+        Assert.assertSame(copy, copy.immutableCopy());
+        Assert.assertEquals(IsoType.ALPHA, copy.getType());
+        Assert.assertEquals(4, copy.getLength());
+        try {
+            copy.setCharacterEncoding("UTF-8");
+            Assert.fail("The copy should be immutable");
+        } catch (UnsupportedOperationException ex) {
+            //ok
+        }
+        final byte[] buf = "abcd".getBytes("US-ASCII");
+        Assert.assertEquals("ABCD", copy.parse(2, buf, 0, null).getValue());
+        Assert.assertSame(buf, fpi.lastBuffer);
+    }
+
+    @Test
+    public void testFactory() throws Exception {
+        final MessageFactory<IsoMessage> mf = new MessageFactory<>();
+        mf.setCharacterEncoding("US-ASCII");
+        mf.setParseMap(0x200, Collections.<Integer, FieldParseInfo>singletonMap(41,
+                new UpperCaseParseInfo(4)));
+        final IsoMessage m = mf.parseMessage("02000000000000800000abcd".getBytes("US-ASCII"), 0);
+        Assert.assertEquals("ABCD", m.getObjectValue(41));
+        mf.compile();
+        Assert.assertEquals("ABCD", mf.parseMessage(
+                "02000000000000800000abcd".getBytes("US-ASCII"), 0).getObjectValue(41));
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.solab.iso8583.util;
+
+import java.text.ParseException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBitmap {
+
+	@Test
+	public void testFields() {
+		Bitmap b = new Bitmap();
+		Assert.assertTrue(b.isEmpty());
+		b.set(2);
+		b.set(64);
+		b.set(65);
+		b.set(128);
+		Assert.assertTrue(b.get(2));
+		Assert.assertFalse(b.get(3));
+		Assert.assertTrue(b.needsSecondary());
+		Assert.assertEquals(4, b.cardinality());
+		Assert.assertEquals(2, b.nextField(1));
+		Assert.assertEquals(64, b.nextField(3));
+		Assert.assertEquals(65, b.nextField(65));
+		Assert.assertEquals(128, b.nextField(66));
+		Assert.assertEquals(-1, b.nextField(129));
+		b.clear(65);
+		b.clear(128);
+		Assert.assertFalse(b.needsSecondary());
+		Assert.assertEquals(-1, b.nextField(65));
+	}
+
+	@Test
+	public void testOutOfRange() {
+		final Bitmap b = new Bitmap();
+		for (int field : new int[]{ -1, 0, 129 }) {
+			try {
+				b.set(field);
+				Assert.fail("set should reject field " + field);
+			} catch (IndexOutOfBoundsException ex) {
+				//ok
+			}
+			try {
+				b.get(field);
+				Assert.fail("get should reject field " + field);
+			} catch (IndexOutOfBoundsException ex) {
+				//ok
+			}
+			try {
+				b.clear(field);
+				Assert.fail("clear should reject field " + field);
+			} catch (IndexOutOfBoundsException ex) {
+				//ok
+			}
+		}
+		Assert.assertTrue(b.isEmpty());
+	}
+
+	@Test
+	public void testHex() throws ParseException {
+		final String hex = "F23C44810AE18000";
+		final long w = Bitmap.readHexWord(hex.getBytes(), 0);
+		Bitmap b = new Bitmap(w, 0);
+		Assert.assertTrue(b.get(1));
+		Assert.assertTrue(b.get(4));
+		Assert.assertFalse(b.get(5));
+		Assert.assertEquals(w, Bitmap.readHexWord(hex.toLowerCase().getBytes(), 0));
+		Assert.assertEquals(hex.replace('F', '7'), b.toHexString(false));
+		Assert.assertEquals(hex + "0000000000000000", b.toHexString(true));
+	}
+
+	@Test
+	public void testBinary() {
+		final byte[] data = new byte[]{ (byte)0x80, 0x20, 0, 0, 0, 0, 0, 1,  0, 0, 0, 0, 0, 0, 0, 1 };
+		Bitmap b = new Bitmap(Bitmap.readBinaryWord(data, 0), Bitmap.readBinaryWord(data, 8));
+		Assert.assertEquals(1, b.nextField(1));
+		Assert.assertEquals(11, b.nextField(2));
+		Assert.assertEquals(64, b.nextField(12));
+		Assert.assertEquals(128, b.nextField(65));
+		final byte[] out = new byte[16];
+		Assert.assertEquals(16, b.writeBinary(out, 0, true));
+		Assert.assertArrayEquals(data, out);
+		Assert.assertEquals(8, b.writeBinary(out, 0, false));
+		Assert.assertEquals(0, out[0]);
+	}
+
+	@Test(expected=ParseException.class)
+	public void testInvalidHex() throws ParseException {
+		Bitmap.readHexWord("F23C44810AE1800G".getBytes(), 0);
+	}
+
+}
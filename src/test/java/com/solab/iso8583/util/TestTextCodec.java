@@ -0,0 +1,79 @@
+package com.solab.iso8583.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.solab.iso8583.IsoType;
+import com.solab.iso8583.IsoValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTextCodec {
+
+	private final String[] samples = { "", "HOLA 123", "Añoño ÉÍ", "€uro", "日本語", "😀 x", "\ud83d" };
+
+	private void compare(String encoding) throws IOException {
+		TextCodec codec = TextCodec.forName(encoding);
+		Charset cs = Charset.forName(encoding);
+		for (String s : samples) {
+			byte[] expected = s.getBytes(cs);
+			Assert.assertArrayEquals(encoding + " " + s, expected, codec.encode(s));
+			Assert.assertEquals(encoding + " " + s, expected.length, codec.encodedLength(s));
+			Assert.assertEquals(encoding + " " + s, new String(expected, cs),
+					codec.decode(expected, 0, expected.length));
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			codec.write(s, bout);
+			Assert.assertArrayEquals(encoding + " " + s, expected, bout.toByteArray());
+		}
+		//Digits, hex and padding written without Strings
+		if (codec.hasAsciiTable()) {
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			codec.writeDigits(42, 4, bout);
+			codec.writeHex(new byte[]{ 0x0a, (byte)0xf3 }, 0, 2, bout);
+			codec.writeRepeated(' ', 3, bout);
+			Assert.assertArrayEquals(encoding, "00420AF3   ".getBytes(cs), bout.toByteArray());
+		}
+		//Bytes that are not valid in the encoding
+		byte[] buf = { 0x41, (byte)0xc3, (byte)0xff, 0x42 };
+		Assert.assertEquals(new String(buf, 1, 3, cs), codec.decode(buf, 1, 3));
+	}
+
+	@Test
+	public void testCodecs() throws IOException {
+		compare("ISO-8859-1");
+		compare("US-ASCII");
+		compare("UTF-8");
+		compare("windows-1252");
+		compare("UTF-16");
+		compare("Cp1047");
+		Assert.assertSame(TextCodec.forName("UTF-8"), TextCodec.forName("UTF-8"));
+		Assert.assertTrue(TextCodec.forName("ISO-8859-1").isAsciiDigits());
+		Assert.assertFalse(TextCodec.forName("Cp1047").isAsciiDigits());
+	}
+
+	@Test
+	public void testPaddedUtf16() throws IOException {
+		final IsoValue<String> alpha = new IsoValue<>(IsoType.ALPHA, "ab", 5);
+		alpha.setCharacterEncoding("UTF-16");
+		final IsoValue<String> num = new IsoValue<>(IsoType.NUMERIC, "42", 6);
+		num.setCharacterEncoding("UTF-16");
+		for (IsoValue<String> v : Arrays.asList(alpha, num)) {
+			final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			v.write(bout, false, false);
+			//A single byte order mark for the whole padded value
+			Assert.assertArrayEquals(v.toString().getBytes("UTF-16"), bout.toByteArray());
+			Assert.assertEquals(bout.size(), v.encodedLength(false, false));
+		}
+		Assert.assertFalse(TextCodec.forName("UTF-16").canWritePieces());
+		Assert.assertTrue(TextCodec.forName("Cp1047").canWritePieces());
+	}
+
+	@Test(expected = UnsupportedEncodingException.class)
+	public void testUnsupported() throws UnsupportedEncodingException {
+		TextCodec.forName("NO-SUCH-ENCODING");
+	}
+
+}